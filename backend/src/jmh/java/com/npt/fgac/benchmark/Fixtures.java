@@ -0,0 +1,102 @@
+package com.npt.fgac.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.ChoiceDto;
+import com.npt.fgac.dto.ChoiceMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageContentDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ImageText;
+import com.npt.fgac.dto.ImageUrl;
+import com.npt.fgac.dto.ModelDto;
+import com.npt.fgac.dto.ModelListResponseDto;
+import com.npt.fgac.dto.UsageDto;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 벤치마크용 요청/응답 데이터
+ * 실제 사용과 비슷하게 긴 대화 기록(한글/영문 섞인 턴 수십 개), base64로 넣은 사진, 긴 답변, 모델 수십 개짜리 목록을 만듭니다.
+ * 같은 입력이 나오도록 난수 시드를 고정합니다.
+ */
+final class Fixtures {
+    private static final String SENTENCE = "이 함수는 입력 배열을 정렬한 뒤 이진 탐색으로 값을 찾습니다. "
+            + "The complexity is O(n log n) for sorting and O(log n) per lookup, \"quoted\" and escaped\\n. ";
+
+    private Fixtures() {
+    }
+
+    static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(SENTENCE);
+        }
+        return text.substring(0, length);
+    }
+
+    /**
+     * user/assistant가 번갈아 나오는 turns개의 대화. 답변이 질문보다 깁니다.
+     */
+    static CompletionRequestDto history(int turns) {
+        List<ChatMessageDto> messages = new ArrayList<>();
+        messages.add(new ChatMessageDto("system", text(300)));
+        for (int i = 0; i < turns; i++) {
+            messages.add(new ChatMessageDto(i % 2 == 0 ? "user" : "assistant", text(i % 2 == 0 ? 400 : 1500)));
+        }
+        return new CompletionRequestDto(messages);
+    }
+
+    /**
+     * 질문 하나와 data: URL로 넣은 사진 하나 (imageBytes 크기의 JPEG를 base64로 인코딩한 크기)
+     */
+    static ImageMessageDto image(int imageBytes) {
+        byte[] jpeg = new byte[imageBytes];
+        new Random(42).nextBytes(jpeg);
+        String dataUrl = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(jpeg);
+        ImageMessageContentDto content = new ImageMessageContentDto("user", List.of(
+                new ImageText("text", text(200), null),
+                new ImageText("image_url", null, new ImageUrl(dataUrl))));
+        return new ImageMessageDto("gpt-4o", List.of(content));
+    }
+
+    /**
+     * /v1/chat/completions 응답 본문 (answerLength 글자 답변)
+     */
+    static byte[] completionResponse(ObjectMapper objectMapper, int answerLength) {
+        ChatCompletionResponseDto response = new ChatCompletionResponseDto("chatcmpl-9x8y7z", "chat.completion",
+                1_720_000_000L, "gpt-4o-2024-05-13",
+                List.of(new ChoiceDto(0, new ChoiceMessageDto("assistant", text(answerLength), null), null, "stop")),
+                new UsageDto(4_200, answerLength / 3, 4_200 + answerLength / 3));
+        // 실제 응답에는 DTO가 무시하는 필드도 있습니다.
+        Map<String, Object> body = objectMapper.convertValue(response, new TypeReference<Map<String, Object>>() {});
+        body.put("system_fingerprint", "fp_3aa7262c27");
+        return write(objectMapper, body);
+    }
+
+    /**
+     * /v1/models 응답 본문
+     */
+    static byte[] modelListResponse(ObjectMapper objectMapper, int models) {
+        List<ModelDto> data = new ArrayList<>();
+        for (int i = 0; i < models; i++) {
+            data.add(new ModelDto("gpt-4o-variant-" + i, "model", 1_700_000_000L + i, i % 3 == 0 ? "openai" : "system"));
+        }
+        return write(objectMapper, new ModelListResponseDto("list", data));
+    }
+
+    private static byte[] write(ObjectMapper objectMapper, Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
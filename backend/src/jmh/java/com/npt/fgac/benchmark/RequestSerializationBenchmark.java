@@ -0,0 +1,67 @@
+package com.npt.fgac.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenAI로 보내는 요청 본문 직렬화
+ * history : 턴 60개짜리 대화 (CompletionRequestDto / ChatMessageDto)
+ * image : base64 사진(원본 750KB, 약 1MB)이 들어간 질문 (ImageMessageDto / ImageText / ImageUrl)
+ *
+ * prettyPrintedString : 예전 컨트롤러가 요청마다 ObjectMapper를 만들어 보기 좋게 출력하던 방식 (비교 기준)
+ * bytes : AsyncChatGPTServiceImpl.jsonPost (byte[]로 만든 뒤 보냄)
+ * streamed : ChatGPTServiceImpl.writeJson (소켓 스트림에 바로 씀, 여기서는 버리는 스트림)
+ * streamedWithTypedWriter : 타입을 미리 정한 ObjectWriter로 스트림에 바로 씀
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestSerializationBenchmark {
+    @Param({"history", "image"})
+    public String payload;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter typedWriter;
+    private Object request;
+
+    @Setup
+    public void setUp() {
+        // 스프링이 주입하는 ObjectMapper와 같은 설정
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        request = "image".equals(payload) ? Fixtures.image(750 * 1024) : Fixtures.history(60);
+        typedWriter = objectMapper.writerFor(request.getClass());
+    }
+
+    @Benchmark
+    public String prettyPrintedString() throws IOException {
+        return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(request);
+    }
+
+    @Benchmark
+    public byte[] bytes() throws IOException {
+        return objectMapper.writeValueAsBytes(request);
+    }
+
+    @Benchmark
+    public void streamed() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), request);
+    }
+
+    @Benchmark
+    public void streamedWithTypedWriter() throws IOException {
+        typedWriter.writeValue(OutputStream.nullOutputStream(), request);
+    }
+}
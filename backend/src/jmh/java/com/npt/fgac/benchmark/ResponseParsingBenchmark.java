@@ -0,0 +1,117 @@
+package com.npt.fgac.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ModelListResponseDto;
+import com.npt.fgac.service.ChatGPTResponseReader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenAI 응답 본문 파싱
+ * completion : 4000자 답변이 들어간 /v1/chat/completions 응답, models : 모델 80개짜리 /v1/models 응답
+ *
+ * stringToMapWithNewMapper : 처음 구현처럼 본문을 String으로 받아 요청마다 만든 ObjectMapper로 Map에 읽는 방식 (비교 기준)
+ * tree : 공용 ObjectMapper로 JsonNode 트리에 읽는 방식
+ * typedFromBytes : AsyncChatGPTServiceImpl이 쓰는 ChatGPTResponseReader.readCompletion(byte[])
+ * typedFromStream : ChatGPTServiceImpl이 쓰는 ChatGPTResponseReader.readCompletion(ClientHttpResponse)
+ * typedWithoutReader : 지표 기록 없이 같은 DTO로 바로 읽는 방식
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseParsingBenchmark {
+    @Param({"completion", "models"})
+    public String payload;
+
+    private ObjectMapper objectMapper;
+    private ChatGPTResponseReader responseReader;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        // 지표는 켜 둔 상태 그대로 측정합니다. (트레이스 없음)
+        responseReader = new ChatGPTResponseReader(objectMapper, ObservationRegistry.create(), new SimpleMeterRegistry());
+        body = "models".equals(payload) ? Fixtures.modelListResponse(objectMapper, 80) : Fixtures.completionResponse(objectMapper, 4000);
+    }
+
+    @Benchmark
+    public Map<String, Object> stringToMapWithNewMapper() throws IOException {
+        String response = new String(body, StandardCharsets.UTF_8);
+        return new ObjectMapper().readValue(response, new TypeReference<>() {
+        });
+    }
+
+    @Benchmark
+    public JsonNode tree() throws IOException {
+        return objectMapper.readTree(body);
+    }
+
+    @Benchmark
+    public Object typedFromBytes() {
+        return "models".equals(payload) ? responseReader.readModels(body) : responseReader.readCompletion(body);
+    }
+
+    @Benchmark
+    public Object typedFromStream() throws IOException {
+        ClientHttpResponse response = new BytesResponse(body);
+        return "models".equals(payload) ? responseReader.readModels(response) : responseReader.readCompletion(response);
+    }
+
+    @Benchmark
+    public Object typedWithoutReader() throws IOException {
+        // 지표 없이 공용 ObjectMapper로 바로 읽는 방식 (리더가 더하는 비용 비교용)
+        Class<?> type = "models".equals(payload) ? ModelListResponseDto.class : ChatCompletionResponseDto.class;
+        return objectMapper.readValue(body, type);
+    }
+
+    // RestTemplate이 ResponseExtractor에 넘겨주는 응답과 같은 모양
+    private record BytesResponse(byte[] body) implements ClientHttpResponse {
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatus.OK;
+        }
+
+        @Override
+        public String getStatusText() {
+            return "OK";
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return HttpHeaders.EMPTY;
+        }
+    }
+}
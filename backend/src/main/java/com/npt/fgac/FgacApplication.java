@@ -3,8 +3,10 @@ package com.npt.fgac;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FgacApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(FgacApplication.class, args);
@@ -0,0 +1,29 @@
+package com.npt.fgac.config;
+
+import com.npt.fgac.service.CallerResolver;
+import com.npt.fgac.service.FairShareAdmission;
+import jakarta.servlet.DispatcherType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 공정 입장 필터 등록
+ * /api/v1/chatGpt/** 요청에만 걸고, 줄을 선 뒤의 dispatch(ASYNC)도 지나가도록 등록합니다.
+ */
+@Configuration
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "my.admission.enabled", havingValue = "true")
+    public FilterRegistrationBean<AdmissionFilter> admissionFilter(FairShareAdmission admission, CallerResolver callerResolver) {
+        FilterRegistrationBean<AdmissionFilter> registration = new FilterRegistrationBean<>(new AdmissionFilter(admission, callerResolver));
+        registration.addUrlPatterns("/api/v1/chatGpt/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+}
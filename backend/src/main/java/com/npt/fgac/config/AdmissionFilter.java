@@ -0,0 +1,167 @@
+package com.npt.fgac.config;
+
+import com.npt.fgac.service.CallerResolver;
+import com.npt.fgac.service.FairShareAdmission;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * ChatGPTController 앞단 공정 입장 필터 (POST 요청만)
+ * [STEP1] CallerResolver로 호출자를 구분해서 FairShareAdmission에 입장권을 요청합니다.
+ * [STEP2] 바로 들어갈 수 있으면 그대로 처리하고, 줄을 서야 하면 startAsync로 Tomcat 스레드를 돌려준 뒤 차례가 오면 다시 dispatch 합니다.
+ * [STEP3] 거절되면 Retry-After와 함께 429를 돌려줍니다.
+ * [STEP4] 입장권은 응답이 끝날 때(비동기 응답이면 AsyncContext가 끝날 때) 돌려줍니다.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class AdmissionFilter extends OncePerRequestFilter {
+    private static final String PERMIT = AdmissionFilter.class.getName() + ".permit";
+    private static final String REJECTION = AdmissionFilter.class.getName() + ".rejection";
+
+    private final FairShareAdmission admission;
+    private final CallerResolver callerResolver;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod());
+    }
+
+    // 줄을 서고 난 뒤의 dispatch와, 컨트롤러의 비동기 응답 dispatch도 이 필터를 지나야 입장권을 이어서 관리할 수 있습니다.
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (request.getAttribute(PERMIT) instanceof FairShareAdmission.Permit permit) {
+            proceed(request, response, filterChain, permit);
+            return;
+        }
+        if (request.getAttribute(REJECTION) instanceof FairShareAdmission.RejectedException rejection) {
+            reject(response, rejection);
+            return;
+        }
+        if (isAsyncDispatch(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        // [STEP1] 입장권 요청
+        CompletableFuture<FairShareAdmission.Permit> admitted;
+        try {
+            admitted = admission.acquire(callerResolver.resolve(request));
+        } catch (FairShareAdmission.RejectedException e) {
+            reject(response, e);
+            return;
+        }
+
+        // [STEP2] 바로 입장
+        FairShareAdmission.Permit permit = admitted.getNow(null);
+        if (permit != null) {
+            request.setAttribute(PERMIT, permit);
+            proceed(request, response, filterChain, permit);
+            return;
+        }
+
+        // [STEP2] 줄 서기. 기다리는 동안 스레드를 잡고 있지 않음
+        AsyncContext asyncContext = request.startAsync(request, response);
+        // 줄에서의 시간 제한(my.admission.max-wait)은 FairShareAdmission이 관리하므로 컨테이너 시간 제한은 두지 않습니다.
+        asyncContext.setTimeout(0);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                admitted.cancel(false);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                admitted.cancel(false);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        admitted.whenComplete((granted, failure) -> {
+            if (granted != null) {
+                request.setAttribute(PERMIT, granted);
+            } else if (unwrap(failure) instanceof FairShareAdmission.RejectedException rejection) {
+                request.setAttribute(REJECTION, rejection);
+            } else {
+                // 연결이 끊겨서 취소된 경우
+                return;
+            }
+            try {
+                asyncContext.dispatch();
+            } catch (IllegalStateException e) {
+                log.warn("[!] 입장 후 dispatch 실패 : {}", e.getMessage());
+                if (granted != null) {
+                    granted.release();
+                }
+            }
+        });
+    }
+
+    // [STEP4] 처리가 끝나면 입장권 반납
+    private void proceed(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain,
+                         FairShareAdmission.Permit permit) throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        permit.release();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        permit.release();
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        permit.release();
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                permit.release();
+            }
+        }
+    }
+
+    // [STEP3] 429 + Retry-After
+    private static void reject(HttpServletResponse response, FairShareAdmission.RejectedException rejection) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(rejection.getRetryAfter().toSeconds()));
+        response.sendError(rejection.getStatusCode().value(), rejection.getReason());
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+}
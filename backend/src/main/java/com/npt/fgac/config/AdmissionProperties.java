@@ -0,0 +1,31 @@
+package com.npt.fgac.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * 호출자별 공정 입장 (/api/v1/chatGpt/** POST 요청)
+ * 전체 동시 처리 수와 호출자(API 키, 세션, IP)별 동시 처리 수를 제한하고, 넘는 요청은 호출자별 줄에 세워서 weight 비율로 번갈아 들여보냅니다.
+ * 예상 대기 시간이 targetWait보다 길거나, 호출자 줄이 가득 차거나, maxWait 동안 차례가 오지 않으면 Retry-After와 함께 429를 돌려줍니다.
+ */
+@ConfigurationProperties(prefix = "my.admission")
+public record AdmissionProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("64") int maxConcurrent,
+        @DefaultValue("4") int perCaller,
+        @DefaultValue("32") int maxQueuePerCaller,
+        @DefaultValue("2s") Duration targetWait,
+        @DefaultValue("10s") Duration maxWait,
+        @DefaultValue Map<String, Double> weights) {
+
+    /**
+     * 호출자 weight. 없으면 1
+     */
+    public double weight(String caller) {
+        Double weight = weights.get(caller);
+        return weight == null || weight <= 0 ? 1.0 : weight;
+    }
+}
@@ -0,0 +1,20 @@
+package com.npt.fgac.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 호출자 식별 (호출자별 토큰 한도, 공정 입장)
+ * 헤더는 누구나 바꿔 보낼 수 있으므로 apiKeys에 등록된 키만 키로 인정하고, 나머지는 클라이언트 IP로 묶습니다.
+ * 세션은 IP 하나에 maxSessionsPerAddress개까지만 따로 세고, 넘으면 IP로 셉니다.
+ */
+@ConfigurationProperties(prefix = "my.caller")
+public record CallerProperties(
+        @DefaultValue List<String> apiKeys,
+        @DefaultValue("4") int maxSessionsPerAddress,
+        @DefaultValue("30m") Duration sessionTtl,
+        @DefaultValue("100000") int maxAddresses) {
+}
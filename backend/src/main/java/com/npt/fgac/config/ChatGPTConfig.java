@@ -1,12 +1,34 @@
 package com.npt.fgac.config;
+import com.npt.fgac.service.Deadline;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+
 @Configuration
+@EnableConfigurationProperties({UpstreamProperties.class, TokenProperties.class, PrefetchProperties.class, CallerProperties.class})
 public class ChatGPTConfig {
     // .yml파일에서 값을 받아오는 코드
     // @Value를 사용하면 application.properties, application.yml, 시스템 환경 변수, 또는 시스템 속성에서 값을 가져와 스프링 빈의 필드에 주입할 수 있습니다.
@@ -14,12 +36,122 @@ public class ChatGPTConfig {
     @Value("${my.api.key}")
     private String secretKey;
 
+    // 외부 API 호출용 HTTP 클라이언트 설정
+    @Value("${my.http.engine:apache}")
+    private String engine;
+    @Value("${my.http.max-connections:200}")
+    private int maxConnections;
+    @Value("${my.http.max-connections-per-host:50}")
+    private int maxConnectionsPerHost;
+    @Value("${my.http.connect-timeout:5s}")
+    private Duration connectTimeout;
+    @Value("${my.http.connection-request-timeout:5s}")
+    private Duration connectionRequestTimeout;
+    @Value("${my.http.response-timeout:120s}")
+    private Duration responseTimeout;
+    @Value("${my.http.read-timeout:120s}")
+    private Duration readTimeout;
+    @Value("${my.http.idle-eviction:30s}")
+    private Duration idleEviction;
+    @Value("${my.http.time-to-live:5m}")
+    private Duration timeToLive;
+
+    // RestTemplate 호출마다 http.client.requests 지표와 스팬을 남기고 traceparent 헤더를 붙입니다.
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
     @Bean
     public RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
+        RestTemplate restTemplate = new RestTemplate(clientHttpRequestFactory());
+        restTemplate.setObservationRegistry(observationRegistry);
         return restTemplate;
     }
 
+    /**
+     * my.http.engine 설정에 따라 RestTemplate이 사용할 HTTP 엔진을 구성합니다.
+     * 두 엔진 모두 커넥션을 재사용(keep-alive)하므로 요청마다 TLS 연결을 다시 맺지 않습니다.
+     */
+    @Bean
+    public ClientHttpRequestFactory clientHttpRequestFactory() {
+        if ("jdk".equalsIgnoreCase(engine)) {
+            JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(jdkHttpClient());
+            requestFactory.setReadTimeout(readTimeout);
+            return requestFactory;
+        }
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(apacheHttpClient());
+        // 마감이 있는 호출(Deadline.current())은 응답 타임아웃을 남은 시간으로 줄입니다.
+        requestFactory.setHttpContextFactory((method, uri) -> {
+            Deadline deadline = Deadline.current();
+            if (!deadline.isBounded()) {
+                return null;
+            }
+            HttpClientContext context = HttpClientContext.create();
+            context.setRequestConfig(RequestConfig.copy(requestConfig())
+                    .setResponseTimeout(Timeout.of(deadline.cap(responseTimeout).plusMillis(1)))
+                    .build());
+            return context;
+        });
+        return requestFactory;
+    }
+
+    /**
+     * Apache HttpClient 5 커넥션 풀
+     * 전체/호스트별 커넥션 수 제한, 유휴 커넥션 정리, 커넥션 수명, 타임아웃을 설정합니다.
+     */
+    @Bean
+    public PoolingHttpClientConnectionManager connectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerHost)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+    }
+
+    // 풀의 사용 중 / 유휴 / 대기 중인 커넥션 수 (httpcomponents.httpclient.pool.*)
+    @Bean
+    public MeterBinder connectionPoolMetrics(PoolingHttpClientConnectionManager connectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "openai");
+    }
+
+    private CloseableHttpClient apacheHttpClient() {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager())
+                .setDefaultRequestConfig(requestConfig())
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .evictExpiredConnections()
+                .build();
+    }
+
+    private RequestConfig requestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                .setResponseTimeout(Timeout.of(responseTimeout))
+                .build();
+    }
+
+    /**
+     * JDK HttpClient
+     * HTTP/2를 우선 사용하고 서버가 지원하지 않으면 HTTP/1.1로 내려갑니다.
+     * HTTP/2에서는 호스트당 하나의 커넥션을 다중화해서 사용합니다.
+     */
+    @Bean
+    public HttpClient jdkHttpClient() {
+        // JDK 클라이언트는 유휴 커넥션 정리 시간을 시스템 속성으로만 받는다
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(idleEviction.toSeconds()));
+        }
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
     @Bean
     public HttpHeaders httpHeaders() {
         HttpHeaders headers = new HttpHeaders();
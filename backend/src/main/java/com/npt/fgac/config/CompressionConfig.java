@@ -0,0 +1,30 @@
+package com.npt.fgac.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * 요청 본문 압축 풀기 필터 등록
+ * 응답 압축(gzip)은 Tomcat이 server.compression 설정으로 처리합니다. (Accept-Encoding에 따라 JSON과 SSE 모두)
+ * AdmissionFilter보다 먼저 걸어야 줄을 선 요청도 압축을 푼 요청으로 다시 dispatch 됩니다.
+ */
+@Configuration
+public class CompressionConfig {
+    @Value("${my.compression.max-request-size:10MB}")
+    private DataSize maxRequestSize;
+
+    @Bean
+    @ConditionalOnProperty(name = "my.compression.request-enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean<RequestDecompressionFilter> requestDecompressionFilter() {
+        FilterRegistrationBean<RequestDecompressionFilter> registration =
+                new FilterRegistrationBean<>(new RequestDecompressionFilter(maxRequestSize.toBytes()));
+        registration.addUrlPatterns("/api/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+}
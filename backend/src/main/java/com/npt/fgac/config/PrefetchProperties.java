@@ -0,0 +1,29 @@
+package com.npt.fgac.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 안내 단계 다음 질문 미리 호출하기
+ * steps는 화면이 단계마다 보내는 고정 질문(frontend Input.tsx의 fixedPrompts)과 같은 순서, 같은 문장이어야 합니다.
+ * 미리 호출은 maxInFlight, tokensPerMinute 안에서만 하고, 넘으면 건너뜁니다.
+ */
+@ConfigurationProperties(prefix = "my.prefetch")
+public record PrefetchProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("5m") Duration ttl,
+        @DefaultValue("8") int maxInFlight,
+        @DefaultValue("20000") int tokensPerMinute,
+        @DefaultValue("10000") int maxConversations,
+        @DefaultValue List<String> steps) {
+
+    /**
+     * 고정 질문이 몇 번째 단계인지. 단계 질문이 아니면 -1
+     */
+    public int stepOf(String text) {
+        return text == null ? -1 : steps.indexOf(text.trim());
+    }
+}
@@ -0,0 +1,30 @@
+package com.npt.fgac.config;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * 압축을 푼 요청 본문이 한도를 넘은 경우 413으로 돌려주기
+ * RequestDecompressionFilter가 읽는 도중에 던진 예외는 본문을 읽는 쪽(Jackson, 메시지 컨버터)이 감싸서 400이 되므로 원인을 찾아서 바꿉니다.
+ * 다른 이유로 읽지 못한 본문은 다시 던져서 기본 처리(400)를 그대로 받습니다.
+ */
+@Slf4j
+@RestControllerAdvice
+public class RequestBodyTooLargeHandler {
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public void bodyTooLarge(HttpMessageNotReadableException e, HttpServletResponse response) throws Exception {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof RequestDecompressionFilter.BodyTooLargeException tooLarge) {
+                log.warn("[!] 압축을 푼 요청 본문이 너무 큽니다 : {}", tooLarge.getMessage());
+                response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(), tooLarge.getMessage());
+                return;
+            }
+        }
+        throw e;
+    }
+}
@@ -0,0 +1,219 @@
+package com.npt.fgac.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 압축한 요청 본문 받기 (Content-Encoding: gzip / deflate)
+ * 긴 대화 기록(PUT /conversations/{id}, /prompt)을 느린 모바일 회선에서 보낼 때 올리는 바이트를 줄입니다.
+ * [STEP1] Content-Encoding이 없거나 identity면 그대로 넘깁니다.
+ * [STEP2] gzip / deflate가 아니거나 multipart 요청이면 415를 돌려줍니다. (multipart는 Tomcat이 원본 스트림을 직접 읽음)
+ * [STEP3] 본문을 읽을 때 풀어서 넘기고, 푼 크기가 maxSize를 넘으면 BodyTooLargeException으로 멈춥니다. (압축 폭탄 방지)
+ *         본문을 읽는 쪽(Jackson, @RequestBody)이 HttpMessageNotReadableException으로 감싸므로 RequestBodyTooLargeHandler가 413으로 바꿉니다.
+ * 압축이 깨져 있으면 본문을 읽는 쪽(@RequestBody)에서 400이 됩니다.
+ * 비동기 읽기(setReadListener)는 지원하지 않습니다. Spring MVC는 @RequestBody를 요청 스레드에서 blocking으로 읽고,
+ * 비동기 처리(SseEmitter, StreamingResponseBody, 공정 입장 대기)는 본문을 다 읽은 뒤나 읽기 전에 다시 dispatch 된 요청에서만 시작합니다.
+ */
+@Slf4j
+public class RequestDecompressionFilter extends OncePerRequestFilter {
+    private final long maxSize;
+
+    public RequestDecompressionFilter(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        // [STEP1]
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null || encoding.isBlank() || "identity".equalsIgnoreCase(encoding.trim())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        // [STEP2]
+        encoding = encoding.trim().toLowerCase(Locale.ROOT);
+        if (!"gzip".equals(encoding) && !"x-gzip".equals(encoding) && !"deflate".equals(encoding)) {
+            response.sendError(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value(), "Unsupported Content-Encoding: " + encoding);
+            return;
+        }
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            response.sendError(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value(), "Compressed multipart requests are not supported");
+            return;
+        }
+        // [STEP3]
+        log.debug("[+] 압축된 요청 본문 : {} ({} bytes)", encoding, request.getContentLengthLong());
+        filterChain.doFilter(new DecompressedRequest(request, encoding, maxSize), response);
+    }
+
+    /**
+     * 푼 본문이 maxSize를 넘었습니다. 읽는 쪽이 IOException으로 받아 감싸도 원인으로 남도록 IOException으로 던집니다.
+     */
+    public static class BodyTooLargeException extends IOException {
+        public BodyTooLargeException(long maxSize) {
+            super("Decompressed request body is larger than " + maxSize + " bytes");
+        }
+    }
+
+    private static final class DecompressedRequest extends HttpServletRequestWrapper {
+        private final String encoding;
+        private final long maxSize;
+        private ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        private DecompressedRequest(HttpServletRequest request, String encoding, long maxSize) {
+            super(request);
+            this.encoding = encoding;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (reader != null) {
+                throw new IllegalStateException("getReader() has already been called");
+            }
+            if (inputStream == null) {
+                InputStream compressed = getRequest().getInputStream();
+                inputStream = new LimitedInputStream("deflate".equals(encoding)
+                        ? new InflaterInputStream(compressed) : new GZIPInputStream(compressed), maxSize);
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                if (inputStream != null) {
+                    throw new IllegalStateException("getInputStream() has already been called");
+                }
+                String characterEncoding = getCharacterEncoding();
+                Charset charset = characterEncoding != null ? Charset.forName(characterEncoding) : StandardCharsets.UTF_8;
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), charset));
+                inputStream = null;
+            }
+            return reader;
+        }
+
+        // 푼 뒤의 길이는 미리 알 수 없습니다.
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (hidden(name)) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (hidden(name)) {
+                return Collections.emptyEnumeration();
+            }
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !hidden(name))
+                    .toList());
+        }
+
+        private static boolean hidden(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    private static final class LimitedInputStream extends ServletInputStream {
+        private final InputStream in;
+        private final long maxSize;
+        private long count;
+        private boolean finished;
+
+        private LimitedInputStream(InputStream in, long maxSize) {
+            this.in = in;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                finished = true;
+            } else {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read < 0) {
+                finished = true;
+            } else {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws BodyTooLargeException {
+            count += read;
+            if (count > maxSize) {
+                throw new BodyTooLargeException(maxSize);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        // 푸는 스트림은 blocking으로만 읽을 수 있습니다. (클래스 설명 참고)
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException("Non-blocking reads are not supported for compressed bodies");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.npt.fgac.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * 프롬프트 토큰 예산
+ * 업스트림에 보내기 전에 토큰 수를 세어서 모델 컨텍스트 창을 넘는 요청과 호출자별 분당 토큰 한도를 넘는 요청을 바로 돌려보냅니다.
+ * models에 없는 모델은 이름이 가장 길게 겹치는 항목(gpt-4o-2024-08-06 -> gpt-4o)을 쓰고, 그것도 없으면 defaults를 씁니다.
+ */
+@ConfigurationProperties(prefix = "my.tokens")
+public record TokenProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("8MB") DataSize countCache,
+        @DefaultValue("16") int minOutput,
+        @DefaultValue Limit defaults,
+        @DefaultValue Map<String, Limit> models,
+        @DefaultValue User user) {
+
+    /**
+     * 컨텍스트 창(입력 + 출력)과 한 번에 받을 수 있는 최대 출력 토큰 수
+     */
+    public record Limit(
+            @DefaultValue("128000") int contextWindow,
+            @DefaultValue("4096") int maxOutput) {
+    }
+
+    /**
+     * 호출자(API 키, 세션, IP)별 분당 토큰 한도. 0이면 제한하지 않습니다.
+     */
+    public record User(
+            @DefaultValue("0") int tokensPerMinute,
+            @DefaultValue("1m") Duration burst) {
+    }
+
+    public Limit limit(String model) {
+        if (model != null) {
+            Limit exact = models.get(model);
+            if (exact != null) {
+                return exact;
+            }
+            String matched = null;
+            for (String name : models.keySet()) {
+                if (model.startsWith(name) && (matched == null || name.length() > matched.length())) {
+                    matched = name;
+                }
+            }
+            if (matched != null) {
+                return models.get(matched);
+            }
+        }
+        return defaults;
+    }
+}
@@ -0,0 +1,41 @@
+package com.npt.fgac.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * OpenAI(또는 OpenAI 호환) 업스트림 목록
+ * 키마다 한도가 따로 있으므로 여러 키/주소를 등록하면 전체 처리량이 키 수만큼 늘어납니다.
+ * targets를 비워두면 my.api.key, my.api.openai-url 하나만 사용합니다.
+ */
+@ConfigurationProperties(prefix = "my.upstream")
+public record UpstreamProperties(
+        @DefaultValue List<Target> targets,
+        @DefaultValue Breaker breaker) {
+
+    /**
+     * requests-per-minute, tokens-per-minute를 비워두면 my.ratelimit 값을 사용합니다.
+     * models를 적으면 그 모델 요청만 이 업스트림으로 보냅니다. (로컬 서버처럼 일부 모델만 제공할 때)
+     */
+    public record Target(
+            String name,
+            String baseUrl,
+            String apiKey,
+            @DefaultValue("1") int weight,
+            Integer requestsPerMinute,
+            Integer tokensPerMinute,
+            @DefaultValue List<String> models) {
+    }
+
+    /**
+     * 연속 failure-threshold번 실패(5xx, 연결 오류)하면 open-duration 동안 보내지 않고,
+     * 그 뒤 한 번 시험 삼아 보내서 성공하면 다시 사용합니다.
+     */
+    public record Breaker(
+            @DefaultValue("5") int failureThreshold,
+            @DefaultValue("30s") Duration openDuration) {
+    }
+}
@@ -0,0 +1,53 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.dto.BatchJobDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.service.BatchService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+
+@RestController
+@RequestMapping(value = "/api/v1/chatGpt/batches")
+@RequiredArgsConstructor
+@Slf4j
+public class BatchController {
+    private final BatchService batchService;
+
+    /**
+     * [API] 즉시 응답이 필요 없는 대량 프롬프트를 OpenAI Batch API로 제출합니다.
+     * 바로 작업 id를 돌려주고, 처리는 백그라운드에서 진행됩니다.
+     */
+    @PostMapping
+    public ResponseEntity<BatchJobDto> submitBatch(@RequestBody List<CompletionRequestDto> completionRequestDto) {
+        return new ResponseEntity<>(batchService.submit(completionRequestDto), HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * [API] 배치 작업 상태를 조회합니다.
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<BatchJobDto> selectBatch(@PathVariable String jobId) {
+        return new ResponseEntity<>(batchService.job(jobId), HttpStatus.OK);
+    }
+
+    /**
+     * [API] 지금까지 받은 배치 결과를 JSONL(줄마다 custom_id, response, error)로 스트리밍합니다.
+     * 작업이 아직 진행 중이면 끝난 batch의 결과만 나오며, X-Batch-Status 헤더로 상태를 알려줍니다.
+     */
+    @GetMapping(value = "/{jobId}/results", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> selectBatchResults(@PathVariable String jobId) {
+        BatchJobDto job = batchService.job(jobId);
+        StreamingResponseBody body = outputStream -> batchService.writeResults(jobId, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header("X-Batch-Status", job.status())
+                .body(body);
+    }
+}
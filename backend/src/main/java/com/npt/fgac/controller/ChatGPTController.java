@@ -1,19 +1,40 @@
 package com.npt.fgac.controller;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.npt.fgac.dto.*;
+import com.npt.fgac.service.AuditLogService;
 import com.npt.fgac.service.ChatGPTService;
-import com.npt.fgac.service.ImgurService;
+import com.npt.fgac.service.CompletionCache;
+import com.npt.fgac.service.Deadline;
+import com.npt.fgac.service.ImageStore;
+import com.npt.fgac.service.ImageWorkflowService;
+import com.npt.fgac.service.ModelRegistry;
+import com.npt.fgac.service.PromptBudget;
+import com.npt.fgac.service.RequestDeadlines;
+import com.npt.fgac.service.UpstreamScheduler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping(value = "/api/v1/chatGpt")
@@ -21,31 +42,89 @@ import java.util.*;
 @Slf4j
 public class ChatGPTController {
     private final ChatGPTService chatGPTService;
-    private final ImgurService imgurService;
+    private final ImageStore imageStore;
+    private final CompletionCache completionCache;
+    private final ModelRegistry modelRegistry;
+    private final RequestDeadlines requestDeadlines;
+    private final AuditLogService auditLogService;
+    private final ImageWorkflowService imageWorkflowService;
+    private final PromptBudget promptBudget;
 
     /**
      * [API] ChatGPT 모델 리스트를 조회합니다.
      */
     @GetMapping("/modelList")
-    public ResponseEntity<List<Map<String, Object>>> selectModelList() {
-        List<Map<String, Object>> result = chatGPTService.modelList();
+    public ResponseEntity<List<ModelDto>> selectModelList() {
+        List<ModelDto> result = chatGPTService.modelList();
         return new ResponseEntity<>(result, HttpStatus.OK);
     }
 
     /**
      * [API] ChatGPT 모델 리스트를 조회합니다.
+     * view=slim 이면 답변 내용만 돌려줍니다. (SlimChoiceDto)
      */
     @PostMapping("/prompt")
-    public ResponseEntity<List<Map<String, Object>>> selectPrompt(@RequestBody List<ChatMessageDto> chatMessageDto) throws JsonProcessingException {
+    public CompletableFuture<ResponseEntity<List<?>>> selectPrompt(
+            @RequestHeader(value = RequestDeadlines.HEADER, required = false) String timeout,
+            @RequestParam(value = ChoiceViews.PARAM, defaultValue = ChoiceViews.FULL) String view,
+            @RequestBody List<ChatMessageDto> chatMessageDto) {
+        ChoiceViews.validate(view);
         // 꼭 질문의 대화 순서가 맞지 않아도 괜찮다. 근데 되도록이면 순서대로 전달해야 정확한 정보를 줄 수 있다
-        ObjectMapper objectMapper = new ObjectMapper();
         CompletionRequestDto completionRequestDto = new CompletionRequestDto(chatMessageDto);
-        List<Map<String, Object>> result = chatGPTService.prompt(completionRequestDto);
-        // 객체를 JSON 문자열로 변환
-        String jsonString = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(completionRequestDto);
-        // JSON 문자열 출력
-        System.out.println(jsonString);
-        return new ResponseEntity<>(result, HttpStatus.OK);
+        // 업스트림이 지원하지 않는 모델이면 호출하지 않고 바로 400을 돌려줍니다.
+        modelRegistry.validate(completionRequestDto.getModel());
+        // 마감이 지나면 업스트림 호출을 멈추고 504를 돌려줍니다.
+        Deadline deadline = requestDeadlines.prompt(timeout);
+        // my.concurrency.mode=async 이면 응답을 기다리는 동안 요청 스레드를 반환합니다.
+        // 같은 요청은 캐시된 응답을 쓰고, 동시에 들어온 같은 요청은 업스트림 호출 하나를 함께 기다립니다.
+        // 캐시 키는 대화 기록의 이미지 경로로 만들고, 업스트림에는 OpenAI가 읽을 수 있는 URL로 바꿔서 보냅니다.
+        // 컨텍스트 창이나 호출자 토큰 한도를 넘는 요청은 업스트림에 보내지 않고 바로 400/429를 돌려줍니다. (캐시된 응답은 한도를 쓰지 않습니다)
+        // 요청과 응답은 감사 로그에 남깁니다. (별도 스레드에서 쓰므로 응답을 늦추지 않습니다)
+        CompletableFuture<ChatCompletionResponseDto> result = auditLogService.auditAsync("prompt", completionRequestDto,
+                () -> completionCache.get(completionRequestDto, () -> {
+                    CompletionRequestDto upstreamRequest = new CompletionRequestDto(imageStore.resolveImages(chatMessageDto));
+                    promptBudget.admit(upstreamRequest);
+                    return chatGPTService.promptAsync(upstreamRequest, UpstreamScheduler.Priority.INTERACTIVE, deadline);
+                }));
+        return result.thenApply(response -> new ResponseEntity<>(ChoiceViews.project(view, response.choices()), HttpStatus.OK));
+    }
+
+    /**
+     * [API] ChatGPT 프롬프트 결과를 SSE(Server-Sent Events)로 스트리밍합니다.
+     * OpenAI가 보내주는 chunk를 받는 즉시 "data: {chunk}" 이벤트로 브라우저에 전달하고, 마지막에 "data: [DONE]"을 보냅니다.
+     * 첫 chunk가 오기 전에 마감(X-Request-Timeout)이 지나면 504를 돌려줍니다.
+     */
+    @PostMapping(value = "/prompt/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> selectPromptStream(
+            @RequestHeader(value = RequestDeadlines.HEADER, required = false) String timeout,
+            @RequestBody List<ChatMessageDto> chatMessageDto) {
+        CompletionRequestDto completionRequestDto = new CompletionRequestDto(imageStore.resolveImages(chatMessageDto));
+        modelRegistry.validate(completionRequestDto.getModel());
+        // 스트림을 열기 전에 토큰 예산을 검사합니다.
+        promptBudget.admit(completionRequestDto);
+        // 마감은 요청이 들어온 때부터 셉니다. (본문을 쓰기 시작할 때까지 기다린 시간 포함)
+        Deadline deadline = requestDeadlines.prompt(timeout);
+        StreamingResponseBody body = outputStream -> auditLogService.audit("prompt.stream", completionRequestDto, () -> {
+            chatGPTService.promptStream(completionRequestDto, deadline, chunk -> writeEvent(outputStream, chunk));
+            writeEvent(outputStream, "[DONE]");
+            return null;
+        });
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .header("Cache-Control", "no-cache")
+                .header("X-Accel-Buffering", "no")
+                .body(body);
+    }
+
+    // SSE 이벤트 하나를 쓰고 바로 flush 해서 버퍼에 쌓이지 않게 합니다.
+    private static void writeEvent(OutputStream outputStream, String data) {
+        try {
+            outputStream.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            // 브라우저 연결이 끊기면 업스트림 읽기도 중단합니다.
+            throw new UncheckedIOException(e);
+        }
     }
 
     @PostMapping("/image")
@@ -53,16 +132,32 @@ public class ChatGPTController {
         if (multipartFile.isEmpty()) {
             return new ResponseEntity<>("Please select a file to upload", HttpStatus.BAD_REQUEST);
         }
-        String fileName = imgurService.uploadImage(multipartFile);
+        String fileName = imageStore.save(multipartFile);
         return new ResponseEntity<>(fileName, HttpStatus.OK);
     }
 
+    /**
+     * [API] 로컬 이미지 저장소(my.image.store=local)에 저장된 이미지를 돌려줍니다.
+     * 파일 이름이 내용의 해시라서 내용이 바뀌지 않으므로 오래 캐시해도 됩니다.
+     */
+    @GetMapping("/images/{name}")
+    public ResponseEntity<Resource> selectImageFile(@PathVariable String name) {
+        return imageStore.load(name)
+                .map(resource -> ResponseEntity.ok()
+                        .contentType(MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM))
+                        .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable())
+                        .body(resource))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     @PostMapping(value = "/prompt/image")
-    public ResponseEntity<List<Map<String, Object>>> selectPrompt(
+    public CompletableFuture<ResponseEntity<List<?>>> selectPrompt(
+            @RequestHeader(value = RequestDeadlines.HEADER, required = false) String timeout,
             @RequestParam("text") String text,
-            @RequestParam("imgUrl") String imgUrl) throws JsonProcessingException {
+            @RequestParam("imgUrl") String imgUrl,
+            @RequestParam(value = ChoiceViews.PARAM, defaultValue = ChoiceViews.FULL) String view) {
         log.debug(imgUrl);
-        ObjectMapper objectMapper = new ObjectMapper();
+        ChoiceViews.validate(view);
 
         // Imgur에 사진 업로드
         String imgurUrl = imgUrl;
@@ -78,17 +173,152 @@ public class ChatGPTController {
 
         // ImageMessageDto 객체 생성
         ImageMessageDto imageMessageDto = new ImageMessageDto("gpt-4o", Arrays.asList(imageMessageContentDto));
+        modelRegistry.validate(imageMessageDto.getModel());
+        Deadline deadline = requestDeadlines.image(timeout);
+
+        // ChatGPT 서비스 호출
+        // 캐시 키는 저장소 경로로 만들고, 업스트림에는 OpenAI가 읽을 수 있는 URL로 바꾼 복사본을 보냅니다.
+        // 감사 로그에는 이미지 URL이 data: URL이면 종류와 길이만 남습니다.
+        return auditLogService.auditAsync("prompt.image", imageMessageDto, () -> completionCache.get(imageMessageDto, () -> {
+                    ImageMessageDto upstreamRequest = imageStore.resolveImages(imageMessageDto);
+                    promptBudget.admit(upstreamRequest);
+                    return chatGPTService.promptImageAsync(upstreamRequest, deadline);
+                }))
+                .thenApply(response -> new ResponseEntity<>(ChoiceViews.project(view, response.choices()), HttpStatus.OK));
+    }
+
+    /**
+     * [API] 이미지와 질문을 한 번에 받아서 저장과 ChatGPT 호출을 이어서 처리하고, 단계가 끝날 때마다 SSE 이벤트로 알려줍니다.
+     * event:image - 저장된 이미지 URL (대화 기록에 넣을 값), event:answer - ChatGPT 응답(choices), event:error - {status, message}
+     * image 대신 이미 저장된 imgUrl을 보내도 됩니다.
+     */
+    @PostMapping(value = "/workflow/image", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter selectImageWorkflow(
+            @RequestHeader(value = RequestDeadlines.HEADER, required = false) String timeout,
+            @RequestParam("text") String text,
+            @RequestParam(value = "image", required = false) MultipartFile multipartFile,
+            @RequestParam(value = "imgUrl", required = false) String imgUrl) {
+        boolean hasFile = multipartFile != null && !multipartFile.isEmpty();
+        if (!hasFile && !StringUtils.hasText(imgUrl)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Please select a file to upload");
+        }
+        Deadline deadline = requestDeadlines.image(timeout);
+        SseEmitter emitter = new SseEmitter();
 
-        // 객체를 JSON 문자열로 변환
-        String jsonString = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(imageMessageDto);
+        // 감사 로그에는 이미지 내용 대신 파일 이름과 크기만 남깁니다.
+        Map<String, Object> auditRequest = new LinkedHashMap<>();
+        auditRequest.put("text", text);
+        auditRequest.put("image", hasFile ? multipartFile.getOriginalFilename() + " (" + multipartFile.getSize() + " bytes)" : imgUrl);
+        // 모델 검증 실패, 저장 대기열이 가득 찬 경우는 스트림을 열기 전에 바로 4xx/5xx로 돌려줍니다.
+        CompletableFuture<ChatCompletionResponseDto> result = auditLogService.auditAsync("workflow.image", auditRequest,
+                () -> imageWorkflowService.promptImage(hasFile ? multipartFile : null, imgUrl, text, deadline,
+                        url -> sendEvent(emitter, "image", url)));
+        result.whenComplete((response, failure) -> {
+            if (failure == null) {
+                sendEvent(emitter, "answer", response.choices());
+            } else {
+                sendEvent(emitter, "error", error(failure));
+            }
+            emitter.complete();
+        });
+        // 브라우저 연결이 끊기면 남은 단계를 기다리지 않습니다.
+        emitter.onTimeout(() -> result.cancel(true));
+        emitter.onError(e -> result.cancel(true));
+        return emitter;
+    }
 
-        // JSON 문자열 출력
-        System.out.println(jsonString);
+    /**
+     * [API] 이미지 여러 장 / 질문 여러 개를 한 번에 보내고, 항목별 결과를 끝나는 순서대로 SSE 이벤트로 받습니다.
+     * mode=each : 항목마다 따로 호출 (이미지 N장 + 질문 1개면 같은 질문, 질문 N개면 짝지어서, 이미지 없이 질문만 N개도 가능)
+     * mode=packed : 모든 이미지와 질문을 메시지 하나에 넣어 한 번만 호출
+     * event:image - {index, url}, event:answer - {index, choices}, event:error - {index, status, message},
+     * event:done - index 순서로 모은 전체 결과 (일부가 실패해도 나머지 결과는 그대로 옵니다)
+     */
+    @PostMapping(value = "/workflow/images", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter selectImagesWorkflow(
+            @RequestHeader(value = RequestDeadlines.HEADER, required = false) String timeout,
+            @RequestParam(value = "text", required = false) List<String> texts,
+            @RequestParam(value = "image", required = false) List<MultipartFile> multipartFiles,
+            @RequestParam(value = "mode", defaultValue = "each") String mode) {
+        if (!"each".equals(mode) && !"packed".equals(mode)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "mode must be each or packed");
+        }
+        List<String> textList = texts != null ? texts : List.of();
+        List<MultipartFile> images = multipartFiles != null ? multipartFiles : List.of();
+        Deadline deadline = requestDeadlines.image(timeout);
+        SseEmitter emitter = new SseEmitter();
 
-        // ChatGPT 서비스 호출
-        List<Map<String, Object>> result = chatGPTService.promptImage(imageMessageDto);
+        Map<String, Object> auditRequest = new LinkedHashMap<>();
+        auditRequest.put("mode", mode);
+        auditRequest.put("text", textList);
+        auditRequest.put("image", images.stream().map(file -> file.getOriginalFilename() + " (" + file.getSize() + " bytes)").toList());
+        ImageWorkflowService.Progress progress = new ImageWorkflowService.Progress() {
+            @Override
+            public void stored(int index, String imageUrl) {
+                sendEvent(emitter, "image", Map.of("index", index, "url", imageUrl));
+            }
 
-        return new ResponseEntity<>(result, HttpStatus.OK);
+            @Override
+            public void answered(int index, ChatCompletionResponseDto response) {
+                sendEvent(emitter, "answer", Map.of("index", index, "choices", response.choices()));
+            }
+
+            @Override
+            public void failed(int index, Throwable failure) {
+                Map<String, Object> error = error(failure);
+                error.put("index", index);
+                sendEvent(emitter, "error", error);
+            }
+        };
+        // 개수가 맞지 않거나 한도를 넘으면 스트림을 열기 전에 바로 400을 돌려줍니다.
+        CompletableFuture<List<ImageWorkflowService.Result>> result = auditLogService.auditAsync("workflow.images", auditRequest,
+                () -> imageWorkflowService.promptImages(images, textList, "packed".equals(mode), deadline, progress));
+        result.whenComplete((results, failure) -> {
+            if (failure == null) {
+                sendEvent(emitter, "done", results.stream().map(ChatGPTController::result).toList());
+            } else {
+                sendEvent(emitter, "error", error(failure));
+            }
+            emitter.complete();
+        });
+        emitter.onTimeout(() -> result.cancel(true));
+        emitter.onError(e -> result.cancel(true));
+        return emitter;
+    }
+
+    private static Map<String, Object> result(ImageWorkflowService.Result result) {
+        Map<String, Object> merged = new LinkedHashMap<>();
+        merged.put("index", result.index());
+        if (result.failure() == null) {
+            merged.put("choices", result.response().choices());
+        } else {
+            merged.put("error", error(result.failure()));
+        }
+        return merged;
+    }
+
+    private static void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("[+] 이벤트를 보내지 못했습니다 (연결 종료) : {}", name);
+        }
+    }
+
+    private static Map<String, Object> error(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        String message = cause.getMessage();
+        if (cause instanceof ResponseStatusException e) {
+            status = e.getStatusCode().value();
+            message = e.getReason();
+        } else if (cause instanceof RestClientResponseException e) {
+            status = e.getStatusCode().value();
+        }
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("status", status);
+        error.put("message", message);
+        return error;
     }
 
 //    @PostMapping("/test")
@@ -0,0 +1,34 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.dto.ChoiceDto;
+import com.npt.fgac.dto.SlimChoiceDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * 응답 choices 모양 (?view=)
+ * full(기본) : OpenAI 응답 그대로 (index, message, logprobs, finish_reason) / slim : SlimChoiceDto (답변 내용만)
+ */
+final class ChoiceViews {
+    static final String PARAM = "view";
+    static final String FULL = "full";
+    static final String SLIM = "slim";
+
+    private ChoiceViews() {
+    }
+
+    /**
+     * 업스트림을 부르기 전에 잘못된 view를 400으로 돌려보냅니다.
+     */
+    static void validate(String view) {
+        if (!FULL.equals(view) && !SLIM.equals(view)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "view must be full or slim");
+        }
+    }
+
+    static List<?> project(String view, List<ChoiceDto> choices) {
+        return SLIM.equals(view) ? choices.stream().map(SlimChoiceDto::from).toList() : choices;
+    }
+}
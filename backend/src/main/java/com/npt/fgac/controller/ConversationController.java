@@ -0,0 +1,127 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.service.AuditLogService;
+import com.npt.fgac.service.ChatGPTService;
+import com.npt.fgac.service.CompletionCache;
+import com.npt.fgac.service.ConversationService;
+import com.npt.fgac.service.Deadline;
+import com.npt.fgac.service.ImageStore;
+import com.npt.fgac.service.ModelRegistry;
+import com.npt.fgac.service.PromptBudget;
+import com.npt.fgac.service.RequestDeadlines;
+import com.npt.fgac.service.StepPrefetcher;
+import com.npt.fgac.service.UpstreamScheduler;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping(value = "/api/v1/chatGpt/conversations")
+@RequiredArgsConstructor
+@Slf4j
+public class ConversationController {
+    private final ChatGPTService chatGPTService;
+    private final ConversationService conversationService;
+    private final CompletionCache completionCache;
+    private final ModelRegistry modelRegistry;
+    private final ImageStore imageStore;
+    private final RequestDeadlines requestDeadlines;
+    private final AuditLogService auditLogService;
+    private final PromptBudget promptBudget;
+    private final StepPrefetcher stepPrefetcher;
+
+    /**
+     * [API] 대화에 새 메시지 하나를 추가하고 ChatGPT 응답을 받습니다.
+     * 이전 대화는 서버가 보관하고 있다가 토큰 예산에 맞게 줄여서 함께 보냅니다.
+     * X-Conversation-Size 헤더(클라이언트가 가진 이전 메시지 수)가 서버 기록과 다르면 409를 돌려주고,
+     * 클라이언트는 PUT으로 전체 기록을 한 번 올린 뒤 다시 요청합니다.
+     * X-Request-Timeout 헤더로 마감을 정할 수 있고, 지나면 504를 돌려줍니다. (기록에는 사용자 메시지만 남습니다)
+     * 압축한 대화가 모델 컨텍스트 창을 넘거나 호출자 토큰 한도를 넘으면 400/429를 돌려줍니다.
+     * view=slim 이면 답변 내용만 돌려줍니다. (SlimChoiceDto)
+     * 안내 단계 질문(my.prefetch.steps)에 답하면 다음 단계 질문을 미리 호출해 두고, 다음 요청이 그 질문이면 결과를 바로 씁니다.
+     */
+    @PostMapping("/{conversationId}/prompt")
+    public CompletableFuture<ResponseEntity<List<?>>> selectPrompt(
+            @PathVariable String conversationId,
+            @RequestHeader(value = "X-Conversation-Size", required = false) Integer expectedSize,
+            @RequestHeader(value = RequestDeadlines.HEADER, required = false) String timeout,
+            @RequestParam(value = ChoiceViews.PARAM, defaultValue = ChoiceViews.FULL) String view,
+            @RequestBody ChatMessageDto chatMessageDto) {
+        ChoiceViews.validate(view);
+        modelRegistry.validate(CompletionRequestDto.DEFAULT_MODEL);
+        Deadline deadline = requestDeadlines.conversation(timeout);
+        List<ChatMessageDto> messages = conversationService.append(conversationId, chatMessageDto, expectedSize);
+        CompletionRequestDto completionRequestDto = new CompletionRequestDto(messages);
+        // 이전 단계 답을 보낸 뒤 미리 호출해 둔 요청과 같으면 그 결과를 씁니다. (다르면 취소, 실패했으면 다시 호출)
+        CompletableFuture<ChatCompletionResponseDto> prefetched = stepPrefetcher.claim(conversationId, completionRequestDto);
+        if (prefetched != null && !prefetched.isDone() && deadline.isBounded()) {
+            prefetched.orTimeout(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        CompletableFuture<ChatCompletionResponseDto> result = auditLogService.auditAsync("conversation.prompt", completionRequestDto,
+                () -> completionCache.get(completionRequestDto, () -> prefetched != null
+                        ? prefetched.exceptionallyCompose(failure -> prompt(messages, deadline))
+                        : prompt(messages, deadline)));
+        if (prefetched != null) {
+            // 캐시에 있던 응답을 썼다면 미리 호출한 결과는 필요 없습니다.
+            result.whenComplete((response, failure) -> prefetched.cancel(true));
+        }
+        return result.thenApply(response -> {
+            // 응답도 기록에 남겨서 다음 턴에 이어서 보냅니다.
+            response.choices().stream().findFirst().ifPresent(choice -> conversationService.appendReply(
+                    conversationId, new ChatMessageDto(choice.message().role(), choice.message().content())));
+            // 안내 단계 질문이면 다음 단계 질문을 미리 호출해 둡니다.
+            stepPrefetcher.answered(conversationId, chatMessageDto);
+            return new ResponseEntity<>(ChoiceViews.project(view, response.choices()), HttpStatus.OK);
+        });
+    }
+
+    private CompletableFuture<ChatCompletionResponseDto> prompt(List<ChatMessageDto> messages, Deadline deadline) {
+        CompletionRequestDto upstreamRequest = new CompletionRequestDto(imageStore.resolveImages(messages));
+        promptBudget.admit(upstreamRequest);
+        return chatGPTService.promptAsync(upstreamRequest, UpstreamScheduler.Priority.INTERACTIVE, deadline);
+    }
+
+    /**
+     * [API] 대화 기록 전체를 교체합니다. (클라이언트와 서버 기록을 다시 맞출 때 사용)
+     */
+    @PutMapping("/{conversationId}")
+    public ResponseEntity<Void> replaceConversation(@PathVariable String conversationId,
+                                                    @RequestBody List<ChatMessageDto> chatMessageDto) {
+        conversationService.replace(conversationId, chatMessageDto);
+        stepPrefetcher.discard(conversationId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * [API] 대화 기록을 조회합니다.
+     * offset, limit을 주면 그 범위의 메시지만 돌려줍니다. 전체 메시지 수는 X-Conversation-Size 헤더로 알려줍니다.
+     * (새로고침하거나 다른 기기에서 열 때 최근 메시지부터 나눠서 불러오기)
+     */
+    @GetMapping("/{conversationId}")
+    public ResponseEntity<List<ChatMessageDto>> selectConversation(
+            @PathVariable String conversationId,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        List<ChatMessageDto> messages = offset == null && limit == null ? conversationService.history(conversationId)
+                : conversationService.history(conversationId, offset == null ? 0 : offset, limit == null ? Integer.MAX_VALUE : limit);
+        return ResponseEntity.ok()
+                .header("X-Conversation-Size", String.valueOf(conversationService.size(conversationId)))
+                .body(messages);
+    }
+
+    @DeleteMapping("/{conversationId}")
+    public ResponseEntity<Void> deleteConversation(@PathVariable String conversationId) {
+        conversationService.delete(conversationId);
+        stepPrefetcher.discard(conversationId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+}
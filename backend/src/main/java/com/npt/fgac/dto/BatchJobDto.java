@@ -0,0 +1,28 @@
+package com.npt.fgac.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 대량 프롬프트 작업 상태 (로컬 디스크에 저장되어 재시작 후에도 이어서 확인합니다)
+ * status : in_progress, completed, failed (일부 batch가 실패/만료되어도 받은 결과는 조회할 수 있습니다)
+ */
+public record BatchJobDto(
+        String id,
+        String status,
+        Instant createdAt,
+        int requestCount,
+        List<BatchPartDto> parts) {
+
+    public boolean finished() {
+        return !"in_progress".equals(status);
+    }
+
+    public BatchJobDto withParts(List<BatchPartDto> parts) {
+        String status = "in_progress";
+        if (parts.stream().allMatch(BatchPartDto::terminal)) {
+            status = parts.stream().allMatch(part -> "completed".equals(part.status())) ? "completed" : "failed";
+        }
+        return new BatchJobDto(id, status, createdAt, requestCount, List.copyOf(parts));
+    }
+}
@@ -0,0 +1,27 @@
+package com.npt.fgac.dto;
+
+import java.util.Set;
+
+/**
+ * 배치 작업을 구성하는 OpenAI batch 하나 (입력 JSONL 파일 하나)
+ * firstIndex부터 requestCount개의 요청을 담고 있습니다.
+ */
+public record BatchPartDto(
+        int firstIndex,
+        int requestCount,
+        String inputFileId,
+        String batchId,
+        String status,
+        String outputFileId,
+        String errorFileId) {
+    private static final Set<String> TERMINAL = Set.of("completed", "failed", "expired", "cancelled");
+
+    public boolean terminal() {
+        return TERMINAL.contains(status);
+    }
+
+    public BatchPartDto with(OpenAiBatchDto batch) {
+        return new BatchPartDto(firstIndex, requestCount, inputFileId, batchId, batch.status(),
+                batch.outputFileId(), batch.errorFileId());
+    }
+}
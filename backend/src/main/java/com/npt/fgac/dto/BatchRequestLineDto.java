@@ -0,0 +1,13 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Batch API 입력 JSONL 파일의 한 줄
+ */
+public record BatchRequestLineDto(
+        @JsonProperty("custom_id") String customId,
+        String method,
+        String url,
+        Object body) {
+}
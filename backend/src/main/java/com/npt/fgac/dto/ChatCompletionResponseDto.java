@@ -0,0 +1,19 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * /v1/chat/completions 응답
+ * 응답 본문 스트림을 이 타입으로 바로 읽어서 JsonNode 트리나 Map으로 한 번 더 복사하지 않습니다.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChatCompletionResponseDto(
+        String id,
+        String object,
+        Long created,
+        String model,
+        List<ChoiceDto> choices,
+        UsageDto usage) {
+}
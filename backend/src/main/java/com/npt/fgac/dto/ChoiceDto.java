@@ -0,0 +1,12 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChoiceDto(
+        int index,
+        ChoiceMessageDto message,
+        Object logprobs,
+        @JsonProperty("finish_reason") String finishReason) {
+}
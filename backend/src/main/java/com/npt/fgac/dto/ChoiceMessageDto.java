@@ -0,0 +1,10 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChoiceMessageDto(
+        String role,
+        String content,
+        String refusal) {
+}
@@ -1,9 +1,12 @@
 package com.npt.fgac.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -11,6 +14,7 @@ import java.util.List;
 @Getter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 public class CompletionRequestDto {
+    public static final String DEFAULT_MODEL = "gpt-4o";
 
     private String model;
 
@@ -18,11 +22,34 @@ public class CompletionRequestDto {
 
     private float temperature;
 
+    // true이면 OpenAI가 응답을 SSE(delta chunk)로 나누어 보내줍니다.
+    @Setter
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean stream;
+
+    // 응답 토큰 상한. PromptBudget이 모델 최대 출력과 컨텍스트 창의 남은 양에 맞춰 채웁니다.
+    @Setter
+    @JsonProperty("max_tokens")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer maxTokens;
+
     public CompletionRequestDto(List<ChatMessageDto> messages) {
-        this.model = "gpt-4o";
+        this.model = DEFAULT_MODEL;
         this.messages = messages;
 //        this.messages = new ArrayList<>();  // 리스트 초기화
 //        this.messages.add(messages);
         this.temperature = 0.8f;
     }
+
+    /**
+     * messages만 바꾼 복사본 (model, temperature 등은 그대로)
+     */
+    public CompletionRequestDto withMessages(List<ChatMessageDto> messages) {
+        CompletionRequestDto copy = new CompletionRequestDto(messages);
+        copy.model = model;
+        copy.temperature = temperature;
+        copy.stream = stream;
+        copy.maxTokens = maxTokens;
+        return copy;
+    }
 }
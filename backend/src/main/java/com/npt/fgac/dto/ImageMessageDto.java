@@ -1,5 +1,7 @@
 package com.npt.fgac.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -10,6 +12,10 @@ import java.util.List;
 public class ImageMessageDto {
     private String model;
     private List<ImageMessageContentDto> messages;
+    // 응답 토큰 상한 (PromptBudget이 채움)
+    @JsonProperty("max_tokens")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer maxTokens;
     public ImageMessageDto(String model, List<ImageMessageContentDto> messages){
         this.model = model;
         this.messages = messages;
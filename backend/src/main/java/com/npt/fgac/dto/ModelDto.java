@@ -0,0 +1,12 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ModelDto(
+        String id,
+        String object,
+        Long created,
+        @JsonProperty("owned_by") String ownedBy) {
+}
@@ -0,0 +1,14 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * /v1/models 응답
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ModelListResponseDto(
+        String object,
+        List<ModelDto> data) {
+}
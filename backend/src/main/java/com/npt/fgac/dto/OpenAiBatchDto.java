@@ -0,0 +1,17 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * /v1/batches 응답
+ * status : validating, in_progress, finalizing, completed, failed, expired, cancelling, cancelled
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record OpenAiBatchDto(
+        String id,
+        String status,
+        @JsonProperty("input_file_id") String inputFileId,
+        @JsonProperty("output_file_id") String outputFileId,
+        @JsonProperty("error_file_id") String errorFileId) {
+}
@@ -0,0 +1,12 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record OpenAiFileDto(
+        String id,
+        String object,
+        Long bytes,
+        String filename,
+        String purpose) {
+}
@@ -0,0 +1,21 @@
+package com.npt.fgac.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * 답변 내용만 담은 choice (?view=slim)
+ * 화면에는 message.content만 쓰므로 index, role, refusal, logprobs는 보내지 않습니다.
+ * finish_reason은 정상 종료(stop)가 아닐 때만 넣어서 잘린 답변(length 등)을 알 수 있게 합니다.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SlimChoiceDto(
+        String content,
+        @JsonProperty("finish_reason") String finishReason) {
+
+    public static SlimChoiceDto from(ChoiceDto choice) {
+        String content = choice.message() != null ? choice.message().content() : null;
+        String finishReason = "stop".equals(choice.finishReason()) ? null : choice.finishReason();
+        return new SlimChoiceDto(content, finishReason);
+    }
+}
@@ -0,0 +1,245 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.config.ChatGPTConfig;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ModelDto;
+import io.micrometer.observation.Observation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 논블로킹 ChatGPT 서비스 (my.concurrency.mode=async)
+ * java.net.http.HttpClient의 sendAsync로 OpenAI를 호출하기 때문에 응답을 기다리는 동안 어떤 스레드도 붙잡고 있지 않습니다.
+ * 컨트롤러가 CompletableFuture를 반환하면 Tomcat 스레드는 바로 풀로 돌아가고, 응답이 오면 그때 결과를 씁니다.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+@ConditionalOnProperty(name = "my.concurrency.mode", havingValue = "async")
+public class AsyncChatGPTServiceImpl implements ChatGPTService {
+    private static final String COMPLETIONS = "chat.completions";
+    private static final String COMPLETIONS_STREAM = "chat.completions.stream";
+
+    private final ChatGPTConfig chatGPTConfig;
+    private final ObjectMapper objectMapper;
+    private final ChatGPTResponseReader responseReader;
+    private final ModelRegistry modelRegistry;
+    private final UpstreamScheduler upstreamScheduler;
+    private final UpstreamMetrics upstreamMetrics;
+    @Value("${my.http.response-timeout:120s}")
+    private Duration responseTimeout;
+
+    @Override
+    public List<ModelDto> modelList() {
+        return modelRegistry.models();
+    }
+
+    @Override
+    public ChatCompletionResponseDto prompt(CompletionRequestDto completionRequestDto) {
+        return join(promptAsync(completionRequestDto));
+    }
+
+    @Override
+    public ChatCompletionResponseDto promptImage(ImageMessageDto imageMessageDto) {
+        return join(promptImageAsync(imageMessageDto));
+    }
+
+    // 한도 안에서 차례가 오면 호출하고, 429/5xx는 스케줄러가 다른 업스트림이나 백오프 후 다시 시도합니다. 기다리는 동안 스레드는 쓰지 않습니다.
+    @Override
+    public CompletableFuture<ChatCompletionResponseDto> promptAsync(CompletionRequestDto completionRequestDto,
+                                                                    UpstreamScheduler.Priority priority,
+                                                                    Deadline deadline) {
+        log.debug("[+] 프롬프트를 수행합니다.");
+        Observation parent = upstreamMetrics.currentObservation();
+        return upstreamScheduler.submit(priority, completionRequestDto.getModel(),
+                upstreamScheduler.estimateTokens(completionRequestDto), deadline,
+                target -> completion(target, completionRequestDto.getModel(), completionRequestDto, deadline, parent));
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResponseDto> promptImageAsync(ImageMessageDto imageMessageDto, Deadline deadline) {
+        log.debug("[+] 프롬프트를 수행합니다.");
+        Observation parent = upstreamMetrics.currentObservation();
+        return upstreamScheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, imageMessageDto.getModel(),
+                upstreamScheduler.estimateTokens(imageMessageDto), deadline,
+                target -> completion(target, imageMessageDto.getModel(), imageMessageDto, deadline, parent));
+    }
+
+    // 응답 타임아웃은 남은 마감 시간으로 줄이고, 헤징에서 진 호출이 취소되면 HTTP 교환도 끊습니다.
+    // 스케줄러 스레드에서 시작하므로 요청 스레드의 스팬(parent) 아래에 호출 스팬을 만듭니다.
+    private CompletableFuture<ChatCompletionResponseDto> completion(UpstreamTarget target, String model, Object body,
+                                                                    Deadline deadline, Observation parent) {
+        if (deadline.expired()) {
+            return CompletableFuture.failedFuture(deadline.exceeded());
+        }
+        return upstreamMetrics.observeAsync(parent, COMPLETIONS, model, target, () -> {
+            HttpRequest request = jsonPost(target, COMPLETIONS, "/v1/chat/completions", body, deadline.cap(responseTimeout));
+            long startedAt = System.nanoTime();
+            // 본문 핸들러는 응답 헤더가 도착했을 때 만들어지므로 그 시점을 TTFB로 기록합니다.
+            CompletableFuture<HttpResponse<byte[]>> exchange = chatGPTConfig.jdkHttpClient()
+                    .sendAsync(request, responseInfo -> {
+                        upstreamMetrics.timeToFirstByte(COMPLETIONS, model, target, startedAt);
+                        return HttpResponse.BodyHandlers.ofByteArray().apply(responseInfo);
+                    });
+            CompletableFuture<ChatCompletionResponseDto> result = exchange.thenApply(response -> {
+                if (response.statusCode() >= 300) {
+                    throw statusException(response.statusCode(), response.headers(), response.body());
+                }
+                upstreamScheduler.observe(target, springHeaders(response.headers()));
+                return responseReader.readCompletion(response.body());
+            });
+            result.whenComplete((response, failure) -> {
+                if (result.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+            return result;
+        });
+    }
+
+    /**
+     * 스트리밍은 브라우저로 내보내는 쪽이 스레드를 쓰고 있으므로 줄 단위로 읽으면서 바로 넘겨줍니다.
+     * 요청 타임아웃은 응답 헤더가 올 때까지만 적용되므로, 남은 마감 시간으로 줄여서 첫 응답까지 묶습니다.
+     */
+    @Override
+    public void promptStream(CompletionRequestDto completionRequestDto, Deadline deadline, Consumer<String> chunkConsumer) {
+        log.debug("[+] 스트리밍 프롬프트를 수행합니다.");
+        completionRequestDto.setStream(true);
+        // chunk를 하나라도 넘긴 뒤의 오류는 다시 시도하면 브라우저가 같은 내용을 두 번 받으므로 그대로 실패시킵니다.
+        // 브라우저 쪽에서 끊긴 경우는 업스트림 탓이 아니므로 취소로 끝냅니다. (서킷 브레이커에 세지 않음)
+        AtomicBoolean started = new AtomicBoolean();
+        upstreamScheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, completionRequestDto.getModel(),
+                upstreamScheduler.estimateTokens(completionRequestDto), deadline, target -> {
+                    if (deadline.expired()) {
+                        throw deadline.exceeded();
+                    }
+                    try {
+                        upstreamMetrics.observe(COMPLETIONS_STREAM, completionRequestDto.getModel(), target, () -> {
+                            stream(target, completionRequestDto.getModel(),
+                                    jsonPost(target, COMPLETIONS_STREAM, "/v1/chat/completions", completionRequestDto,
+                                            deadline.cap(responseTimeout)),
+                                    data -> {
+                                        started.set(true);
+                                        ChatGPTServiceImpl.deliver(chunkConsumer, data);
+                                    });
+                            return null;
+                        });
+                    } catch (CancellationException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        if (started.get()) {
+                            throw new UpstreamScheduler.NotRetryableException("Stream interrupted after the first chunk", e);
+                        }
+                        throw e;
+                    }
+                    return null;
+                });
+    }
+
+    private void stream(UpstreamTarget target, String model, HttpRequest request, Consumer<String> chunkConsumer) {
+        HttpResponse<Stream<String>> response;
+        long startedAt = System.nanoTime();
+        try {
+            response = chatGPTConfig.jdkHttpClient().send(request, HttpResponse.BodyHandlers.ofLines());
+            upstreamMetrics.timeToFirstByte(COMPLETIONS_STREAM, model, target, startedAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() >= 300) {
+                throw statusException(response.statusCode(), response.headers(),
+                        String.join("\n", (Iterable<String>) lines::iterator).getBytes(StandardCharsets.UTF_8));
+            }
+            upstreamScheduler.observe(target, springHeaders(response.headers()));
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                String line = iterator.next();
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+                chunkConsumer.accept(data);
+            }
+        }
+    }
+
+    private HttpRequest.Builder request(UpstreamTarget target, String path, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(target.url(path)))
+                .timeout(timeout);
+        // 고른 업스트림의 키가 포함된 Header를 옮겨 담습니다.
+        target.headers().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        return builder;
+    }
+
+    private HttpRequest jsonPost(UpstreamTarget target, String endpoint, String path, Object body, Duration timeout) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(body);
+            upstreamMetrics.requestSize(endpoint, json.length);
+            return request(target, path, timeout)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // 동기 호출에서는 CompletionException을 벗겨서 원래 예외를 던집니다.
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static HttpHeaders springHeaders(java.net.http.HttpHeaders responseHeaders) {
+        HttpHeaders headers = new HttpHeaders();
+        responseHeaders.map().forEach(headers::addAll);
+        return headers;
+    }
+
+    private static RuntimeException statusException(int status, java.net.http.HttpHeaders responseHeaders, byte[] body) {
+        HttpHeaders headers = springHeaders(responseHeaders);
+        HttpStatusCode statusCode = HttpStatusCode.valueOf(status);
+        if (statusCode.is4xxClientError()) {
+            return HttpClientErrorException.create(statusCode, "", headers, body, StandardCharsets.UTF_8);
+        }
+        return HttpServerErrorException.create(statusCode, "", headers, body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package com.npt.fgac.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 요청/응답 감사 로그
+ * 요청 스레드에서는 잘라낸 사본만 만들고, JSON으로 바꿔서 쓰는 일은 별도 스레드가 합니다.
+ */
+public interface AuditLogService {
+    /**
+     * call이 돌려준 future가 끝나면 요청과 응답(또는 오류)을 기록합니다. 돌려주는 future는 call의 것 그대로입니다.
+     */
+    <T> CompletableFuture<T> auditAsync(String endpoint, Object request, Supplier<CompletableFuture<T>> call);
+
+    /**
+     * 동기 호출(스트리밍 등)이 끝나면 요청과 응답(또는 오류)을 기록합니다.
+     */
+    <T> T audit(String endpoint, Object request, Supplier<T> call);
+}
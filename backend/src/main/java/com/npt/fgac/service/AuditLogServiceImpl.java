@@ -0,0 +1,249 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 감사 로그를 fgac.audit 로거에 JSON 한 줄로 남깁니다.
+ * [STEP1] 성공한 요청은 sample-rate 비율만, 실패한 요청은 모두 남깁니다.
+ * [STEP2] 요청 스레드에서는 요청/응답을 JsonNode 사본으로 만들면서 긴 문자열은 max-text-length에서 자르고,
+ *         data: URL(인라인 이미지)은 종류와 길이만 남깁니다. 이 시간은 fgac.audit.capture로 기록합니다.
+ * [STEP3] 사본은 buffer-size 크기의 버퍼에 넣고 전용 스레드가 꺼내서 씁니다.
+ *         쓰는 쪽이 밀려서 버퍼가 가득 차면 가장 오래된 기록을 버리므로 요청 스레드는 기다리지 않습니다. (fgac.audit.events{result=dropped})
+ */
+@Slf4j
+@Service
+public class AuditLogServiceImpl implements AuditLogService {
+    private static final Logger audit = LoggerFactory.getLogger("fgac.audit");
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final double sampleRate;
+    private final int maxTextLength;
+    private final Consumer<String> sink;
+    private final ArrayBlockingQueue<ObjectNode> buffer;
+    private final Thread writer;
+    private final Timer captureTime;
+    private final Counter written;
+    private final Counter dropped;
+    private final Counter sampledOut;
+
+    @Autowired
+    public AuditLogServiceImpl(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                               @Value("${my.audit.enabled:true}") boolean enabled,
+                               @Value("${my.audit.sample-rate:0.1}") double sampleRate,
+                               @Value("${my.audit.buffer-size:1024}") int bufferSize,
+                               @Value("${my.audit.max-text-length:512}") int maxTextLength) {
+        this(objectMapper, meterRegistry, enabled, sampleRate, bufferSize, maxTextLength, audit::info);
+    }
+
+    AuditLogServiceImpl(ObjectMapper objectMapper, MeterRegistry meterRegistry, boolean enabled, double sampleRate,
+                        int bufferSize, int maxTextLength, Consumer<String> sink) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.maxTextLength = maxTextLength;
+        this.sink = sink;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        this.captureTime = Timer.builder("fgac.audit.capture")
+                .description("Time spent on the request thread copying an audit record")
+                .register(meterRegistry);
+        this.written = events(meterRegistry, "written");
+        this.dropped = events(meterRegistry, "dropped");
+        this.sampledOut = events(meterRegistry, "sampled_out");
+        Gauge.builder("fgac.audit.buffer", buffer, ArrayBlockingQueue::size).register(meterRegistry);
+        this.writer = new Thread(this::write, "audit-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static Counter events(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("fgac.audit.events").tag("result", result).register(meterRegistry);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> auditAsync(String endpoint, Object request, Supplier<CompletableFuture<T>> call) {
+        long startedAt = System.nanoTime();
+        String traceId = MDC.get("traceId");
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            record(endpoint, request, null, e, startedAt, traceId);
+            throw e;
+        }
+        result.whenComplete((response, failure) -> record(endpoint, request, response, failure, startedAt, traceId));
+        return result;
+    }
+
+    @Override
+    public <T> T audit(String endpoint, Object request, Supplier<T> call) {
+        long startedAt = System.nanoTime();
+        String traceId = MDC.get("traceId");
+        T response;
+        try {
+            response = call.get();
+        } catch (RuntimeException e) {
+            record(endpoint, request, null, e, startedAt, traceId);
+            throw e;
+        }
+        record(endpoint, request, response, null, startedAt, traceId);
+        return response;
+    }
+
+    private void record(String endpoint, Object request, Object response, Throwable failure, long startedAt,
+                        String traceId) {
+        if (!enabled || !audit.isInfoEnabled()) {
+            return;
+        }
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause == null && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOut.increment();
+            return;
+        }
+        long captureStart = System.nanoTime();
+        try {
+            ObjectNode event = objectMapper.createObjectNode();
+            event.put("time", Instant.now().toString());
+            event.put("endpoint", endpoint);
+            if (traceId != null) {
+                event.put("traceId", traceId);
+            }
+            event.put("latencyMs", TimeUnit.NANOSECONDS.toMillis(captureStart - startedAt));
+            event.put("status", status(cause));
+            if (cause != null) {
+                event.put("error", shorten(cause.toString()));
+            }
+            event.set("request", copy(request));
+            if (response != null) {
+                event.set("response", copy(response));
+            }
+            enqueue(event);
+        } catch (IllegalArgumentException e) {
+            // 직렬화할 수 없는 객체는 기록하지 않습니다.
+            log.debug("[!] 감사 로그를 만들지 못했습니다 : {}", e.toString());
+        } finally {
+            captureTime.record(System.nanoTime() - captureStart, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void enqueue(ObjectNode event) {
+        while (!buffer.offer(event)) {
+            if (buffer.poll() != null) {
+                dropped.increment();
+            }
+        }
+    }
+
+    // 문자열 값만 바꾼 사본을 만듭니다. (문자열 자체는 복사하지 않고 잘라낼 때만 새로 만듭니다)
+    private JsonNode copy(Object value) {
+        return redact(objectMapper.valueToTree(value));
+    }
+
+    private JsonNode redact(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.isTextual()) {
+            String text = node.textValue();
+            String shortened = shorten(text);
+            return shortened == text ? node : TextNode.valueOf(shortened);
+        }
+        if (node instanceof ObjectNode object) {
+            Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                field.setValue(redact(field.getValue()));
+            }
+        } else if (node instanceof ArrayNode array) {
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, redact(array.get(i)));
+            }
+        }
+        return node;
+    }
+
+    private String shorten(String text) {
+        if (text.startsWith("data:")) {
+            int separator = text.indexOf(';');
+            if (separator < 0 || separator > 64) {
+                separator = Math.min(text.length(), 64);
+            }
+            return "[" + text.substring(0, separator) + ", " + text.length() + " chars]";
+        }
+        if (text.length() > maxTextLength) {
+            return text.substring(0, maxTextLength) + "...(" + (text.length() - maxTextLength) + " more chars)";
+        }
+        return text;
+    }
+
+    private static String status(Throwable cause) {
+        if (cause == null) {
+            return "200";
+        }
+        if (cause instanceof ResponseStatusException response) {
+            return String.valueOf(response.getStatusCode().value());
+        }
+        if (cause instanceof RestClientResponseException response) {
+            return "upstream " + response.getStatusCode().value();
+        }
+        return "error";
+    }
+
+    private void write() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                write(buffer.take());
+            }
+        } catch (InterruptedException e) {
+            // 종료 : 남은 기록을 쓰고 끝냅니다.
+            ObjectNode event;
+            while ((event = buffer.poll()) != null) {
+                write(event);
+            }
+        }
+    }
+
+    private void write(ObjectNode event) {
+        try {
+            sink.accept(objectMapper.writeValueAsString(event));
+            written.increment();
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("[!] 감사 로그를 쓰지 못했습니다 : {}", e.toString());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.interrupt();
+    }
+}
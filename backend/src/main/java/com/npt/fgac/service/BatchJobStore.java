@@ -0,0 +1,88 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.BatchJobDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 배치 작업 상태를 {dir}/{jobId}/job.json 파일로 보관합니다.
+ * 시작할 때 디렉터리의 작업을 모두 읽어 오므로 재시작해도 진행 중인 작업을 계속 확인할 수 있습니다.
+ */
+@Slf4j
+@Component
+public class BatchJobStore {
+    private static final String JOB_FILE = "job.json";
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final Map<String, BatchJobDto> jobs = new ConcurrentHashMap<>();
+
+    public BatchJobStore(ObjectMapper objectMapper, @Value("${my.batch.dir:./data/batches}") Path directory) {
+        this.objectMapper = objectMapper;
+        this.directory = directory.toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(this.directory);
+            try (DirectoryStream<Path> jobDirectories = Files.newDirectoryStream(this.directory, Files::isDirectory)) {
+                for (Path jobDirectory : jobDirectories) {
+                    load(jobDirectory.resolve(JOB_FILE));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.debug("[+] 배치 작업 {}개를 불러왔습니다.", jobs.size());
+    }
+
+    public Optional<BatchJobDto> find(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    public List<BatchJobDto> unfinished() {
+        return jobs.values().stream().filter(job -> !job.finished()).toList();
+    }
+
+    /**
+     * 임시 파일에 쓴 뒤 이름을 바꿔서, 쓰는 도중에 종료되어도 이전 상태가 남아 있게 합니다.
+     */
+    public void save(BatchJobDto job) {
+        try {
+            Path jobDirectory = jobDirectory(job.id());
+            Path temp = Files.createTempFile(jobDirectory, "job-", ".tmp");
+            objectMapper.writeValue(temp.toFile(), job);
+            Files.move(temp, jobDirectory.resolve(JOB_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            jobs.put(job.id(), job);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 작업별 입력/결과 파일을 두는 디렉터리
+    public Path jobDirectory(String jobId) throws IOException {
+        return Files.createDirectories(directory.resolve(jobId));
+    }
+
+    private void load(Path jobFile) {
+        if (!Files.isRegularFile(jobFile)) {
+            return;
+        }
+        try {
+            BatchJobDto job = objectMapper.readValue(jobFile.toFile(), BatchJobDto.class);
+            jobs.put(job.id(), job);
+        } catch (IOException e) {
+            log.warn("[!] 배치 작업 파일을 읽지 못했습니다 : {}", jobFile, e);
+        }
+    }
+}
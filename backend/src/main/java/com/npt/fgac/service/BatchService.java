@@ -0,0 +1,17 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.BatchJobDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+
+import java.io.OutputStream;
+import java.util.List;
+
+public interface BatchService {
+    BatchJobDto submit(List<CompletionRequestDto> requests);
+
+    BatchJobDto job(String jobId);
+
+    void poll();
+
+    void writeResults(String jobId, OutputStream outputStream);
+}
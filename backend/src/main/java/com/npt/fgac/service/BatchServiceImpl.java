@@ -0,0 +1,255 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.npt.fgac.config.ChatGPTConfig;
+import com.npt.fgac.dto.*;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * OpenAI Batch API로 대량 프롬프트를 처리합니다.
+ * [STEP1] 요청을 my.batch.max-requests-per-file개씩 JSONL 파일로 묶어 /v1/files에 올리고 batch를 만듭니다.
+ * 저장소 이미지 경로(/api/v1/chatGpt/images/..)는 OpenAI가 읽을 수 있는 URL로 바꿔서 씁니다.
+ * 중간 batch를 만들다 실패하면 이미 만든 batch는 취소합니다. (작업 기록이 없어 아무도 결과를 가져가지 않으므로)
+ * [STEP2] my.batch.poll-interval마다 진행 중인 batch 상태를 확인하고, 끝난 batch의 결과 파일을 로컬 디스크로 내려받습니다.
+ * [STEP3] 결과는 내려받은 JSONL 파일을 그대로 이어서 스트리밍합니다. (custom_id = "request-{요청 순번}")
+ * 작업 상태는 BatchJobStore가 디스크에 저장하므로 재시작해도 폴링을 이어서 합니다.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class BatchServiceImpl implements BatchService {
+    private static final String COMPLETIONS_PATH = "/v1/chat/completions";
+
+    private final ChatGPTConfig chatGPTConfig;
+    private final ObjectMapper objectMapper;
+    private final BatchJobStore batchJobStore;
+    private final ModelRegistry modelRegistry;
+    private final ImageStore imageStore;
+    @Value("${my.api.openai-url}")
+    private String openAiUrl;
+    @Value("${my.batch.max-requests-per-file:50000}")
+    private int maxRequestsPerFile;
+    @Value("${my.batch.completion-window:24h}")
+    private String completionWindow;
+
+    @Override
+    public BatchJobDto submit(List<CompletionRequestDto> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No requests to submit");
+        }
+        requests.forEach(request -> modelRegistry.validate(request.getModel()));
+
+        String jobId = UUID.randomUUID().toString();
+        List<BatchPartDto> parts = new ArrayList<>();
+        try {
+            Path jobDirectory = batchJobStore.jobDirectory(jobId);
+            for (int first = 0; first < requests.size(); first += maxRequestsPerFile) {
+                List<CompletionRequestDto> chunk = requests.subList(first, Math.min(first + maxRequestsPerFile, requests.size()));
+                parts.add(submitPart(jobDirectory, first, chunk));
+            }
+        } catch (IOException e) {
+            cancel(jobId, parts);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            cancel(jobId, parts);
+            throw e;
+        }
+
+        BatchJobDto job = new BatchJobDto(jobId, "in_progress", Instant.now(), requests.size(), List.of()).withParts(parts);
+        batchJobStore.save(job);
+        log.debug("[+] 배치 작업 {} 제출 : 요청 {}개, batch {}개", jobId, requests.size(), parts.size());
+        return job;
+    }
+
+    @Override
+    public BatchJobDto job(String jobId) {
+        return batchJobStore.find(jobId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown batch job: " + jobId));
+    }
+
+    /**
+     * 스케줄러와 테스트에서 동시에 부를 수 있으므로 한 번에 하나만 실행합니다.
+     */
+    @Override
+    @Scheduled(initialDelayString = "${my.batch.poll-interval:PT1M}", fixedDelayString = "${my.batch.poll-interval:PT1M}")
+    public synchronized void poll() {
+        for (BatchJobDto job : batchJobStore.unfinished()) {
+            try {
+                pollJob(job);
+            } catch (RuntimeException e) {
+                // 한 작업이 실패해도 나머지 작업은 계속 확인하고, 다음 주기에 다시 시도합니다.
+                log.warn("[!] 배치 작업 {} 상태 확인 실패 : {}", job.id(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void writeResults(String jobId, OutputStream outputStream) {
+        BatchJobDto job = job(jobId);
+        try {
+            Path jobDirectory = batchJobStore.jobDirectory(job.id());
+            for (int i = 0; i < job.parts().size(); i++) {
+                for (Path file : List.of(outputFile(jobDirectory, i), errorFile(jobDirectory, i))) {
+                    if (Files.isRegularFile(file)) {
+                        Files.copy(file, outputStream);
+                        // 파일을 이어 붙일 때 줄이 합쳐지지 않게 합니다.
+                        if (!endsWithNewline(file)) {
+                            outputStream.write('\n');
+                        }
+                    }
+                }
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BatchPartDto submitPart(Path jobDirectory, int first, List<CompletionRequestDto> chunk) throws IOException {
+        // [STEP1-1] 요청을 한 줄씩 JSONL 파일로 씁니다. (요청 전체를 하나의 문자열로 만들지 않습니다)
+        Path input = jobDirectory.resolve("input-" + first + ".jsonl");
+        try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(input.toFile())) {
+            for (int i = 0; i < chunk.size(); i++) {
+                CompletionRequestDto request = chunk.get(i).withMessages(imageStore.resolveImages(chunk.get(i).getMessages()));
+                writer.write(new BatchRequestLineDto("request-" + (first + i), "POST", COMPLETIONS_PATH, request));
+            }
+        }
+
+        // [STEP1-2] 파일을 스트리밍으로 업로드하고 batch를 만듭니다. 업로드가 끝난 입력 파일은 지웁니다.
+        OpenAiFileDto file;
+        try {
+            file = uploadFile(input);
+        } finally {
+            Files.deleteIfExists(input);
+        }
+        OpenAiBatchDto batch = chatGPTConfig.restTemplate().postForObject(openAiUrl + "/v1/batches",
+                new HttpEntity<>(Map.of("input_file_id", file.id(), "endpoint", COMPLETIONS_PATH,
+                        "completion_window", completionWindow), chatGPTConfig.httpHeaders()),
+                OpenAiBatchDto.class);
+        return new BatchPartDto(first, chunk.size(), file.id(), batch.id(), batch.status(), null, null);
+    }
+
+    // 취소에 실패해도 원래 오류를 돌려주고, 남은 batch는 로그로 남깁니다.
+    private void cancel(String jobId, List<BatchPartDto> parts) {
+        for (BatchPartDto part : parts) {
+            try {
+                chatGPTConfig.restTemplate().exchange(openAiUrl + "/v1/batches/{batchId}/cancel", HttpMethod.POST,
+                        new HttpEntity<>(chatGPTConfig.httpHeaders()), OpenAiBatchDto.class, part.batchId());
+                log.debug("[+] 배치 작업 {} 제출 실패로 batch {} 취소", jobId, part.batchId());
+            } catch (RuntimeException e) {
+                log.warn("[!] 배치 작업 {} 제출 실패 후 batch {} 취소 실패 : {}", jobId, part.batchId(), e.getMessage());
+            }
+        }
+    }
+
+    private OpenAiFileDto uploadFile(Path input) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(chatGPTConfig.httpHeaders());
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("purpose", "batch");
+        body.add("file", new FileSystemResource(input));
+        return chatGPTConfig.restTemplate().postForObject(openAiUrl + "/v1/files", new HttpEntity<>(body, headers), OpenAiFileDto.class);
+    }
+
+    private void pollJob(BatchJobDto job) {
+        List<BatchPartDto> parts = new ArrayList<>(job.parts());
+        boolean changed = false;
+        for (int i = 0; i < parts.size(); i++) {
+            BatchPartDto part = parts.get(i);
+            if (part.terminal()) {
+                continue;
+            }
+            // [STEP2-1] 상태가 바뀌었을 때만 저장합니다.
+            // id는 URI 변수로 넘겨서 http.client.requests 지표의 uri 태그가 batch마다 늘어나지 않게 합니다.
+            OpenAiBatchDto batch = chatGPTConfig.restTemplate().exchange(openAiUrl + "/v1/batches/{batchId}",
+                    HttpMethod.GET, new HttpEntity<>(chatGPTConfig.httpHeaders()), OpenAiBatchDto.class,
+                    part.batchId()).getBody();
+            BatchPartDto updated = part.with(batch);
+            if (updated.equals(part)) {
+                continue;
+            }
+            // [STEP2-2] 끝난 batch는 결과(와 오류) 파일을 먼저 내려받은 뒤에 끝난 것으로 기록합니다.
+            if (updated.terminal()) {
+                download(job.id(), updated.outputFileId(), i, true);
+                download(job.id(), updated.errorFileId(), i, false);
+            }
+            parts.set(i, updated);
+            changed = true;
+        }
+        if (changed) {
+            BatchJobDto updated = job.withParts(parts);
+            batchJobStore.save(updated);
+            log.debug("[+] 배치 작업 {} 상태 : {}", job.id(), updated.status());
+        }
+    }
+
+    private void download(String jobId, String fileId, int partIndex, boolean output) {
+        if (fileId == null) {
+            return;
+        }
+        RestTemplate restTemplate = chatGPTConfig.restTemplate();
+        restTemplate.execute(openAiUrl + "/v1/files/{fileId}/content", HttpMethod.GET,
+                restTemplate.httpEntityCallback(new HttpEntity<>(chatGPTConfig.httpHeaders())),
+                response -> {
+                    // 응답 본문을 메모리에 올리지 않고 바로 파일로 옮깁니다.
+                    Path jobDirectory = batchJobStore.jobDirectory(jobId);
+                    Path temp = Files.createTempFile(jobDirectory, "download-", ".tmp");
+                    try (InputStream body = response.getBody()) {
+                        Files.copy(body, temp, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    Path target = output ? outputFile(jobDirectory, partIndex) : errorFile(jobDirectory, partIndex);
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    return null;
+                }, fileId);
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r")) {
+            long length = randomAccessFile.length();
+            if (length == 0) {
+                return true;
+            }
+            randomAccessFile.seek(length - 1);
+            return randomAccessFile.read() == '\n';
+        }
+    }
+
+    private static Path outputFile(Path jobDirectory, int partIndex) {
+        return jobDirectory.resolve("output-" + partIndex + ".jsonl");
+    }
+
+    private static Path errorFile(Path jobDirectory, int partIndex) {
+        return jobDirectory.resolve("error-" + partIndex + ".jsonl");
+    }
+}
@@ -0,0 +1,114 @@
+package com.npt.fgac.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.npt.fgac.config.CallerProperties;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 요청을 보낸 호출자 식별
+ * 헤더는 인증되지 않은 값이라 바꿔 보내기만 하면 새 호출자가 되므로, 검증할 수 있는 값만 믿습니다.
+ * [STEP1] X-Api-Key / Authorization(Bearer) 키가 my.caller.api-keys에 등록된 키면 키의 해시로 구분합니다.
+ * [STEP2] X-Session-Id가 있으면 클라이언트 IP + 세션으로 구분합니다. IP 하나에 max-sessions-per-address개까지만 기억하고, 넘는 세션은 IP로 셉니다.
+ * [STEP3] 나머지(등록되지 않은 키 포함)는 클라이언트 IP로 구분합니다.
+ * 키 원문은 메모리나 지표에 남기지 않습니다.
+ */
+@Component
+public class CallerResolver {
+    public static final String API_KEY_HEADER = "X-Api-Key";
+    public static final String SESSION_HEADER = "X-Session-Id";
+    private static final String BEARER = "Bearer ";
+    private static final int MAX_SESSION_LENGTH = 64;
+
+    private final Set<String> apiKeyHashes;
+    private final int maxSessionsPerAddress;
+    // IP -> 그 IP에서 본 세션. 한동안 요청이 없는 IP는 잊습니다.
+    private final Cache<String, Set<String>> sessions;
+
+    public CallerResolver(CallerProperties properties) {
+        this.apiKeyHashes = properties.apiKeys().stream()
+                .filter(key -> !key.isBlank())
+                .map(key -> hash(key.trim()))
+                .collect(Collectors.toUnmodifiableSet());
+        this.maxSessionsPerAddress = properties.maxSessionsPerAddress();
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(properties.sessionTtl())
+                .maximumSize(properties.maxAddresses())
+                .build();
+    }
+
+    /**
+     * 현재 요청 스레드의 호출자. 요청 밖(백그라운드 스레드)에서 부르면 null
+     */
+    public String current() {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return null;
+        }
+        return resolve(attributes.getRequest());
+    }
+
+    public String resolve(HttpServletRequest request) {
+        // [STEP1] 등록된 키
+        String apiKey = apiKey(request);
+        if (apiKey != null) {
+            String hash = hash(apiKey);
+            if (apiKeyHashes.contains(hash)) {
+                return "key:" + hash;
+            }
+        }
+
+        // [STEP2] IP + 세션 (IP마다 개수 제한)
+        String address = request.getRemoteAddr();
+        String session = request.getHeader(SESSION_HEADER);
+        if (session != null && !session.isBlank() && maxSessionsPerAddress > 0) {
+            session = session.trim();
+            session = session.length() > MAX_SESSION_LENGTH ? session.substring(0, MAX_SESSION_LENGTH) : session;
+            if (remember(address, session)) {
+                return "session:" + address + "/" + session;
+            }
+        }
+
+        // [STEP3] IP
+        return "ip:" + address;
+    }
+
+    private static String apiKey(HttpServletRequest request) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        if (apiKey == null) {
+            apiKey = request.getHeader(HttpHeaders.AUTHORIZATION);
+            if (apiKey != null && apiKey.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+                apiKey = apiKey.substring(BEARER.length());
+            }
+        }
+        return apiKey != null && !apiKey.isBlank() ? apiKey.trim() : null;
+    }
+
+    // 이미 본 세션이거나 자리가 남아 있으면 true
+    private boolean remember(String address, String session) {
+        Set<String> known = sessions.get(address, ignored -> new LinkedHashSet<>());
+        synchronized (known) {
+            return known.contains(session) || (known.size() < maxSessionsPerAddress && known.add(session));
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ModelDto;
+import com.npt.fgac.dto.ModelListResponseDto;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * OpenAI 응답을 타입이 있는 DTO로 읽는 공용 리더
+ * ObjectReader는 스레드에 안전하고 만들 때 한 번만 설정되므로 요청마다 ObjectMapper를 새로 만들지 않습니다.
+ * 읽는 시간(fgac.json.parse)과 응답 크기(fgac.upstream.response.size)를 type(completion, models)별로 기록합니다.
+ * 스트림에서 바로 읽을 때는 본문이 도착하는 시간도 읽는 시간에 포함됩니다.
+ */
+@Component
+public class ChatGPTResponseReader {
+    private final ObjectReader completionReader;
+    private final ObjectReader modelListReader;
+    private final ObservationRegistry observationRegistry;
+    private final DistributionSummary completionSize;
+    private final DistributionSummary modelListSize;
+
+    public ChatGPTResponseReader(ObjectMapper objectMapper, ObservationRegistry observationRegistry,
+                                 MeterRegistry meterRegistry) {
+        ObjectReader reader = objectMapper.reader()
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.completionReader = reader.forType(ChatCompletionResponseDto.class);
+        this.modelListReader = reader.forType(ModelListResponseDto.class);
+        this.observationRegistry = observationRegistry;
+        this.completionSize = responseSize(meterRegistry, "completion");
+        this.modelListSize = responseSize(meterRegistry, "models");
+    }
+
+    private static DistributionSummary responseSize(MeterRegistry meterRegistry, String type) {
+        return DistributionSummary.builder("fgac.upstream.response.size")
+                .baseUnit("bytes")
+                .tags("type", type)
+                .register(meterRegistry);
+    }
+
+    // RestTemplate.execute의 ResponseExtractor로 사용 : 응답 스트림에서 바로 읽습니다.
+    public ChatCompletionResponseDto readCompletion(ClientHttpResponse response) throws IOException {
+        try (CountingInputStream body = new CountingInputStream(response.getBody())) {
+            return parse("completion", completionSize, body, () -> completionReader.readValue(body));
+        }
+    }
+
+    public ChatCompletionResponseDto readCompletion(byte[] body) {
+        try {
+            completionSize.record(body.length);
+            return parse("completion", null, null, () -> completionReader.readValue(body));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public List<ModelDto> readModels(ClientHttpResponse response) throws IOException {
+        try (CountingInputStream body = new CountingInputStream(response.getBody())) {
+            return models(parse("models", modelListSize, body, () -> modelListReader.readValue(body)));
+        }
+    }
+
+    public List<ModelDto> readModels(byte[] body) {
+        try {
+            modelListSize.record(body.length);
+            return models(parse("models", null, null, () -> modelListReader.readValue(body)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 스트림에서 읽었으면 다 읽은 뒤에 센 바이트 수를 응답 크기로 기록합니다.
+    private <T> T parse(String type, DistributionSummary size, CountingInputStream body, Read<T> read)
+            throws IOException {
+        Observation observation = Observation.createNotStarted("fgac.json.parse", observationRegistry)
+                .lowCardinalityKeyValue("type", type)
+                .start();
+        try (Observation.Scope scope = observation.openScope()) {
+            return read.read();
+        } catch (IOException | RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+            if (body != null) {
+                size.record(body.count());
+            }
+        }
+    }
+
+    private interface Read<T> {
+        T read() throws IOException;
+    }
+
+    private static List<ModelDto> models(ModelListResponseDto response) {
+        return response.data() == null ? List.of() : response.data();
+    }
+}
@@ -1,13 +1,48 @@
 package com.npt.fgac.service;
 
+import com.npt.fgac.dto.ChatCompletionResponseDto;
 import com.npt.fgac.dto.CompletionRequestDto;
 import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ModelDto;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface ChatGPTService {
-    List<Map<String, Object>> modelList();
-    List<Map<String, Object>> prompt(CompletionRequestDto completionRequestDto);
-    List<Map<String, Object>> promptImage(ImageMessageDto imageMessageDto);
+    List<ModelDto> modelList();
+    ChatCompletionResponseDto prompt(CompletionRequestDto completionRequestDto);
+    ChatCompletionResponseDto promptImage(ImageMessageDto imageMessageDto);
+    default void promptStream(CompletionRequestDto completionRequestDto, Consumer<String> chunkConsumer) {
+        promptStream(completionRequestDto, Deadline.none(), chunkConsumer);
+    }
+
+    // 마감은 줄 서기, 재시도와 첫 응답까지 기다리는 시간에 적용합니다. (스트림이 시작된 뒤에는 끝까지 읽음)
+    void promptStream(CompletionRequestDto completionRequestDto, Deadline deadline, Consumer<String> chunkConsumer);
+
+    // 기본 구현은 호출한 스레드에서 동기로 처리합니다. (my.concurrency.mode=blocking)
+    default CompletableFuture<ChatCompletionResponseDto> promptAsync(CompletionRequestDto completionRequestDto) {
+        return promptAsync(completionRequestDto, UpstreamScheduler.Priority.INTERACTIVE);
+    }
+
+    // 백그라운드 작업은 BACKGROUND로 보내서 사용자 요청보다 뒤에 업스트림으로 나가게 합니다.
+    default CompletableFuture<ChatCompletionResponseDto> promptAsync(CompletionRequestDto completionRequestDto,
+                                                                     UpstreamScheduler.Priority priority) {
+        return promptAsync(completionRequestDto, priority, Deadline.none());
+    }
+
+    // 마감이 지나면 줄 서기, 재시도, 업스트림 응답 대기를 멈추고 504로 끝냅니다.
+    default CompletableFuture<ChatCompletionResponseDto> promptAsync(CompletionRequestDto completionRequestDto,
+                                                                     UpstreamScheduler.Priority priority,
+                                                                     Deadline deadline) {
+        return CompletableFuture.completedFuture(prompt(completionRequestDto));
+    }
+
+    default CompletableFuture<ChatCompletionResponseDto> promptImageAsync(ImageMessageDto imageMessageDto) {
+        return promptImageAsync(imageMessageDto, Deadline.none());
+    }
+
+    default CompletableFuture<ChatCompletionResponseDto> promptImageAsync(ImageMessageDto imageMessageDto, Deadline deadline) {
+        return CompletableFuture.completedFuture(promptImage(imageMessageDto));
+    }
 }
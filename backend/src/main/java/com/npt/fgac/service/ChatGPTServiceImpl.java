@@ -1,168 +1,211 @@
 package com.npt.fgac.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.npt.fgac.config.ChatGPTConfig;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
 import com.npt.fgac.dto.CompletionRequestDto;
 import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ModelDto;
 import lombok.RequiredArgsConstructor;
-import org.springframework.http.HttpEntity;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 @Slf4j
 @RequiredArgsConstructor
 @Service
+@ConditionalOnProperty(name = "my.concurrency.mode", havingValue = "blocking", matchIfMissing = true)
 public class ChatGPTServiceImpl implements ChatGPTService {
+    private static final String COMPLETIONS = "chat.completions";
+    private static final String COMPLETIONS_STREAM = "chat.completions.stream";
+
     private final ChatGPTConfig chatGPTConfig;
+    private final ObjectMapper objectMapper;
+    private final ChatGPTResponseReader responseReader;
+    private final ModelRegistry modelRegistry;
+    private final UpstreamScheduler upstreamScheduler;
+    private final UpstreamMetrics upstreamMetrics;
     /**
      * 사용 가능한 모델 리스트를 조회하는 비즈니스 로직
+     * 백그라운드에서 갱신되는 ModelRegistry의 목록을 돌려줍니다.
      *
      * @return
      */
     @Override
-    public List<Map<String, Object>> modelList() {
-        log.debug("[+] 모델 리스트를 조회합니다.");
-        List<Map<String, Object>> resultList = new ArrayList<>();
-
-        // [STEP1] 토큰 정보가 포함된 Header를 가져옵니다.
-        HttpHeaders headers = chatGPTConfig.httpHeaders();
+    public List<ModelDto> modelList() {
+        return modelRegistry.models();
+    }
 
-        // [STEP2] 통신을 위한 RestTemplate을 구성합니다.
-        ResponseEntity<String> response = chatGPTConfig.restTemplate()
-                .exchange(
-                        "https://api.openai.com/v1/models",
-                        HttpMethod.GET,
-                        new HttpEntity<>(headers),
-                        String.class);
+    @Override
+    public ChatCompletionResponseDto prompt(CompletionRequestDto completionRequestDto) {
+        return prompt(completionRequestDto, UpstreamScheduler.Priority.INTERACTIVE, Deadline.none());
+    }
 
-        try {
-            // [STEP3] Jackson을 기반으로 응답값을 가져옵니다.
-            ObjectMapper om = new ObjectMapper();
-            JsonNode rootNode = om.readTree(response.getBody());
-
-            // JSON 최상위 노드에서 'data' 필드를 가져오기
-            JsonNode dataNode = rootNode.path("data");
-
-            if (dataNode.isArray()) {
-                for (JsonNode node : dataNode) {
-                    // 각 노드를 Map으로 변환
-                    Map<String, Object> map = om.convertValue(node, new TypeReference<>() {});
-                    resultList.add(map);
-                }
-            }
-
-            // 디버깅용 로그 출력
-            for (Map<String, Object> object : resultList) {
-                String id = (String) object.get("id");
-                String objectName = (String) object.get("object");
-                Integer created = (Integer) object.get("created"); // 숫자는 Long으로 받는 것이 안전합니다.
-                String ownedBy = (String) object.get("owned_by");
-                log.debug("ID: " + object.get("id"));
-                log.debug("Object: " + object.get("object"));
-                log.debug("Created: " + object.get("created"));
-                log.debug("Owned By: " + object.get("owned_by"));
-            }
-        } catch (JsonMappingException e) {
-            System.out.println("JsonMappingException :: " + e.getMessage());
-        } catch (JsonProcessingException e) {
-            System.out.println("JsonProcessingException :: " + e.getMessage());
-        }
-        return resultList;
+    @Override
+    public CompletableFuture<ChatCompletionResponseDto> promptAsync(CompletionRequestDto completionRequestDto,
+                                                                    UpstreamScheduler.Priority priority,
+                                                                    Deadline deadline) {
+        return CompletableFuture.completedFuture(prompt(completionRequestDto, priority, deadline));
     }
 
     @Override
-    public List<Map<String, Object>> prompt(CompletionRequestDto completionRequestDto) {
-        log.debug("[+] 프롬프트를 수행합니다.");
+    public ChatCompletionResponseDto promptImage(ImageMessageDto imageMessageDto) {
+        return promptImage(imageMessageDto, Deadline.none());
+    }
 
-        List<Map<String, Object>> resultList = new ArrayList<>();
+    @Override
+    public CompletableFuture<ChatCompletionResponseDto> promptImageAsync(ImageMessageDto imageMessageDto, Deadline deadline) {
+        return CompletableFuture.completedFuture(promptImage(imageMessageDto, deadline));
+    }
 
-        // [STEP1] 토큰 정보가 포함된 Header를 가져옵니다.
-        HttpHeaders headers = chatGPTConfig.httpHeaders();
+    private ChatCompletionResponseDto promptImage(ImageMessageDto imageMessageDto, Deadline deadline) {
+        log.debug("[+] 프롬프트를 수행합니다.");
+        return upstreamScheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, imageMessageDto.getModel(),
+                upstreamScheduler.estimateTokens(imageMessageDto), deadline,
+                target -> completion(target, imageMessageDto.getModel(), imageMessageDto));
+    }
 
-        // [STEP5] 통신을 위한 RestTemplate을 구성합니다.
-        HttpEntity<CompletionRequestDto> requestEntity = new HttpEntity<>(completionRequestDto, headers);
+    private ChatCompletionResponseDto prompt(CompletionRequestDto completionRequestDto, UpstreamScheduler.Priority priority,
+                                             Deadline deadline) {
+        log.debug("[+] 프롬프트를 수행합니다.");
+        // 한도 안에서 차례를 기다렸다가 스케줄러가 고른 업스트림으로 호출하고, 429/5xx는 다른 업스트림이나 백오프 후 다시 시도합니다.
+        // 응답 타임아웃은 남은 마감 시간으로 줄어듭니다. (ChatGPTConfig의 요청별 HttpContext)
+        return upstreamScheduler.execute(priority, completionRequestDto.getModel(),
+                upstreamScheduler.estimateTokens(completionRequestDto), deadline,
+                target -> completion(target, completionRequestDto.getModel(), completionRequestDto));
+    }
 
-        ResponseEntity<String> response = chatGPTConfig.restTemplate()
-                .exchange(
-                        "https://api.openai.com/v1/chat/completions",
-                        HttpMethod.POST,
-                        requestEntity,
-                        String.class);
+    // [STEP3] 응답 본문을 String으로 모으지 않고 공용 리더로 스트림에서 바로 읽습니다.
+    // 호출 시간, 응답 헤더까지의 시간(TTFB), 요청 크기는 UpstreamMetrics에 기록합니다.
+    private ChatCompletionResponseDto completion(UpstreamTarget target, String model, Object body) {
+        HttpHeaders headers = target.headers();
+        return upstreamMetrics.observe(COMPLETIONS, model, target, () -> {
+            long startedAt = System.nanoTime();
+            return chatGPTConfig.restTemplate().execute(
+                    target.url("/v1/chat/completions"),
+                    HttpMethod.POST,
+                    request -> {
+                        request.getHeaders().putAll(headers);
+                        request.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON));
+                        writeJson(request, COMPLETIONS, body);
+                    },
+                    response -> {
+                        upstreamMetrics.timeToFirstByte(COMPLETIONS, model, target, startedAt);
+                        upstreamScheduler.observe(target, response.getHeaders());
+                        return responseReader.readCompletion(response);
+                    });
+        });
+    }
 
-        try {
-            // [STEP3] Jackson을 기반으로 응답값을 가져옵니다.
-            ObjectMapper om = new ObjectMapper();
-            JsonNode rootNode = om.readTree(response.getBody());
-
-            // JSON 최상위 노드에서 'choices' 필드를 가져오기
-            JsonNode choicesNode = rootNode.path("choices");
-
-            // 'choices'가 배열인 경우 각각의 요소를 처리
-            if (choicesNode.isArray()) {
-                for (JsonNode node : choicesNode) {
-                    // 각 'choice' 노드를 Map으로 변환
-                    Map<String, Object> map = om.convertValue(node, new TypeReference<Map<String, Object>>() {});
-                    resultList.add(map);
-                }
-            }
-
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+    // 요청 본문을 버퍼에 모으지 않고 HTTP 클라이언트가 보낼 때 바로 JSON으로 쓰면서 크기를 셉니다.
+    private void writeJson(ClientHttpRequest request, String endpoint, Object body) throws IOException {
+        if (request instanceof StreamingHttpOutputMessage streaming) {
+            streaming.setBody(out -> writeJson(out, endpoint, body));
+        } else {
+            writeJson(request.getBody(), endpoint, body);
         }
+    }
 
-        return resultList;
+    private void writeJson(OutputStream out, String endpoint, Object body) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(out);
+        objectMapper.writeValue(counting, body);
+        upstreamMetrics.requestSize(endpoint, counting.count());
     }
-    @Override
-    public List<Map<String, Object>> promptImage(ImageMessageDto imageMessageDto){
-        log.debug("[+] 프롬프트를 수행합니다.");
 
-        List<Map<String, Object>> resultList = new ArrayList<>();
+    /**
+     * 스트리밍 프롬프트
+     * stream: true 로 요청하고 OpenAI가 보내주는 SSE 응답을 한 줄씩 읽어서
+     * 각 chunk(JSON 문자열)를 그대로 chunkConsumer에 넘겨줍니다. 응답 전체를 메모리에 모으지 않습니다.
+     * 마감은 줄 서기와 재시도에 적용하고, 응답 타임아웃(Deadline.current())을 남은 시간으로 줄여서 첫 응답까지도 묶습니다.
+     */
+    @Override
+    public void promptStream(CompletionRequestDto completionRequestDto, Deadline deadline, Consumer<String> chunkConsumer) {
+        log.debug("[+] 스트리밍 프롬프트를 수행합니다.");
+        completionRequestDto.setStream(true);
 
-        // [STEP1] 토큰 정보가 포함된 Header를 가져옵니다.
-        HttpHeaders headers = chatGPTConfig.httpHeaders();
+        // [STEP1] chunk를 하나라도 넘긴 뒤의 오류는 다시 시도하면 브라우저가 같은 내용을 두 번 받으므로 그대로 실패시킵니다.
+        // 브라우저 쪽에서 끊긴 경우는 업스트림 탓이 아니므로 취소로 끝냅니다. (서킷 브레이커에 세지 않음)
+        AtomicBoolean started = new AtomicBoolean();
 
-        // [STEP5] 통신을 위한 RestTemplate을 구성합니다.
-        HttpEntity<ImageMessageDto> requestEntity = new HttpEntity<>(imageMessageDto, headers);
+        // [STEP2] 요청 본문을 바로 소켓에 쓰고, 응답은 스트림으로 읽습니다.
+        // 오류 응답은 chunk를 넘기기 전에 나오므로 스케줄러가 다른 업스트림으로 다시 시도해도 됩니다.
+        upstreamScheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, completionRequestDto.getModel(),
+                upstreamScheduler.estimateTokens(completionRequestDto), deadline, target -> {
+                    try {
+                        return upstreamMetrics.observe(COMPLETIONS_STREAM, completionRequestDto.getModel(), target,
+                                () -> stream(target, completionRequestDto, data -> {
+                                    started.set(true);
+                                    deliver(chunkConsumer, data);
+                                }));
+                    } catch (CancellationException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        if (started.get()) {
+                            throw new UpstreamScheduler.NotRetryableException("Stream interrupted after the first chunk", e);
+                        }
+                        throw e;
+                    }
+                });
+    }
 
-        ResponseEntity<String> response = chatGPTConfig.restTemplate()
-                .exchange("https://api.openai.com/v1/chat/completions",
-                        HttpMethod.POST,
-                        requestEntity,
-                        String.class);
+    // 브라우저로 내보내다 실패하면(연결 끊김) 업스트림 오류와 구분할 수 있게 취소로 바꿉니다.
+    static void deliver(Consumer<String> chunkConsumer, String data) {
         try {
-            // [STEP3] Jackson을 기반으로 응답값을 가져옵니다.
-            ObjectMapper om = new ObjectMapper();
-            JsonNode rootNode = om.readTree(response.getBody());
-
-            // JSON 최상위 노드에서 'choices' 필드를 가져오기
-            JsonNode choicesNode = rootNode.path("choices");
-
-            // 'choices'가 배열인 경우 각각의 요소를 처리
-            if (choicesNode.isArray()) {
-                for (JsonNode node : choicesNode) {
-                    // 각 'choice' 노드를 Map으로 변환
-                    Map<String, Object> map = om.convertValue(node, new TypeReference<Map<String, Object>>() {});
-                    resultList.add(map);
-                }
-            }
-
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+            chunkConsumer.accept(data);
+        } catch (RuntimeException e) {
+            CancellationException cancelled = new CancellationException("Client stopped receiving the stream");
+            cancelled.initCause(e);
+            throw cancelled;
         }
+    }
 
-        return resultList;
-
+    private Void stream(UpstreamTarget target, CompletionRequestDto completionRequestDto, Consumer<String> chunkConsumer) {
+        // 고른 업스트림의 키가 포함된 Header를 가져옵니다.
+        HttpHeaders headers = target.headers();
+        long startedAt = System.nanoTime();
+        return chatGPTConfig.restTemplate()
+                .execute(target.url("/v1/chat/completions"),
+                        HttpMethod.POST,
+                        request -> {
+                            request.getHeaders().putAll(headers);
+                            request.getHeaders().setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+                            writeJson(request, COMPLETIONS_STREAM, completionRequestDto);
+                        },
+                        response -> {
+                            upstreamMetrics.timeToFirstByte(COMPLETIONS_STREAM, completionRequestDto.getModel(), target, startedAt);
+                            upstreamScheduler.observe(target, response.getHeaders());
+                            BufferedReader reader = new BufferedReader(
+                                    new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
+                            String line;
+                            while ((line = reader.readLine()) != null) {
+                                // SSE 형식 : "data: {...}" 줄과 빈 줄이 번갈아 옵니다.
+                                if (!line.startsWith("data:")) {
+                                    continue;
+                                }
+                                String data = line.substring(5).trim();
+                                if ("[DONE]".equals(data)) {
+                                    break;
+                                }
+                                chunkConsumer.accept(data);
+                            }
+                            return null;
+                        });
     }
 
 }
@@ -0,0 +1,132 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ChoiceDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 완성 응답 캐시
+ * model, temperature, messages를 키 순서를 고정한 JSON으로 만들어 SHA-256 해시를 키로 사용합니다.
+ * Caffeine(W-TinyLFU)으로 메모리 크기와 TTL을 제한하고, 같은 요청이 동시에 들어오면 업스트림 호출 하나를 함께 기다립니다.
+ */
+@Component
+public class CompletionCache {
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+
+    private final boolean enabled;
+    private final ObjectWriter canonicalWriter;
+    private final AsyncCache<String, ChatCompletionResponseDto> cache;
+
+    public CompletionCache(ObjectMapper objectMapper,
+                           @Value("${my.cache.enabled:true}") boolean enabled,
+                           @Value("${my.cache.max-size:64MB}") DataSize maxSize,
+                           @Value("${my.cache.ttl:10m}") Duration ttl) {
+        this.enabled = enabled;
+        // DTO 필드 순서는 고정이고, content 파트(Map)의 키 순서만 정렬하면 같은 요청은 항상 같은 바이트가 됩니다.
+        this.canonicalWriter = objectMapper.writer()
+                .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String key, ChatCompletionResponseDto value) -> weigh(value))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * 캐시에 있으면 바로 돌려주고, 없으면 loader로 업스트림을 호출합니다.
+     * 호출이 실패하면 Caffeine이 항목을 지우므로 실패 응답은 캐시되지 않습니다.
+     * Caffeine의 mapping 함수는 ConcurrentHashMap.compute 안(bin 잠금)에서 돌기 때문에, 빈 future만 넣고
+     * loader는 잠금 밖에서 부릅니다. (blocking 모드의 promptAsync는 업스트림 호출이 끝날 때까지 돌아오지 않음)
+     */
+    public CompletableFuture<ChatCompletionResponseDto> get(Object request,
+                                                            Supplier<CompletableFuture<ChatCompletionResponseDto>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        CompletableFuture<ChatCompletionResponseDto> placeholder = new CompletableFuture<>();
+        CompletableFuture<ChatCompletionResponseDto> cached = cache.get(key(request), (key, executor) -> placeholder);
+        if (cached != placeholder) {
+            return cached;
+        }
+        // 이 요청이 항목을 넣었으므로 업스트림을 호출합니다.
+        try {
+            loader.get().whenComplete((response, failure) -> {
+                if (failure != null) {
+                    placeholder.completeExceptionally(failure);
+                } else {
+                    placeholder.complete(response);
+                }
+            });
+        } catch (RuntimeException e) {
+            placeholder.completeExceptionally(e);
+        }
+        return placeholder;
+    }
+
+    /**
+     * 이미 캐시에 있거나 호출 중인 요청인지 (key는 key(request) 값)
+     */
+    boolean contains(String key) {
+        return enabled && cache.getIfPresent(key) != null;
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    public long estimatedSize() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    // 적중률, 제거 수 등을 UpstreamMetrics가 Caffeine 통계로 내보냅니다.
+    AsyncCache<String, ChatCompletionResponseDto> cache() {
+        return cache;
+    }
+
+    String key(Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                canonicalWriter.writeValue(out, request);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 대략적인 메모리 크기 : 응답 본문 문자 수 * 2바이트 + 고정 오버헤드
+    private static int weigh(ChatCompletionResponseDto response) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        if (response.choices() != null) {
+            for (ChoiceDto choice : response.choices()) {
+                if (choice.message() != null && choice.message().content() != null) {
+                    bytes += 2L * choice.message().content().length();
+                }
+            }
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
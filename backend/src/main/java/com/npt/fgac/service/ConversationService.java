@@ -0,0 +1,16 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+
+import java.util.List;
+
+public interface ConversationService {
+    List<ChatMessageDto> append(String conversationId, ChatMessageDto message, Integer expectedSize);
+    void appendReply(String conversationId, ChatMessageDto reply);
+    List<ChatMessageDto> preview(String conversationId, ChatMessageDto message);
+    void replace(String conversationId, List<ChatMessageDto> messages);
+    List<ChatMessageDto> history(String conversationId);
+    List<ChatMessageDto> history(String conversationId, int offset, int limit);
+    int size(String conversationId);
+    void delete(String conversationId);
+}
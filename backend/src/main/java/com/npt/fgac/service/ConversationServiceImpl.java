@@ -0,0 +1,168 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 서버에서 대화 기록을 보관하고, OpenAI에 보낼 때는 토큰 예산 안으로 줄여서 보냅니다.
+ * 클라이언트는 매 턴마다 새 메시지 하나만 보내면 됩니다.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class ConversationServiceImpl implements ConversationService {
+    private final ConversationStore conversationStore;
+    private final TokenCounter tokenCounter;
+    @Value("${my.conversation.token-budget:12000}")
+    private int tokenBudget;
+
+    /**
+     * 새 메시지를 기록에 추가하고, 이번 요청에 보낼 압축된 대화 목록을 돌려줍니다.
+     * expectedSize는 클라이언트가 알고 있는 이전 메시지 수이며, 서버 기록과 다르면 409로 재동기화를 요청합니다.
+     * 확인과 추가는 저장소 잠금 안에서 한 번에 하므로, 같은 대화에 동시에 온 두 턴 중 하나는 409가 됩니다.
+     */
+    @Override
+    public List<ChatMessageDto> append(String conversationId, ChatMessageDto message, Integer expectedSize) {
+        if (expectedSize != null) {
+            conversationStore.appendIfSize(conversationId, expectedSize, message);
+        } else {
+            conversationStore.append(conversationId, message);
+        }
+        return compact(conversationStore.messages(conversationId));
+    }
+
+    @Override
+    public void appendReply(String conversationId, ChatMessageDto reply) {
+        conversationStore.append(conversationId, reply);
+    }
+
+    /**
+     * 새 메시지를 기록에 넣지 않고, 넣었다면 append가 돌려줬을 압축된 대화 목록을 만듭니다. (다음 단계 미리 호출용)
+     */
+    @Override
+    public List<ChatMessageDto> preview(String conversationId, ChatMessageDto message) {
+        List<ChatMessageDto> history = new ArrayList<>(conversationStore.messages(conversationId));
+        history.add(message);
+        return compact(history);
+    }
+
+    @Override
+    public void replace(String conversationId, List<ChatMessageDto> messages) {
+        conversationStore.replace(conversationId, messages);
+    }
+
+    @Override
+    public List<ChatMessageDto> history(String conversationId) {
+        return conversationStore.messages(conversationId);
+    }
+
+    @Override
+    public List<ChatMessageDto> history(String conversationId, int offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "offset must be >= 0 and limit must be > 0");
+        }
+        return conversationStore.messages(conversationId, offset, limit);
+    }
+
+    @Override
+    public int size(String conversationId) {
+        return conversationStore.size(conversationId);
+    }
+
+    @Override
+    public void delete(String conversationId) {
+        conversationStore.delete(conversationId);
+    }
+
+    /**
+     * [STEP1] 같은 이미지가 뒤쪽 메시지에 다시 나오면 앞쪽 메시지에서는 이미지 파트를 뺍니다.
+     * [STEP2] system 메시지와 마지막 메시지는 항상 보내고, 나머지는 최근 것부터 토큰 예산이 찰 때까지 담습니다.
+     */
+    List<ChatMessageDto> compact(List<ChatMessageDto> history) {
+        if (history.isEmpty()) {
+            return history;
+        }
+        List<ChatMessageDto> deduplicated = withoutRepeatedImages(history);
+
+        ChatMessageDto last = deduplicated.get(deduplicated.size() - 1);
+        int used = estimateTokens(last);
+        for (ChatMessageDto message : deduplicated) {
+            if (message != last && "system".equals(message.getRole())) {
+                used += estimateTokens(message);
+            }
+        }
+
+        Deque<ChatMessageDto> kept = new ArrayDeque<>();
+        kept.addFirst(last);
+        int dropped = 0;
+        for (int i = deduplicated.size() - 2; i >= 0; i--) {
+            ChatMessageDto message = deduplicated.get(i);
+            if ("system".equals(message.getRole())) {
+                kept.addFirst(message);
+                continue;
+            }
+            int tokens = estimateTokens(message);
+            if (dropped == 0 && used + tokens <= tokenBudget) {
+                used += tokens;
+                kept.addFirst(message);
+            } else {
+                // 한 번 잘리기 시작하면 그보다 오래된 턴은 모두 뺍니다. (대화 순서 유지)
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.debug("[+] 대화 압축 : 오래된 메시지 {}개 제외, 예상 토큰 {}", dropped, used);
+        }
+        return new ArrayList<>(kept);
+    }
+
+    private static List<ChatMessageDto> withoutRepeatedImages(List<ChatMessageDto> history) {
+        Set<String> laterImageUrls = new HashSet<>();
+        ChatMessageDto[] result = new ChatMessageDto[history.size()];
+        for (int i = history.size() - 1; i >= 0; i--) {
+            ChatMessageDto message = history.get(i);
+            if (!(message.getContent() instanceof List<?> parts)) {
+                result[i] = message;
+                continue;
+            }
+            List<Object> keptParts = new ArrayList<>(parts.size());
+            for (Object part : parts) {
+                String imageUrl = imageUrl(part);
+                if (imageUrl != null && !laterImageUrls.add(imageUrl)) {
+                    continue;
+                }
+                keptParts.add(part);
+            }
+            result[i] = keptParts.size() == parts.size() ? message : new ChatMessageDto(message.getRole(), keptParts);
+        }
+        return List.of(result);
+    }
+
+    // OpenAI content 파트 중 image_url 파트라면 URL을 돌려줍니다.
+    private static String imageUrl(Object part) {
+        if (part instanceof Map<?, ?> map && "image_url".equals(map.get("type"))
+                && map.get("image_url") instanceof Map<?, ?> imageUrl && imageUrl.get("url") instanceof String url) {
+            return url;
+        }
+        return null;
+    }
+
+    // 대화 기록은 기본 모델(CompletionRequestDto.DEFAULT_MODEL)로 보냅니다.
+    private int estimateTokens(ChatMessageDto message) {
+        return tokenCounter.count(CompletionRequestDto.DEFAULT_MODEL, message);
+    }
+}
@@ -0,0 +1,20 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+
+import java.util.List;
+
+/**
+ * 대화 ID별 메시지 기록 저장소
+ */
+public interface ConversationStore {
+    void append(String conversationId, ChatMessageDto message);
+    // 메시지 수가 expectedSize일 때만 추가합니다. (확인과 추가를 한 번에, 다르면 409)
+    void appendIfSize(String conversationId, int expectedSize, ChatMessageDto message);
+    void replace(String conversationId, List<ChatMessageDto> messages);
+    List<ChatMessageDto> messages(String conversationId);
+    // [offset, offset + limit) 범위의 메시지 (페이지 조회)
+    List<ChatMessageDto> messages(String conversationId, int offset, int limit);
+    int size(String conversationId);
+    void delete(String conversationId);
+}
@@ -0,0 +1,39 @@
+package com.npt.fgac.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 쓴 바이트 수를 세는 스트림 (요청 크기 측정용)
+ * Jackson이 다 쓴 뒤 닫아도 감싼 소켓 스트림은 닫지 않습니다. (HTTP 클라이언트가 닫습니다)
+ */
+final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    long count() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    // FilterOutputStream은 배열을 한 바이트씩 쓰므로 그대로 넘깁니다.
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
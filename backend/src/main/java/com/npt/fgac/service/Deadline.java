@@ -0,0 +1,86 @@
+package com.npt.fgac.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * 요청 하나에 남은 시간
+ * 컨트롤러에서 만들어서 스케줄러(줄 서는 시간, 재시도)와 HTTP 호출(응답 타임아웃)까지 그대로 넘깁니다.
+ * 끝나는 시각을 System.nanoTime 기준으로 들고 있으므로 스레드가 바뀌어도 같은 마감 시각을 봅니다.
+ */
+public final class Deadline {
+    private static final Deadline NONE = new Deadline(false, 0);
+    // RestTemplate처럼 호출 인자로 넘길 수 없는 곳에서 읽습니다. (blocking 모드의 요청 스레드 안에서만 사용)
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final boolean bounded;
+    private final long expiresAtNanos;
+
+    private Deadline(boolean bounded, long expiresAtNanos) {
+        this.bounded = bounded;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(true, System.nanoTime() + timeout.toNanos());
+    }
+
+    public static Deadline current() {
+        Deadline deadline = CURRENT.get();
+        return deadline != null ? deadline : NONE;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public boolean expired() {
+        return bounded && expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * 남은 시간. 마감이 없으면 null, 지났으면 0
+     */
+    public Duration remaining() {
+        if (!bounded) {
+            return null;
+        }
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    /**
+     * timeout과 남은 시간 중 짧은 쪽 (HTTP 타임아웃을 마감에 맞출 때 사용)
+     */
+    public Duration cap(Duration timeout) {
+        Duration remaining = remaining();
+        return remaining == null || remaining.compareTo(timeout) > 0 ? timeout : remaining;
+    }
+
+    public ResponseStatusException exceeded() {
+        return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Request deadline exceeded");
+    }
+
+    /**
+     * action을 실행하는 동안 current()가 이 마감을 돌려줍니다.
+     */
+    public <T> T apply(Supplier<T> action) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 호출자별 공정 입장 (bulkhead + 가중 공정 큐)
+ * [STEP1] 전체 처리 중 요청이 maxConcurrent, 호출자 처리 중 요청이 perCaller보다 적고 그 호출자 줄이 비어 있으면 바로 들여보냅니다.
+ * [STEP2] 아니면 호출자 줄이 가득 찼거나 예상 대기 시간(최근 처리 시간 x 앞에 선 요청 수)이 targetWait보다 길면 바로 429를 돌려줍니다.
+ * [STEP3] 나머지는 호출자 줄 끝에 세웁니다. 자리가 나면 perCaller에 걸리지 않은 호출자 중 가상 시작 시각이 가장 이른 줄의 맨 앞을 들여보냅니다.
+ *         (start-time fair queueing: 한 번 들여보낼 때마다 그 호출자의 가상 시각이 1 / weight 만큼 늘어나므로 weight 비율로 번갈아 들어갑니다.)
+ * [STEP4] maxWait 동안 차례가 오지 않은 요청은 줄에서 빼고 429로 끝냅니다.
+ * 한 호출자가 요청을 몰아서 보내도 그 호출자의 줄만 길어지고, 다른 호출자는 자기 차례에 바로 들어갑니다.
+ */
+@Slf4j
+@Component
+public class FairShareAdmission {
+    // 최근 처리 시간 평균(EWMA)에 새 값을 반영하는 비율
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+
+    private final AdmissionProperties properties;
+    private final Map<String, Caller> callers = new HashMap<>();
+    // 줄에 요청이 있는 호출자. 자리가 나면 이 중에서 다음 차례를 고릅니다.
+    private final Set<Caller> backlogged = new LinkedHashSet<>();
+    private int inFlight;
+    private int queued;
+    private double virtualTime;
+    private double serviceNanos;
+
+    private final Timer admittedWait;
+    private final Timer rejectedWait;
+    private final Counter queueFullRejected;
+    private final Counter latencyRejected;
+    private final Counter timeoutRejected;
+
+    public FairShareAdmission(AdmissionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        Gauge.builder("fgac.admission.queued", this, FairShareAdmission::queued)
+                .description("Requests waiting for an admission slot")
+                .register(meterRegistry);
+        Gauge.builder("fgac.admission.in.flight", this, FairShareAdmission::inFlight)
+                .description("Admitted requests still being processed")
+                .register(meterRegistry);
+        this.admittedWait = Timer.builder("fgac.admission.wait").tag("outcome", "admitted")
+                .description("Time spent waiting for an admission slot")
+                .register(meterRegistry);
+        this.rejectedWait = Timer.builder("fgac.admission.wait").tag("outcome", "timeout")
+                .description("Time spent waiting for an admission slot")
+                .register(meterRegistry);
+        this.queueFullRejected = Counter.builder("fgac.admission.rejected").tag("reason", "queue_full")
+                .description("Requests shed by fair-share admission")
+                .register(meterRegistry);
+        this.latencyRejected = Counter.builder("fgac.admission.rejected").tag("reason", "latency")
+                .description("Requests shed by fair-share admission")
+                .register(meterRegistry);
+        this.timeoutRejected = Counter.builder("fgac.admission.rejected").tag("reason", "timeout")
+                .description("Requests shed by fair-share admission")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 입장권을 얻을 때 완료되는 future. 바로 들어갈 수 있으면 이미 완료된 future를 돌려주고,
+     * 줄을 세우지 않고 거절하면 RejectedException을 던집니다. 줄에서 시간이 다 되면 RejectedException으로 완료됩니다.
+     * 받은 입장권은 요청 처리가 끝난 뒤 반드시 release 해야 합니다. future를 취소하면 줄에서 빠집니다.
+     */
+    public CompletableFuture<Permit> acquire(String caller) {
+        long now = System.nanoTime();
+        Waiter waiter;
+        synchronized (this) {
+            Caller state = callers.computeIfAbsent(caller, key -> new Caller(key, properties.weight(key)));
+            // [STEP1] 바로 입장
+            if (state.queue.isEmpty() && state.inFlight < properties.perCaller() && inFlight < properties.maxConcurrent()) {
+                state.finishTag = Math.max(state.finishTag, virtualTime) + 1 / state.weight;
+                admittedWait.record(0, TimeUnit.NANOSECONDS);
+                return CompletableFuture.completedFuture(grant(state, now));
+            }
+            // [STEP2] 줄 세우기 전 거절
+            long estimate = estimatedWaitNanos(state);
+            if (state.queue.size() >= properties.maxQueuePerCaller()) {
+                queueFullRejected.increment();
+                forgetIfIdle(state);
+                log.warn("[!] 호출자 대기열 가득 참 : {} ({}개 대기)", caller, state.queue.size());
+                throw new RejectedException("Too many queued requests", retryAfter(estimate));
+            }
+            if (estimate > properties.targetWait().toNanos()) {
+                latencyRejected.increment();
+                forgetIfIdle(state);
+                log.warn("[!] 예상 대기 시간 초과 : {} ({}ms)", caller, TimeUnit.NANOSECONDS.toMillis(estimate));
+                throw new RejectedException("Server is busy", retryAfter(estimate));
+            }
+            // [STEP3] 호출자 줄에 세우기
+            waiter = new Waiter(state, now, new CompletableFuture<>());
+            if (state.queue.isEmpty()) {
+                state.startTag = Math.max(state.finishTag, virtualTime);
+                backlogged.add(state);
+            }
+            state.queue.add(waiter);
+            queued++;
+            log.debug("[+] 입장 대기 : {} ({}개 대기, 전체 {}개)", caller, state.queue.size(), queued);
+        }
+        // [STEP4] 시간이 다 되거나 취소되면 줄에서 뺌
+        CompletableFuture.delayedExecutor(properties.maxWait().toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (abandon(waiter)) {
+                timeoutRejected.increment();
+                rejectedWait.record(System.nanoTime() - waiter.enqueuedAt, TimeUnit.NANOSECONDS);
+                log.warn("[!] 입장 대기 시간 초과 : {}", waiter.caller.id);
+                waiter.future.completeExceptionally(
+                        new RejectedException("Timed out waiting for a slot", retryAfter(properties.targetWait().toNanos())));
+            }
+        });
+        waiter.future.whenComplete((permit, failure) -> {
+            if (failure != null) {
+                abandon(waiter);
+            }
+        });
+        return waiter.future;
+    }
+
+    public synchronized int queued() {
+        return queued;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private Permit grant(Caller state, long now) {
+        state.inFlight++;
+        inFlight++;
+        return new Permit(state, now);
+    }
+
+    private void release(Permit permit) {
+        long now = System.nanoTime();
+        List<Grant> grants;
+        synchronized (this) {
+            Caller state = permit.caller;
+            state.inFlight--;
+            inFlight--;
+            long elapsed = now - permit.grantedAt;
+            serviceNanos = serviceNanos == 0 ? elapsed : serviceNanos + SERVICE_TIME_ALPHA * (elapsed - serviceNanos);
+            grants = dispatch(now);
+            forgetIfIdle(state);
+        }
+        complete(grants);
+    }
+
+    /**
+     * 줄에서 뺍니다. 이미 입장권을 받은 요청이면 false (완료하지 못한 입장권은 dispatch 쪽에서 돌려줍니다)
+     */
+    private boolean abandon(Waiter waiter) {
+        List<Grant> grants;
+        synchronized (this) {
+            if (!waiter.caller.queue.remove(waiter)) {
+                return false;
+            }
+            queued--;
+            if (waiter.caller.queue.isEmpty()) {
+                backlogged.remove(waiter.caller);
+            }
+            forgetIfIdle(waiter.caller);
+            // 줄 맨 앞이 빠지면 다음 요청이 perCaller 자리에 들어갈 수 있습니다.
+            grants = dispatch(System.nanoTime());
+        }
+        complete(grants);
+        return true;
+    }
+
+    /**
+     * 빈자리만큼 줄 맨 앞 요청을 들여보냅니다. 입장권 전달(future 완료)은 잠금 밖에서 합니다.
+     */
+    private List<Grant> dispatch(long now) {
+        List<Grant> grants = new ArrayList<>();
+        while (inFlight < properties.maxConcurrent()) {
+            Caller next = null;
+            for (Caller candidate : backlogged) {
+                if (candidate.inFlight < properties.perCaller() && (next == null || candidate.startTag < next.startTag)) {
+                    next = candidate;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            Waiter waiter = next.queue.poll();
+            queued--;
+            virtualTime = next.startTag;
+            next.finishTag = next.startTag + 1 / next.weight;
+            if (next.queue.isEmpty()) {
+                backlogged.remove(next);
+            } else {
+                next.startTag = next.finishTag;
+            }
+            admittedWait.record(now - waiter.enqueuedAt, TimeUnit.NANOSECONDS);
+            grants.add(new Grant(waiter, grant(next, now)));
+        }
+        return grants;
+    }
+
+    private static void complete(List<Grant> grants) {
+        for (Grant grant : grants) {
+            if (!grant.waiter.future.complete(grant.permit)) {
+                // 그 사이 시간이 다 됐거나 취소된 요청
+                grant.permit.release();
+            }
+        }
+    }
+
+    private long estimatedWaitNanos(Caller state) {
+        if (serviceNanos == 0) {
+            return 0;
+        }
+        // 전체 줄이 빠지는 시간과 이 호출자 줄이 빠지는 시간 중 긴 쪽
+        double overall = serviceNanos * (queued + 1) / properties.maxConcurrent();
+        double own = serviceNanos * (state.queue.size() + 1) / properties.perCaller();
+        return (long) Math.max(overall, own);
+    }
+
+    private static Duration retryAfter(long estimateNanos) {
+        return Duration.ofSeconds(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(estimateNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+    }
+
+    private void forgetIfIdle(Caller state) {
+        if (state.inFlight == 0 && state.queue.isEmpty()) {
+            callers.remove(state.id);
+        }
+    }
+
+    /**
+     * 입장권. 요청 처리가 끝나면 release 합니다 (여러 번 불러도 한 번만 반영).
+     */
+    public final class Permit {
+        private final Caller caller;
+        private final long grantedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Caller caller, long grantedAt) {
+            this.caller = caller;
+            this.grantedAt = grantedAt;
+        }
+
+        public String getCaller() {
+            return caller.id;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                FairShareAdmission.this.release(this);
+            }
+        }
+    }
+
+    /**
+     * 입장 거절 (429 + Retry-After)
+     */
+    public static class RejectedException extends ResponseStatusException {
+        private final Duration retryAfter;
+
+        public RejectedException(String reason, Duration retryAfter) {
+            super(HttpStatus.TOO_MANY_REQUESTS, reason);
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter.toSeconds()));
+            return headers;
+        }
+    }
+
+    private static final class Caller {
+        private final String id;
+        private final double weight;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private int inFlight;
+        // 줄 맨 앞 요청의 가상 시작 시각 / 마지막으로 들여보낸 요청의 가상 끝 시각
+        private double startTag;
+        private double finishTag;
+
+        private Caller(String id, double weight) {
+            this.id = id;
+            this.weight = weight;
+        }
+    }
+
+    private record Waiter(Caller caller, long enqueuedAt, CompletableFuture<Permit> future) {
+    }
+
+    private record Grant(Waiter waiter, Permit permit) {
+    }
+}
@@ -0,0 +1,10 @@
+package com.npt.fgac.service;
+
+import org.springframework.core.io.Resource;
+
+public interface ImagePreprocessService {
+    /**
+     * 줄인 결과(ProcessedImage)나 원본을 돌려줍니다. ProcessedImage면 다 쓴 뒤 close()로 임시 파일을 지웁니다.
+     */
+    Resource preprocess(Resource image);
+}
@@ -0,0 +1,226 @@
+package com.npt.fgac.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 비전 모델에 보내기 전에 이미지를 줄입니다.
+ * 긴 변을 my.image.max-edge 이하로 줄이고, 메타데이터(EXIF 등) 없이 JPEG(투명도가 있으면 PNG)로 다시 인코딩합니다.
+ * 디코딩/인코딩은 CPU 작업이라 코어 수만큼의 전용 스레드에서만 수행하고, 대기열이 가득 차면 503을 돌려줍니다.
+ * 디코딩 전에 헤더의 가로x세로가 my.image.max-pixels를 넘으면 413을 돌려줍니다. (작은 파일로 거대한 비트맵을 만드는 압축 폭탄 방지)
+ * 결과는 임시 파일(ProcessedImage)로 써서 업로드 스트리밍이 힙을 쓰지 않게 합니다.
+ * 읽을 수 없는 형식이거나 줄여도 이득이 없으면 원본을 그대로 돌려줍니다.
+ */
+@Slf4j
+@Service
+public class ImagePreprocessServiceImpl implements ImagePreprocessService {
+    private final boolean enabled;
+    private final int maxEdge;
+    private final long maxPixels;
+    private final float jpegQuality;
+    private final ThreadPoolExecutor workers;
+
+    public ImagePreprocessServiceImpl(@Value("${my.image.enabled:true}") boolean enabled,
+                                      @Value("${my.image.max-edge:2048}") int maxEdge,
+                                      @Value("${my.image.max-pixels:50000000}") long maxPixels,
+                                      @Value("${my.image.jpeg-quality:0.85}") float jpegQuality,
+                                      @Value("${my.image.workers:0}") int workers,
+                                      @Value("${my.image.queue-size:64}") int queueSize) {
+        this.enabled = enabled;
+        this.maxEdge = maxEdge;
+        this.maxPixels = maxPixels;
+        this.jpegQuality = jpegQuality;
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger sequence = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                task -> {
+                    Thread thread = new Thread(task, "image-preprocess-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public Resource preprocess(Resource image) {
+        if (!enabled) {
+            return image;
+        }
+        Future<Resource> result;
+        try {
+            result = workers.submit(() -> process(image));
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Image preprocessing queue is full");
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while preprocessing image", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ResponseStatusException rejected) {
+                throw rejected;
+            }
+            // 전처리는 최적화일 뿐이므로 실패하면 원본으로 계속 진행합니다.
+            log.warn("[!] 이미지 전처리 실패, 원본을 사용합니다 : {}", image.getFilename(), e.getCause());
+            return image;
+        }
+    }
+
+    Resource process(Resource image) throws IOException {
+        // [STEP1] 헤더만 읽어 크기를 확인하고 디코딩합니다. ImageIO가 모르는 형식(webp 등)이면 원본을 돌려줍니다.
+        int width;
+        int height;
+        BufferedImage decoded;
+        try (InputStream in = image.getInputStream();
+             ImageInputStream input = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return image;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                            "Image is " + width + "x" + height + ", larger than " + maxPixels + " pixels");
+                }
+                // 긴 변이 max-edge의 2배를 넘으면 디코딩할 때부터 건너뛰며 읽어서 비트맵 크기를 줄입니다.
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (2 * maxEdge));
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        // [STEP2] 긴 변이 max-edge를 넘으면 비율을 유지하며 줄입니다.
+        boolean alpha = decoded.getColorModel().hasAlpha();
+        boolean resize = Math.max(width, height) > maxEdge;
+        BufferedImage target = resize(decoded, alpha);
+
+        // [STEP3] 메타데이터 없이 임시 파일에 다시 인코딩합니다.
+        String extension = alpha ? "png" : "jpg";
+        Path output = Files.createTempFile("image-preprocess-", "." + extension);
+        ProcessedImage processed = new ProcessedImage(output, renamed(image.getFilename(), extension));
+        try {
+            try (OutputStream out = Files.newOutputStream(output)) {
+                if (alpha) {
+                    ImageIO.write(target, "png", out);
+                } else {
+                    writeJpeg(target, out);
+                }
+            }
+            long originalSize = image.contentLength();
+            long processedSize = Files.size(output);
+            if (!resize && processedSize >= originalSize) {
+                processed.close();
+                return image;
+            }
+            log.debug("[+] 이미지 전처리 : {}x{} {}B -> {}x{} {}B", width, height, originalSize,
+                    target.getWidth(), target.getHeight(), processedSize);
+            return processed;
+        } catch (IOException | RuntimeException e) {
+            processed.close();
+            throw e;
+        }
+    }
+
+    // 한 번에 크게 줄이면 계단 현상이 생기므로 절반씩 줄이다가 마지막에 목표 크기로 맞춥니다.
+    private BufferedImage resize(BufferedImage source, boolean alpha) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double scale = Math.min(1.0, (double) maxEdge / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        BufferedImage current = source;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = draw(current, width, height, alpha);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    // 원본 색 공간과 상관없이 RGB(A) 이미지로 그려서 JPEG/PNG 인코더가 항상 받을 수 있게 합니다.
+    private static BufferedImage draw(BufferedImage source, int width, int height, boolean alpha) {
+        BufferedImage target = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private void writeJpeg(BufferedImage image, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static String renamed(String filename, String extension) {
+        if (filename == null) {
+            return "image." + extension;
+        }
+        return StringUtils.stripFilenameExtension(filename) + "." + extension;
+    }
+
+    // 대기열 길이, 처리 시간 등을 UpstreamMetrics가 내보냅니다.
+    ThreadPoolExecutor workers() {
+        return workers;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
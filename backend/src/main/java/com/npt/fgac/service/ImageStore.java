@@ -0,0 +1,85 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.ImageMessageContentDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ImageText;
+import com.npt.fgac.dto.ImageUrl;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 업로드한 이미지를 보관하고, 프롬프트에서 참조할 URL을 돌려줍니다.
+ * my.image.store 값으로 구현을 고릅니다. (local : 로컬 디스크, imgur : Imgur 업로드)
+ */
+public interface ImageStore {
+    /**
+     * 이미지를 저장하고 브라우저와 대화 기록에서 사용할 URL을 돌려줍니다.
+     */
+    String save(MultipartFile file);
+
+    /**
+     * 대화 기록에 있는 URL을 OpenAI가 읽을 수 있는 URL로 바꿉니다. 바꿀 필요가 없으면 그대로 돌려줍니다.
+     */
+    String resolve(String imageUrl);
+
+    /**
+     * 이 저장소가 직접 제공하는 이미지 파일을 찾습니다.
+     */
+    Optional<Resource> load(String name);
+
+    /**
+     * 메시지의 image_url 파트를 resolve 결과로 바꾼 복사본을 만듭니다. 원본 메시지는 바꾸지 않습니다.
+     */
+    default List<ChatMessageDto> resolveImages(List<ChatMessageDto> messages) {
+        List<ChatMessageDto> resolved = new ArrayList<>(messages.size());
+        for (ChatMessageDto message : messages) {
+            if (!(message.getContent() instanceof List<?> parts)) {
+                resolved.add(message);
+                continue;
+            }
+            List<Object> resolvedParts = new ArrayList<>(parts.size());
+            for (Object part : parts) {
+                if (part instanceof Map<?, ?> map && "image_url".equals(map.get("type"))
+                        && map.get("image_url") instanceof Map<?, ?> imageUrl && imageUrl.get("url") instanceof String url) {
+                    String target = resolve(url);
+                    if (!target.equals(url)) {
+                        Map<Object, Object> resolvedUrl = new LinkedHashMap<>(imageUrl);
+                        resolvedUrl.put("url", target);
+                        Map<Object, Object> resolvedPart = new LinkedHashMap<>(map);
+                        resolvedPart.put("image_url", resolvedUrl);
+                        part = resolvedPart;
+                    }
+                }
+                resolvedParts.add(part);
+            }
+            resolved.add(new ChatMessageDto(message.getRole(), resolvedParts));
+        }
+        return resolved;
+    }
+
+    /**
+     * 이미지 프롬프트(/prompt/image)의 image_url을 resolve 결과로 바꾼 복사본을 만듭니다.
+     * 캐시 키를 만든 원본 요청은 바꾸지 않습니다.
+     */
+    default ImageMessageDto resolveImages(ImageMessageDto request) {
+        List<ImageMessageContentDto> messages = new ArrayList<>(request.getMessages().size());
+        for (ImageMessageContentDto message : request.getMessages()) {
+            List<ImageText> parts = new ArrayList<>(message.getContent().size());
+            for (ImageText part : message.getContent()) {
+                ImageUrl imageUrl = part.getImageUrl() != null ? new ImageUrl(resolve(part.getImageUrl().getUrl())) : null;
+                parts.add(new ImageText(part.getType(), part.getText(), imageUrl));
+            }
+            messages.add(new ImageMessageContentDto(message.getRole(), parts));
+        }
+        ImageMessageDto resolved = new ImageMessageDto(request.getModel(), messages);
+        resolved.setMaxTokens(request.getMaxTokens());
+        return resolved;
+    }
+}
@@ -0,0 +1,40 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public interface ImageWorkflowService {
+    /**
+     * 이미지 저장과 프롬프트 준비를 함께 시작하고, 저장이 끝나면 onStored로 이미지 URL을 알린 뒤 비전 모델을 호출합니다.
+     * image가 없으면 이미 저장된 imageUrl을 그대로 사용합니다.
+     */
+    CompletableFuture<ChatCompletionResponseDto> promptImage(MultipartFile image, String imageUrl, String text,
+                                                             Deadline deadline, Consumer<String> onStored);
+
+    /**
+     * 이미지 여러 장 / 질문 여러 개를 한 번에 처리합니다.
+     * packed가 false이면 항목마다 따로 호출하고(이미지 N장에 질문 1개면 같은 질문, N개면 짝지어서, 이미지가 없으면 질문마다),
+     * true이면 모든 이미지와 질문을 메시지 하나에 넣어 한 번만 호출합니다. (결과는 index 0 하나)
+     * 항목 하나가 실패해도 나머지는 계속 진행하고, 끝난 순서대로 progress에 알립니다.
+     */
+    CompletableFuture<List<Result>> promptImages(List<MultipartFile> images, List<String> texts, boolean packed,
+                                                 Deadline deadline, Progress progress);
+
+    interface Progress {
+        void stored(int index, String imageUrl);
+
+        void answered(int index, ChatCompletionResponseDto response);
+
+        void failed(int index, Throwable failure);
+    }
+
+    /**
+     * 항목 하나의 결과. 실패했으면 response는 null입니다.
+     */
+    record Result(int index, ChatCompletionResponseDto response, Throwable failure) {
+    }
+}
@@ -0,0 +1,314 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageContentDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ImageText;
+import com.npt.fgac.dto.ImageUrl;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 이미지 + 질문 한 번에 처리하기 (/workflow/image)
+ * 브라우저가 /image 응답을 기다렸다가 /prompt/image를 다시 보내는 대신, 서버에서 단계를 이어서 처리합니다.
+ * [STEP1] 모델 검증은 메모리에 있는 목록만 보므로 저장을 시작하기 전에 끝냅니다. (실패하면 업로드하지 않음)
+ * [STEP2] 이미지 저장(전처리 + 디스크 저장 / Imgur 업로드)을 전용 스레드에서 시작합니다.
+ * [STEP3] 저장을 기다리는 동안 요청 스레드에서 메시지를 만들어 둡니다.
+ * [STEP4] 저장이 끝나면 URL을 먼저 알리고, 캐시에 없으면 OpenAI가 읽을 수 있는 URL로 바꿔서 비전 모델을 호출합니다.
+ * 비전 모델 호출은 저장 스레드가 아닌 호출 전용 스레드(prompt-workers)에서 합니다. (blocking 모드에서도 요청 스레드와 저장 스레드를 잡아두지 않음)
+ * 저장/호출 스레드와 대기열은 my.workflow로 제한하고, 대기열이 가득 차면 503을 돌려줍니다.
+ * 여러 장(/workflow/images)은 모든 이미지를 한꺼번에 저장 스레드에 넣고, 저장이 끝난 항목부터 바로 호출합니다.
+ * 스레드 수만큼만 동시에 저장하므로 한 요청이 많은 이미지를 보내도 업로드 동시 실행 수는 늘지 않습니다.
+ * 돌려준 future를 취소하면(연결 종료 / 시간 초과) 아직 시작하지 않은 저장과 호출은 하지 않습니다.
+ */
+@Slf4j
+@Service
+public class ImageWorkflowServiceImpl implements ImageWorkflowService {
+    private static final String MODEL = "gpt-4o";
+
+    private final ImageStore imageStore;
+    private final ChatGPTService chatGPTService;
+    private final CompletionCache completionCache;
+    private final ModelRegistry modelRegistry;
+    private final PromptBudget promptBudget;
+    private final CallerResolver callerResolver;
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor prompts;
+    private final Executor promptExecutor;
+    private final int maxItems;
+
+    public ImageWorkflowServiceImpl(ImageStore imageStore,
+                                    ChatGPTService chatGPTService,
+                                    CompletionCache completionCache,
+                                    ModelRegistry modelRegistry,
+                                    PromptBudget promptBudget,
+                                    CallerResolver callerResolver,
+                                    @Value("${my.workflow.workers:8}") int workers,
+                                    @Value("${my.workflow.prompt-workers:16}") int promptWorkers,
+                                    @Value("${my.workflow.queue-size:64}") int queueSize,
+                                    @Value("${my.workflow.max-items:10}") int maxItems) {
+        this.imageStore = imageStore;
+        this.chatGPTService = chatGPTService;
+        this.completionCache = completionCache;
+        this.modelRegistry = modelRegistry;
+        this.promptBudget = promptBudget;
+        this.callerResolver = callerResolver;
+        this.maxItems = maxItems;
+        this.workers = pool("image-workflow-", workers, queueSize);
+        this.prompts = pool("image-workflow-prompt-", promptWorkers, queueSize);
+        // 호출 대기열이 가득 차면 그 항목만 503으로 끝납니다.
+        this.promptExecutor = task -> {
+            try {
+                prompts.execute(task);
+            } catch (RejectedExecutionException e) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Image workflow prompt queue is full");
+            }
+        };
+    }
+
+    private static ThreadPoolExecutor pool(String name, int threads, int queueSize) {
+        AtomicInteger sequence = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                task -> {
+                    Thread thread = new Thread(task, name + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResponseDto> promptImage(MultipartFile image, String imageUrl, String text,
+                                                                    Deadline deadline, Consumer<String> onStored) {
+        // [STEP1] 모델 검증
+        modelRegistry.validate(MODEL);
+
+        // [STEP2] 이미지 저장 시작
+        CompletableFuture<String> saved = image != null && !image.isEmpty() ? submit(image)
+                : CompletableFuture.completedFuture(imageUrl);
+        CompletableFuture<String> stored = withDeadline(saved, deadline);
+
+        // [STEP3] 저장 중에 메시지 준비 (URL은 저장이 끝나면 채웁니다)
+        Question question = new Question(List.of(text), 1);
+
+        // [STEP4] 저장 결과 알림 -> 캐시 / 비전 모델 호출 (호출 스레드)
+        CompletableFuture<ChatCompletionResponseDto> answer = stored.thenApply(storedUrl -> {
+            log.debug("[+] 이미지 저장이 끝났습니다 : {}", storedUrl);
+            onStored.accept(storedUrl);
+            return storedUrl;
+        }).thenComposeAsync(storedUrl -> question.ask(List.of(storedUrl), deadline), promptExecutor);
+        return cancelWith(answer, List.of(saved));
+    }
+
+    @Override
+    public CompletableFuture<List<Result>> promptImages(List<MultipartFile> images, List<String> texts, boolean packed,
+                                                        Deadline deadline, Progress progress) {
+        int items = validate(images, texts, packed);
+        modelRegistry.validate(MODEL);
+
+        // 모든 이미지를 한꺼번에 저장 스레드에 넣습니다. (대기열이 가득 차면 그 항목만 503)
+        List<CompletableFuture<String>> saved = new ArrayList<>(images.size());
+        List<CompletableFuture<String>> stored = new ArrayList<>(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            int index = i;
+            CompletableFuture<String> url;
+            try {
+                url = submit(images.get(i));
+            } catch (ResponseStatusException e) {
+                url = CompletableFuture.failedFuture(e);
+            }
+            saved.add(url);
+            stored.add(withDeadline(url, deadline).thenApply(storedUrl -> {
+                progress.stored(index, storedUrl);
+                return storedUrl;
+            }));
+        }
+
+        List<CompletableFuture<ChatCompletionResponseDto>> answers = new ArrayList<>(items);
+        if (packed) {
+            // 이미지가 모두 저장되면 메시지 하나로 호출합니다.
+            Question question = new Question(texts, images.size());
+            answers.add(CompletableFuture.allOf(stored.toArray(CompletableFuture[]::new))
+                    .thenComposeAsync(ignored -> question.ask(stored.stream().map(CompletableFuture::join).toList(), deadline),
+                            promptExecutor));
+        } else if (images.isEmpty()) {
+            // 질문만 있으면 저장 없이 바로 호출 스레드에서 동시에 호출합니다.
+            String caller = callerResolver.current();
+            for (int i = 0; i < items; i++) {
+                answers.add(CompletableFuture.completedFuture(texts.get(i))
+                        .thenComposeAsync(text -> promptText(text, caller, deadline), promptExecutor));
+            }
+        } else {
+            // 저장이 끝난 이미지부터 바로 호출합니다.
+            for (int i = 0; i < items; i++) {
+                Question question = new Question(List.of(texts.get(texts.size() == 1 ? 0 : i)), 1);
+                answers.add(stored.get(i).thenComposeAsync(url -> question.ask(List.of(url), deadline), promptExecutor));
+            }
+        }
+        List<CompletableFuture<Result>> results = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            results.add(track(i, answers.get(i), progress));
+        }
+        CompletableFuture<List<Result>> merged = CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> results.stream().map(CompletableFuture::join).toList());
+        List<CompletableFuture<?>> pending = new ArrayList<>(saved);
+        pending.addAll(answers);
+        return cancelWith(merged, pending);
+    }
+
+    /**
+     * 돌려준 future를 취소하면 그 future를 만든 단계들도 취소합니다. (allOf / thenApply 결과만 취소하면 앞 단계는 그대로 진행됨)
+     * 저장은 대기열에서 빼고, 호출 단계는 아직 시작하지 않았으면 업스트림을 부르지 않습니다.
+     * 이미 보낸 업스트림 호출은 캐시에서 같은 요청을 기다리는 다른 요청과 함께 쓰므로 끝까지 진행합니다.
+     */
+    private static <T> CompletableFuture<T> cancelWith(CompletableFuture<T> result, List<? extends CompletableFuture<?>> stages) {
+        result.whenComplete((ignored, failure) -> {
+            if (result.isCancelled()) {
+                stages.forEach(stage -> stage.cancel(true));
+            }
+        });
+        return result;
+    }
+
+    // 이미지/질문 수가 맞지 않거나 한도를 넘으면 400. 결과 항목 수를 돌려줍니다.
+    private int validate(List<MultipartFile> images, List<String> texts, boolean packed) {
+        if (images.isEmpty() && texts.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Please send at least one image or text");
+        }
+        if (Math.max(images.size(), texts.size()) > maxItems) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many items (max " + maxItems + ")");
+        }
+        if (images.stream().anyMatch(MultipartFile::isEmpty)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty image file");
+        }
+        if (packed) {
+            return 1;
+        }
+        if (!images.isEmpty() && texts.size() != 1 && texts.size() != images.size()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Send one text for all images or one text per image");
+        }
+        return images.isEmpty() ? texts.size() : images.size();
+    }
+
+    // 항목 하나가 끝나면 바로 알리고, 실패해도 다른 항목을 기다릴 수 있도록 Result로 바꿉니다.
+    private static CompletableFuture<Result> track(int index, CompletableFuture<ChatCompletionResponseDto> answer,
+                                                   Progress progress) {
+        return answer.handle((response, failure) -> {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            if (cause == null) {
+                progress.answered(index, response);
+            } else {
+                progress.failed(index, cause);
+            }
+            return new Result(index, response, cause);
+        });
+    }
+
+    private CompletableFuture<ChatCompletionResponseDto> promptText(String text, String caller, Deadline deadline) {
+        CompletionRequestDto completionRequestDto = new CompletionRequestDto(List.of(new ChatMessageDto("user", text)));
+        return completionCache.get(completionRequestDto, () -> {
+            promptBudget.admit(caller, completionRequestDto);
+            return chatGPTService.promptAsync(completionRequestDto, UpstreamScheduler.Priority.INTERACTIVE, deadline);
+        });
+    }
+
+    /**
+     * 질문(텍스트 파트)과 이미지 자리를 미리 만들어 두고, 이미지가 저장되면 URL을 채워서 호출합니다.
+     * 캐시 키는 저장소 경로로 만들고, 업스트림에는 OpenAI가 읽을 수 있는 URL로 바꾼 복사본을 보냅니다. (키를 만든 메시지는 바꾸지 않음)
+     * 토큰 예산은 이미지 크기를 알 수 있는 URL로 바꾼 뒤 검사하고, 호출자는 요청 스레드에서 만들 때 정해 둡니다.
+     */
+    private final class Question {
+        private final ImageMessageDto imageMessageDto;
+        private final List<ImageUrl> imageUrls = new ArrayList<>();
+        private final String caller = callerResolver.current();
+
+        Question(List<String> texts, int images) {
+            List<ImageText> parts = new ArrayList<>(texts.size() + images);
+            for (String text : texts) {
+                parts.add(new ImageText("text", text, null));
+            }
+            for (int i = 0; i < images; i++) {
+                ImageUrl imageUrl = new ImageUrl(null);
+                imageUrls.add(imageUrl);
+                parts.add(new ImageText("image_url", null, imageUrl));
+            }
+            this.imageMessageDto = new ImageMessageDto(MODEL, List.of(new ImageMessageContentDto("user", parts)));
+        }
+
+        CompletableFuture<ChatCompletionResponseDto> ask(List<String> storedUrls, Deadline deadline) {
+            if (deadline.expired()) {
+                return CompletableFuture.failedFuture(deadline.exceeded());
+            }
+            for (int i = 0; i < storedUrls.size(); i++) {
+                imageUrls.get(i).setUrl(storedUrls.get(i));
+            }
+            return completionCache.get(imageMessageDto, () -> {
+                ImageMessageDto upstreamRequest = imageStore.resolveImages(imageMessageDto);
+                promptBudget.admit(caller, upstreamRequest);
+                return chatGPTService.promptImageAsync(upstreamRequest, deadline);
+            });
+        }
+    }
+
+    // 저장 작업을 대기열에 넣습니다. 시작하기 전에 취소되면 대기열에서 빼고, 빼기 전에 꺼내졌으면 저장하지 않고 넘어갑니다.
+    private CompletableFuture<String> submit(MultipartFile image) {
+        CompletableFuture<String> saved = new CompletableFuture<>();
+        Runnable save = () -> {
+            if (saved.isDone()) {
+                return;
+            }
+            try {
+                saved.complete(imageStore.save(image));
+            } catch (Throwable e) {
+                saved.completeExceptionally(e);
+            }
+        };
+        try {
+            workers.execute(save);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Image workflow queue is full");
+        }
+        saved.whenComplete((url, failure) -> {
+            if (saved.isCancelled()) {
+                workers.remove(save);
+            }
+        });
+        return saved;
+    }
+
+    // 마감까지 저장이 끝나지 않으면 504로 끝냅니다. (이미 시작한 저장 작업은 끝까지 진행됩니다)
+    private static CompletableFuture<String> withDeadline(CompletableFuture<String> stored, Deadline deadline) {
+        if (!deadline.isBounded()) {
+            return stored;
+        }
+        return stored.orTimeout(deadline.remaining().toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(e -> CompletableFuture.failedFuture(e instanceof TimeoutException ? deadline.exceeded() : e));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+        prompts.shutdownNow();
+    }
+}
@@ -0,0 +1,34 @@
+package com.npt.fgac.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.Optional;
+
+/**
+ * 이미지를 Imgur에 올리고 Imgur 공개 URL을 그대로 사용합니다.
+ */
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "my.image.store", havingValue = "imgur")
+public class ImgurImageStore implements ImageStore {
+    private final ImgurService imgurService;
+
+    @Override
+    public String save(MultipartFile file) {
+        return imgurService.uploadImage(file);
+    }
+
+    @Override
+    public String resolve(String imageUrl) {
+        return imageUrl;
+    }
+
+    @Override
+    public Optional<Resource> load(String name) {
+        return Optional.empty();
+    }
+}
@@ -1,12 +1,11 @@
 package com.npt.fgac.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.npt.fgac.config.ChatGPTConfig;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
@@ -14,53 +13,82 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+
+/**
+ * 이미지를 Imgur에 업로드합니다.
+ * 업로드 파일을 byte[]로 읽지 않고 MultipartFile의 Resource(임시 파일 / 요청 스트림)를 그대로 multipart 본문에 흘려 보냅니다.
+ * 보내기 전에 ImagePreprocessService로 해상도를 줄이고 메타데이터를 제거합니다.
+ * 크기와 동시 업로드 수는 UploadLimiter로 제한해서 업로드가 몰려도 힙 사용량이 일정하게 유지됩니다.
+ */
 @Slf4j
-@RequiredArgsConstructor
 @Service
+@RequiredArgsConstructor
 public class ImgurServiceImpl implements ImgurService {
     private final ChatGPTConfig chatGPTConfig;
+    private final ImagePreprocessService imagePreprocessService;
+    private final UpstreamMetrics upstreamMetrics;
+    private final UploadLimiter uploadLimiter;
     @Value("${my.api.image}")
     private String clientId;
+    @Value("${my.api.imgur-url}")
+    private String imgurBaseUrl;
 
     public String uploadImage(MultipartFile file) {
+        // [STEP1] 크기 제한 / [STEP2] 동시 업로드 수 제한
+        return uploadLimiter.run(file, () -> {
+            // 전처리로 줄일 수 있는 이미지는 줄인 결과를, 아니면 원본을 그대로 보냅니다.
+            // 업로드 시간과 보낸 크기는 fgac.image.upload 지표로 남깁니다.
+            Resource image = imagePreprocessService.preprocess(file.getResource());
+            try {
+                return upstreamMetrics.imageUpload(contentLength(image), () -> upload(image));
+            } finally {
+                if (image instanceof ProcessedImage processed) {
+                    processed.close();
+                }
+            }
+        });
+    }
+
+    private static long contentLength(Resource image) {
+        try {
+            return image.contentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private String upload(Resource image) {
         String imgurUrl = null;
         try {
             // Imgur API endpoint
-            String url = "https://api.imgur.com/3/image";
+            String url = imgurBaseUrl + "/3/image";
             HttpHeaders headers = new HttpHeaders();
             headers.set("Authorization", "Client-ID " + clientId);
             headers.setContentType(MediaType.MULTIPART_FORM_DATA);
 
-            // Set up MultiValueMap to hold the file
+            // [STEP3] getResource()는 파일명을 유지하고 본문을 쓸 때 스트림을 열어 작은 버퍼로 복사합니다.
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("image", new ByteArrayResource(file.getBytes()) {
-                @Override
-                public String getFilename() {
-                    return file.getOriginalFilename(); // Set filename
-                }
-            });
+            body.add("image", image);
 
             // Set up multipart file request entity
             HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
 
             // Send POST request to Imgur API
+            // 요청 팩토리가 스트리밍 방식이라 multipart 본문은 메모리에 모이지 않고 바로 소켓으로 나갑니다.
             RestTemplate restTemplate = chatGPTConfig.restTemplate();
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
+            ResponseEntity<JsonNode> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, JsonNode.class);
 
             // Check for response status code
-            if (response.getStatusCode() == HttpStatus.OK) {
-                // Parse JSON response to extract image URL
-                ObjectMapper om = new ObjectMapper();
-                JsonNode jsonResponse = om.readTree(response.getBody());
-                JsonNode dataNode = jsonResponse.path("data");
+            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+                JsonNode dataNode = response.getBody().path("data");
                 imgurUrl = dataNode.path("link").asText();
             } else {
                 // Handle non-OK response status
                 throw new RuntimeException("Failed to upload image: " + response.getStatusCode());
             }
         } catch (Exception e) {
-            // Handle exceptions
-            e.printStackTrace();
+            log.error("[!] 이미지 업로드 실패 : {}", image.getFilename(), e);
             throw new RuntimeException("Error occurred while uploading image", e);
         }
         return imgurUrl;
@@ -0,0 +1,77 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 메모리 대화 저장소 (my.conversation.store=memory)
+ * 가장 오래 사용되지 않은 대화부터 지워서 my.conversation.max-conversations 개수를 넘지 않게 합니다.
+ * 재시작하면 기록이 사라지므로 디스크에 남기려면 LogConversationStore를 사용합니다.
+ */
+@Component
+@ConditionalOnProperty(name = "my.conversation.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryConversationStore implements ConversationStore {
+    private final Map<String, List<ChatMessageDto>> conversations;
+
+    public InMemoryConversationStore(@Value("${my.conversation.max-conversations:10000}") int maxConversations) {
+        this.conversations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<ChatMessageDto>> eldest) {
+                return size() > maxConversations;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void append(String conversationId, ChatMessageDto message) {
+        conversations.computeIfAbsent(conversationId, id -> new ArrayList<>()).add(message);
+    }
+
+    @Override
+    public synchronized void appendIfSize(String conversationId, int expectedSize, ChatMessageDto message) {
+        if (size(conversationId) != expectedSize) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Conversation history is out of sync");
+        }
+        append(conversationId, message);
+    }
+
+    @Override
+    public synchronized void replace(String conversationId, List<ChatMessageDto> messages) {
+        conversations.put(conversationId, new ArrayList<>(messages));
+    }
+
+    @Override
+    public synchronized List<ChatMessageDto> messages(String conversationId) {
+        List<ChatMessageDto> messages = conversations.get(conversationId);
+        return messages == null ? List.of() : List.copyOf(messages);
+    }
+
+    @Override
+    public synchronized List<ChatMessageDto> messages(String conversationId, int offset, int limit) {
+        List<ChatMessageDto> messages = conversations.get(conversationId);
+        if (messages == null || offset >= messages.size() || limit <= 0) {
+            return List.of();
+        }
+        return List.copyOf(messages.subList(offset, (int) Math.min(messages.size(), (long) offset + limit)));
+    }
+
+    @Override
+    public synchronized int size(String conversationId) {
+        List<ChatMessageDto> messages = conversations.get(conversationId);
+        return messages == null ? 0 : messages.size();
+    }
+
+    @Override
+    public synchronized void delete(String conversationId) {
+        conversations.remove(conversationId);
+    }
+}
@@ -0,0 +1,38 @@
+package com.npt.fgac.service;
+
+import java.util.Arrays;
+
+/**
+ * 최근 응답 시간 표본 (헤징 지연 계산용)
+ * 마지막 capacity개만 링 버퍼에 두고, 백분위가 필요할 때 복사해서 정렬합니다. (표본이 작아서 정렬 비용은 무시할 만합니다)
+ */
+final class LatencyTracker {
+    private final long[] samples;
+    private final int minSamples;
+    private int next;
+    private int size;
+
+    LatencyTracker(int capacity, int minSamples) {
+        this.samples = new long[capacity];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+    }
+
+    /**
+     * 표본이 minSamples보다 적으면 -1
+     */
+    synchronized long percentile(double percentile) {
+        if (size < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+}
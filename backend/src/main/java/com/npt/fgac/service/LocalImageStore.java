@@ -0,0 +1,190 @@
+package com.npt.fgac.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * 이미지를 로컬 디스크에 SHA-256(원본 바이트) 이름으로 저장합니다.
+ * 같은 사진을 다시 올리면 해시만 계산하고 전처리와 저장은 건너뜁니다.
+ * Imgur 업로드와 같은 UploadLimiter(크기, 동시 실행 수 제한)를 거칩니다.
+ * 브라우저에는 /api/v1/chatGpt/images/{파일명} 경로를 돌려주고, OpenAI에 보낼 때는
+ * data URL(base64)로 넣거나(my.image.local.serve=data-url) 공개 주소를 붙여서(public-url) 보냅니다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "my.image.store", havingValue = "local", matchIfMissing = true)
+public class LocalImageStore implements ImageStore {
+    public static final String URL_PREFIX = "/api/v1/chatGpt/images/";
+    private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9]+");
+
+    private final ImagePreprocessService imagePreprocessService;
+    private final UploadLimiter uploadLimiter;
+    private final Path directory;
+    private final boolean inlineDataUrl;
+    private final String publicUrl;
+
+    public LocalImageStore(ImagePreprocessService imagePreprocessService,
+                           UploadLimiter uploadLimiter,
+                           @Value("${my.image.local.dir:./data/images}") Path directory,
+                           @Value("${my.image.local.serve:data-url}") String serve,
+                           @Value("${my.image.local.public-url:}") String publicUrl) {
+        this.imagePreprocessService = imagePreprocessService;
+        this.uploadLimiter = uploadLimiter;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.inlineDataUrl = !"public-url".equals(serve);
+        this.publicUrl = StringUtils.trimTrailingCharacter(publicUrl, '/');
+        if (!inlineDataUrl && this.publicUrl.isEmpty()) {
+            throw new IllegalStateException("my.image.local.public-url is required when my.image.local.serve=public-url");
+        }
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String save(MultipartFile file) {
+        return uploadLimiter.run(file, () -> store(file));
+    }
+
+    private String store(MultipartFile file) {
+        Path upload = null;
+        try {
+            // [STEP1] 업로드를 임시 파일로 옮기면서 SHA-256을 계산합니다.
+            upload = Files.createTempFile(directory, "upload-", ".tmp");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+                 OutputStream out = Files.newOutputStream(upload)) {
+                in.transferTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+
+            // [STEP2] 이미 저장된 이미지면 그대로 돌려줍니다.
+            Optional<Path> existing = find(hash);
+            if (existing.isPresent()) {
+                log.debug("[+] 이미 저장된 이미지입니다 : {}", existing.get().getFileName());
+                return URL_PREFIX + existing.get().getFileName();
+            }
+
+            // [STEP3] 전처리한 결과를 {hash}.{확장자}로 저장합니다. 임시 파일에 쓴 뒤 이름만 바꿔서 반쯤 쓴 파일이 보이지 않게 합니다.
+            // 같은 이미지가 동시에 올라와도 내용이 같으므로 나중 것이 덮어써도 괜찮습니다.
+            String originalName = file.getOriginalFilename();
+            Resource original = new FileSystemResource(upload) {
+                @Override
+                public String getFilename() {
+                    return originalName;
+                }
+            };
+            Resource image = imagePreprocessService.preprocess(original);
+            String name = hash + "." + extension(image.getFilename());
+            Path stored = directory.resolve(name);
+            if (image == original) {
+                Files.move(upload, stored, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                // 전처리 결과는 다른 파일 시스템(임시 디렉터리)에 있을 수 있으므로 저장 디렉터리에 복사한 뒤 이름을 바꿉니다.
+                Path processed = Files.createTempFile(directory, "processed-", ".tmp");
+                try (InputStream in = image.getInputStream()) {
+                    Files.copy(in, processed, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    if (image instanceof ProcessedImage processedImage) {
+                        processedImage.close();
+                    }
+                }
+                Files.move(processed, stored, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return URL_PREFIX + name;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deleteQuietly(upload);
+        }
+    }
+
+    @Override
+    public String resolve(String imageUrl) {
+        if (imageUrl == null || !imageUrl.startsWith(URL_PREFIX)) {
+            return imageUrl;
+        }
+        if (!inlineDataUrl) {
+            return publicUrl + imageUrl;
+        }
+        String name = imageUrl.substring(URL_PREFIX.length());
+        Path path = load(name).map(resource -> directory.resolve(name))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown image: " + name));
+        try {
+            String mediaType = MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+            return "data:" + mediaType + ";base64," + Base64.getEncoder().encodeToString(Files.readAllBytes(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<Resource> load(String name) {
+        // 파일 이름 형식을 검사해서 저장 디렉터리 밖의 경로는 열 수 없게 합니다.
+        if (name == null || !FILE_NAME.matcher(name).matches()) {
+            return Optional.empty();
+        }
+        Path path = directory.resolve(name);
+        return Files.isRegularFile(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    private Optional<Path> find(String hash) {
+        try (DirectoryStream<Path> matches = Files.newDirectoryStream(directory, hash + ".*")) {
+            for (Path match : matches) {
+                return Optional.of(match);
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String extension(String filename) {
+        String extension = StringUtils.getFilenameExtension(filename);
+        if (extension == null || !extension.matches("[A-Za-z0-9]{1,5}")) {
+            return "bin";
+        }
+        return extension.toLowerCase();
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("[!] 임시 파일 삭제 실패 : {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.npt.fgac.dto.ChatMessageDto;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * 디스크 append-only 로그 대화 저장소 (my.conversation.store=log)
+ * [STEP1] 추가 / 교체 / 삭제를 기록 하나로 세그먼트 파일(00000001.log ..) 끝에 씁니다.
+ *         기록 = [본문 길이][CRC32C][종류][대화 ID][메시지 수][메시지 JSON]
+ *         세그먼트가 my.conversation.log.segment-size를 넘으면 다음 세그먼트로 넘어갑니다.
+ * [STEP2] 메모리에는 대화 ID별로 기록 위치(세그먼트 + 오프셋)와 메시지 수만 두고, 최근에 쓴 대화는 풀어 둔 메시지도 캐시합니다.
+ *         캐시에 없는 대화는 기록 위치에서 바로 읽고, 페이지 조회는 필요한 기록만 읽습니다.
+ * [STEP3] 시작할 때 세그먼트를 순서대로 읽어서 위치 인덱스를 다시 만듭니다. (메시지 JSON은 풀지 않고 CRC만 확인)
+ *         쓰다가 죽어서 끝이 잘렸거나 CRC가 맞지 않는 기록이 나오면 그 앞까지만 남기고 잘라냅니다.
+ * [STEP4] 쓰기는 운영체제 페이지 캐시까지만 바로 하고, 디스크 강제 쓰기(fsync)는 sync-interval마다 몰아서 합니다. (0이면 기록마다)
+ * [STEP5] 교체/삭제로 살아 있는 기록 비율이 compact-threshold 아래로 내려간 세그먼트는 백그라운드에서 정리합니다.
+ *         그 세그먼트에 기록이 있는 살아 있는 대화는 전체를 교체 기록 하나로 끝에 다시 쓰고, 필요한 삭제 기록도 다시 쓴 뒤 파일을 지웁니다.
+ * [STEP6] 대화 수가 my.conversation.log.max-conversations를 넘거나 retention 동안 쓰지 않은 대화는 가장 오래 쓰지 않은 것부터
+ *         삭제 기록을 써서 지웁니다. (sync-interval마다) 지운 대화의 기록은 STEP5 정리에서 디스크 공간을 돌려받습니다.
+ *         재시작한 뒤에는 그 대화의 기록이 있는 세그먼트 중 가장 늦게 수정된 파일의 수정 시각을 마지막으로 쓴 시각으로 봅니다.
+ * 디렉터리는 프로세스 하나만 쓸 수 있도록 LOCK 파일을 잠급니다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "my.conversation.store", havingValue = "log")
+public class LogConversationStore implements ConversationStore {
+    private static final byte APPEND = 1;
+    private static final byte REPLACE = 2;
+    private static final byte DELETE = 3;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int OFFSET_BITS = 40;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{8})\\.log");
+    private static final Set<Path> OPEN_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    private final ObjectWriter messagesWriter;
+    private final ObjectReader messagesReader;
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean syncEachRecord;
+    private final double compactThreshold;
+    private final int maxConversations;
+    private final long retentionMillis;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ScheduledExecutorService background;
+
+    // 아래 상태는 모두 this로 잠근 상태에서만 읽고 바꿉니다. (정리 작업이 봉인된 세그먼트를 읽는 것만 예외)
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // 가장 오래 쓰지 않은 대화가 앞에 오도록, 쓰거나 읽을 때 맨 뒤로 옮깁니다.
+    private final LinkedHashMap<String, Index> index = new LinkedHashMap<>();
+    private final Cache<String, List<ChatMessageDto>> decoded;
+    private Segment active;
+    private boolean unsynced;
+    private boolean closed;
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+        // 인덱스가 가리키는 기록 바이트 수
+        long liveBytes;
+
+        Segment(int id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 대화 하나의 기록 위치 목록. 교체 기록으로 시작하면 그보다 오래된 기록은 다시 읽을 때 무시됩니다.
+     */
+    private static final class Index {
+        long[] positions = new long[4];
+        int[] counts = new int[4];
+        int[] bytes = new int[4];
+        int records;
+        int size;
+        long lastUsed;
+        final boolean startsWithReplace;
+
+        Index(boolean startsWithReplace) {
+            this.startsWithReplace = startsWithReplace;
+        }
+
+        void add(long position, int count, int recordBytes) {
+            if (records == positions.length) {
+                positions = Arrays.copyOf(positions, records * 2);
+                counts = Arrays.copyOf(counts, records * 2);
+                bytes = Arrays.copyOf(bytes, records * 2);
+            }
+            positions[records] = position;
+            counts[records] = count;
+            bytes[records] = recordBytes;
+            records++;
+            size += count;
+        }
+
+        boolean references(int segmentId) {
+            for (int i = 0; i < records; i++) {
+                if (segmentOf(positions[i]) == segmentId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // 기록 헤더 (메시지 JSON은 필요할 때만 풉니다)
+    private record Header(byte type, String conversationId, int count, int recordBytes) {
+    }
+
+    public LogConversationStore(ObjectMapper objectMapper,
+                                @Value("${my.conversation.log.dir:./data/conversations}") Path directory,
+                                @Value("${my.conversation.log.segment-size:64MB}") DataSize segmentSize,
+                                @Value("${my.conversation.log.sync-interval:1s}") Duration syncInterval,
+                                @Value("${my.conversation.log.compact-threshold:0.5}") double compactThreshold,
+                                @Value("${my.conversation.log.max-conversations:100000}") int maxConversations,
+                                @Value("${my.conversation.log.retention:30d}") Duration retention,
+                                @Value("${my.conversation.max-conversations:10000}") int cachedConversations) {
+        this.messagesWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, ChatMessageDto.class));
+        this.messagesReader = objectMapper.readerForListOf(ChatMessageDto.class);
+        this.directory = directory.toAbsolutePath().normalize();
+        this.segmentSize = segmentSize.toBytes();
+        this.syncEachRecord = syncInterval.isZero();
+        this.compactThreshold = compactThreshold;
+        this.maxConversations = maxConversations;
+        this.retentionMillis = retention.toMillis();
+        this.decoded = Caffeine.newBuilder().maximumSize(cachedConversations).build();
+        // 같은 JVM 안에서는 파일 잠금이 겹치면 예외가 나고, 채널을 닫으면 다른 채널의 잠금까지 풀릴 수 있어서 먼저 걸러냅니다.
+        if (!OPEN_DIRECTORIES.add(this.directory)) {
+            throw new IllegalStateException("Conversation log is already in use: " + this.directory);
+        }
+        try {
+            Files.createDirectories(this.directory);
+            this.lockChannel = FileChannel.open(this.directory.resolve("LOCK"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.lock = tryLock(lockChannel);
+            recover();
+        } catch (IOException e) {
+            OPEN_DIRECTORIES.remove(this.directory);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            OPEN_DIRECTORIES.remove(this.directory);
+            throw e;
+        }
+        this.background = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "conversation-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = syncEachRecord ? 1000 : syncInterval.toMillis();
+        background.scheduleWithFixedDelay(this::maintain, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // 다른 프로세스가 잡고 있으면 실패합니다.
+    private FileLock tryLock(FileChannel channel) throws IOException {
+        FileLock fileLock = channel.tryLock();
+        if (fileLock == null) {
+            channel.close();
+            throw new IllegalStateException("Conversation log is already in use: " + directory);
+        }
+        return fileLock;
+    }
+
+    @Override
+    public void append(String conversationId, ChatMessageDto message) {
+        // JSON 직렬화는 잠그기 전에 합니다.
+        ByteBuffer record = encode(APPEND, conversationId, List.of(message));
+        synchronized (this) {
+            write(record);
+            used(conversationId);
+            decoded.asMap().computeIfPresent(conversationId, (id, messages) -> {
+                messages.add(message);
+                return messages;
+            });
+        }
+    }
+
+    @Override
+    public void appendIfSize(String conversationId, int expectedSize, ChatMessageDto message) {
+        ByteBuffer record = encode(APPEND, conversationId, List.of(message));
+        synchronized (this) {
+            if (size(conversationId) != expectedSize) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Conversation history is out of sync");
+            }
+            write(record);
+            used(conversationId);
+            decoded.asMap().computeIfPresent(conversationId, (id, messages) -> {
+                messages.add(message);
+                return messages;
+            });
+        }
+    }
+
+    @Override
+    public void replace(String conversationId, List<ChatMessageDto> messages) {
+        ByteBuffer record = encode(REPLACE, conversationId, messages);
+        synchronized (this) {
+            write(record);
+            used(conversationId);
+            decoded.put(conversationId, new ArrayList<>(messages));
+        }
+    }
+
+    @Override
+    public void delete(String conversationId) {
+        ByteBuffer record = encode(DELETE, conversationId, List.of());
+        synchronized (this) {
+            if (!index.containsKey(conversationId)) {
+                return;
+            }
+            write(record);
+            decoded.invalidate(conversationId);
+        }
+    }
+
+    @Override
+    public synchronized List<ChatMessageDto> messages(String conversationId) {
+        Index entry = index.get(conversationId);
+        if (entry == null) {
+            return List.of();
+        }
+        used(conversationId);
+        List<ChatMessageDto> messages = decoded.get(conversationId, id -> read(entry, 0, entry.size));
+        return List.copyOf(messages);
+    }
+
+    @Override
+    public synchronized List<ChatMessageDto> messages(String conversationId, int offset, int limit) {
+        Index entry = index.get(conversationId);
+        if (entry == null || offset >= entry.size || limit <= 0) {
+            return List.of();
+        }
+        used(conversationId);
+        int end = (int) Math.min(entry.size, (long) offset + limit);
+        List<ChatMessageDto> cached = decoded.getIfPresent(conversationId);
+        if (cached != null) {
+            return List.copyOf(cached.subList(offset, end));
+        }
+        return read(entry, offset, end);
+    }
+
+    @Override
+    public synchronized int size(String conversationId) {
+        Index entry = index.get(conversationId);
+        return entry == null ? 0 : entry.size;
+    }
+
+    // 마지막으로 쓴 시각을 기록하고 지울 순서의 맨 뒤로 옮깁니다.
+    private void used(String conversationId) {
+        Index entry = index.remove(conversationId);
+        if (entry != null) {
+            entry.lastUsed = System.currentTimeMillis();
+            index.put(conversationId, entry);
+        }
+    }
+
+    // [offset, end) 범위의 메시지가 들어 있는 기록만 읽습니다.
+    private List<ChatMessageDto> read(Index entry, int offset, int end) {
+        List<ChatMessageDto> messages = new ArrayList<>(end - offset);
+        int first = 0;
+        for (int i = 0; i < entry.records && first < end; i++) {
+            int count = entry.counts[i];
+            if (first + count > offset) {
+                List<ChatMessageDto> recordMessages = readMessages(entry.positions[i], entry.bytes[i]);
+                int from = Math.max(0, offset - first);
+                int to = Math.min(count, end - first);
+                messages.addAll(recordMessages.subList(from, to));
+            }
+            first += count;
+        }
+        return messages;
+    }
+
+    private List<ChatMessageDto> readMessages(long position, int recordBytes) {
+        Segment segment = segments.get(segmentOf(position));
+        ByteBuffer buffer = ByteBuffer.allocate(recordBytes);
+        try {
+            readFully(segment.channel, buffer, offsetOf(position));
+            buffer.position(FRAME_HEADER_BYTES + 1);
+            int idLength = Short.toUnsignedInt(buffer.getShort());
+            buffer.position(buffer.position() + idLength + 4);
+            return messagesReader.readValue(buffer.array(), buffer.position(), buffer.remaining());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer encode(byte type, String conversationId, List<ChatMessageDto> messages) {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > 0xFFFF) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Conversation id is too long");
+        }
+        byte[] json;
+        try {
+            json = type == DELETE ? new byte[0] : messagesWriter.writeValueAsBytes(messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int bodyLength = 1 + 2 + id.length + 4 + json.length;
+        if (bodyLength > MAX_RECORD_BYTES) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Conversation record is too large");
+        }
+        ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER_BYTES + bodyLength);
+        record.putInt(bodyLength).putInt(0)
+                .put(type).putShort((short) id.length).put(id).putInt(messages.size()).put(json);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), FRAME_HEADER_BYTES, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        return record.flip();
+    }
+
+    // this로 잠근 상태에서 부릅니다.
+    private void write(ByteBuffer record) {
+        int recordBytes = record.remaining();
+        try {
+            if (active.size > 0 && active.size + recordBytes > segmentSize) {
+                roll();
+            }
+            long offset = active.size;
+            while (record.hasRemaining()) {
+                active.channel.write(record, offset + record.position());
+            }
+            active.size += recordBytes;
+            if (syncEachRecord) {
+                active.channel.force(false);
+            } else {
+                unsynced = true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        record.rewind();
+        // 쓴 시각은 부른 쪽이 used()로 정합니다. (정리로 다시 쓴 기록은 사용이 아님)
+        apply(header(record, recordBytes), position(active.id, active.size - recordBytes), Long.MIN_VALUE);
+    }
+
+    private void roll() throws IOException {
+        active.channel.force(false);
+        unsynced = false;
+        active = openSegment(active.id + 1);
+        segments.put(active.id, active);
+        log.debug("[+] 대화 로그 세그먼트 추가 : {}", active.path.getFileName());
+    }
+
+    // 마지막으로 쓴 시각은 이전 시각과 usedAt 중 늦은 쪽입니다. (복구할 때는 기록이 있는 세그먼트의 수정 시각)
+    private void apply(Header header, long position, long usedAt) {
+        Segment segment = segments.get(segmentOf(position));
+        Index entry = index.get(header.conversationId());
+        if (header.type() == APPEND) {
+            if (entry == null) {
+                entry = new Index(false);
+                entry.lastUsed = usedAt;
+                index.put(header.conversationId(), entry);
+            }
+            entry.lastUsed = Math.max(entry.lastUsed, usedAt);
+            entry.add(position, header.count(), header.recordBytes());
+            segment.liveBytes += header.recordBytes();
+            return;
+        }
+        if (entry != null) {
+            release(entry);
+        }
+        if (header.type() == REPLACE) {
+            Index replaced = new Index(true);
+            replaced.add(position, header.count(), header.recordBytes());
+            replaced.lastUsed = entry != null ? Math.max(entry.lastUsed, usedAt) : usedAt;
+            index.put(header.conversationId(), replaced);
+            segment.liveBytes += header.recordBytes();
+        } else {
+            index.remove(header.conversationId());
+        }
+    }
+
+    // 대화의 기록이 모두 죽은 기록이 되었으므로 세그먼트별 살아 있는 바이트 수에서 뺍니다.
+    private void release(Index entry) {
+        for (int i = 0; i < entry.records; i++) {
+            Segment segment = segments.get(segmentOf(entry.positions[i]));
+            if (segment != null) {
+                segment.liveBytes -= entry.bytes[i];
+            }
+        }
+    }
+
+    private static Header header(ByteBuffer record, int recordBytes) {
+        record.position(FRAME_HEADER_BYTES);
+        byte type = record.get();
+        byte[] id = new byte[Short.toUnsignedInt(record.getShort())];
+        record.get(id);
+        int count = record.getInt();
+        return new Header(type, new String(id, StandardCharsets.UTF_8), count, recordBytes);
+    }
+
+    /**
+     * 세그먼트를 순서대로 읽어서 인덱스를 다시 만들고, 손상된 꼬리는 잘라냅니다.
+     */
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        ids.sort(null);
+        long started = System.nanoTime();
+        long records = 0;
+        for (int id : ids) {
+            Segment segment = openSegment(id);
+            segments.put(id, segment);
+            records += replay(segment);
+        }
+        active = segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+        segments.put(active.id, active);
+        log.debug("[+] 대화 로그 복구 : 세그먼트 {}개, 기록 {}개, 대화 {}개 ({}ms)", segments.size(), records, index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private long replay(Segment segment) throws IOException {
+        long fileSize = segment.channel.size();
+        long position = 0;
+        long records = 0;
+        long modified = Files.getLastModifiedTime(segment.path).toMillis();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(segment.channel.position(0)), 1 << 16));
+        CRC32C crc = new CRC32C();
+        while (position + FRAME_HEADER_BYTES <= fileSize) {
+            int bodyLength = in.readInt();
+            int checksum = in.readInt();
+            if (bodyLength < 7 || bodyLength > MAX_RECORD_BYTES || position + FRAME_HEADER_BYTES + bodyLength > fileSize) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER_BYTES + bodyLength);
+            record.putInt(bodyLength).putInt(checksum);
+            try {
+                in.readFully(record.array(), FRAME_HEADER_BYTES, bodyLength);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(record.array(), FRAME_HEADER_BYTES, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            int recordBytes = FRAME_HEADER_BYTES + bodyLength;
+            Header header = header(record, recordBytes);
+            apply(header, position(segment.id, position), modified);
+            // 로그 순서가 쓴 순서이므로 기록이 나올 때마다 맨 뒤로 옮깁니다.
+            Index entry = index.remove(header.conversationId());
+            if (entry != null) {
+                index.put(header.conversationId(), entry);
+            }
+            position += recordBytes;
+            records++;
+        }
+        if (position < fileSize) {
+            log.warn("[!] 대화 로그 손상 : {} {}바이트 뒤를 잘라냅니다 ({}바이트)", segment.path.getFileName(), position,
+                    fileSize - position);
+            segment.channel.truncate(position);
+            segment.channel.force(true);
+        }
+        segment.size = position;
+        return records;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%08d.log", id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel);
+        segment.size = channel.size();
+        return segment;
+    }
+
+    // sync-interval마다 : 보관 한도를 넘은 대화 삭제, 밀린 fsync, 정리할 세그먼트가 있으면 정리
+    private void maintain() {
+        try {
+            synchronized (this) {
+                evict();
+                if (unsynced) {
+                    active.channel.force(false);
+                    unsynced = false;
+                }
+            }
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.warn("[!] 대화 로그 유지 작업 실패 : {}", e.toString());
+        }
+    }
+
+    /**
+     * 가장 오래 쓰지 않은 대화부터, 대화 수가 max-conversations를 넘었거나 retention 동안 쓰지 않았으면 삭제 기록을 씁니다.
+     * 둘 다 0이면 지우지 않습니다. 지운 대화 수를 돌려줍니다.
+     */
+    synchronized int evict() {
+        long idleBefore = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+        int evicted = 0;
+        while (!index.isEmpty()) {
+            Map.Entry<String, Index> eldest = index.entrySet().iterator().next();
+            boolean overLimit = maxConversations > 0 && index.size() > maxConversations;
+            if (!overLimit && eldest.getValue().lastUsed >= idleBefore) {
+                break;
+            }
+            String conversationId = eldest.getKey();
+            write(encode(DELETE, conversationId, List.of()));
+            decoded.invalidate(conversationId);
+            evicted++;
+        }
+        if (evicted > 0) {
+            log.debug("[+] 대화 로그 보관 한도 : 대화 {}개 삭제, 남은 대화 {}개", evicted, index.size());
+        }
+        return evicted;
+    }
+
+    /**
+     * 살아 있는 기록 비율이 낮은 봉인된 세그먼트를 오래된 것부터 정리합니다.
+     */
+    void compact() throws IOException {
+        // 정리하면서 새로 봉인된 세그먼트는 다음 차례에 봅니다.
+        int lastSealed;
+        synchronized (this) {
+            lastSealed = active.id - 1;
+        }
+        while (true) {
+            Segment candidate = null;
+            boolean oldest = false;
+            synchronized (this) {
+                for (Segment segment : segments.headMap(lastSealed, true).values()) {
+                    if (segment.size == 0 || segment.liveBytes < segment.size * compactThreshold) {
+                        candidate = segment;
+                        oldest = segment.id == segments.firstKey();
+                        break;
+                    }
+                }
+            }
+            if (candidate == null) {
+                return;
+            }
+            compact(candidate, oldest);
+        }
+    }
+
+    private void compact(Segment segment, boolean oldest) throws IOException {
+        // 봉인된 세그먼트는 바뀌지 않으므로 잠그지 않고 읽습니다.
+        Set<String> conversations = new HashSet<>();
+        Set<String> deleted = new HashSet<>();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + 3);
+        ByteBuffer id = ByteBuffer.allocate(0xFFFF);
+        for (long position = 0; position < segment.size; ) {
+            frame.clear();
+            readFully(segment.channel, frame, position);
+            int bodyLength = frame.getInt(0);
+            byte type = frame.get(FRAME_HEADER_BYTES);
+            int idLength = Short.toUnsignedInt(frame.getShort(FRAME_HEADER_BYTES + 1));
+            id.clear().limit(idLength);
+            readFully(segment.channel, id, position + FRAME_HEADER_BYTES + 3);
+            String conversationId = new String(id.array(), 0, idLength, StandardCharsets.UTF_8);
+            conversations.add(conversationId);
+            if (type == DELETE) {
+                deleted.add(conversationId);
+            }
+            position += FRAME_HEADER_BYTES + bodyLength;
+        }
+
+        int rewritten = 0;
+        for (String conversationId : conversations) {
+            synchronized (this) {
+                Index entry = index.get(conversationId);
+                if (entry != null) {
+                    // 살아 있는 대화 : 이 세그먼트를 가리키거나, 여기 있는 삭제 기록 뒤에 새로 시작한 대화면 전체를 교체 기록으로 다시 씁니다.
+                    boolean restarted = deleted.contains(conversationId) && !entry.startsWithReplace && !oldest;
+                    if (entry.references(segment.id) || restarted) {
+                        List<ChatMessageDto> messages = decoded.get(conversationId, key -> read(entry, 0, entry.size));
+                        write(encode(REPLACE, conversationId, messages));
+                        rewritten++;
+                    }
+                } else if (deleted.contains(conversationId) && !oldest) {
+                    // 더 오래된 세그먼트에 남은 기록이 되살아나지 않도록 삭제 기록을 옮깁니다.
+                    write(encode(DELETE, conversationId, List.of()));
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (unsynced) {
+                active.channel.force(false);
+                unsynced = false;
+            }
+            segments.remove(segment.id);
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+        log.debug("[+] 대화 로그 정리 : {} 삭제, 대화 {}개 다시 씀", segment.path.getFileName(), rewritten);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of conversation log");
+            }
+        }
+    }
+
+    private static long position(int segmentId, long offset) {
+        return ((long) segmentId << OFFSET_BITS) | offset;
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position >>> OFFSET_BITS);
+    }
+
+    private static long offsetOf(long position) {
+        return position & ((1L << OFFSET_BITS) - 1);
+    }
+
+    @PreDestroy
+    public void close() {
+        background.shutdownNow();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                for (Segment segment : segments.values()) {
+                    if (segment == active) {
+                        segment.channel.force(false);
+                    }
+                    segment.channel.close();
+                }
+                lock.release();
+                lockChannel.close();
+            } catch (IOException e) {
+                log.warn("[!] 대화 로그를 닫지 못했습니다 : {}", e.toString());
+            } finally {
+                OPEN_DIRECTORIES.remove(directory);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.config.ChatGPTConfig;
+import com.npt.fgac.dto.ModelDto;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 모델 목록 레지스트리
+ * 시작할 때 /v1/models를 한 번 불러오고 이후에는 백그라운드에서 주기적으로 갱신합니다.
+ * /modelList와 모델 이름 검증은 메모리에 있는 목록만 보므로 네트워크 왕복이 없습니다.
+ * 갱신에 실패하면 마지막으로 받은 목록을 계속 사용합니다.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class ModelRegistry {
+    private final ChatGPTConfig chatGPTConfig;
+    private final ChatGPTResponseReader responseReader;
+    @Value("${my.api.openai-url}")
+    private String openAiUrl;
+    @Value("${my.models.refresh-interval:1h}")
+    private Duration refreshInterval;
+
+    private volatile Catalog catalog = Catalog.EMPTY;
+    private final AtomicBoolean directLoadTried = new AtomicBoolean();
+
+    private record Catalog(List<ModelDto> models, Set<String> ids, String etag, Instant refreshedAt) {
+        static final Catalog EMPTY = new Catalog(List.of(), Set.of(), null, null);
+    }
+
+    public List<ModelDto> models() {
+        // 시작 직후 첫 갱신이 끝나기 전에 들어온 요청이면 한 번만 직접 불러옵니다.
+        // 그 한 번이 실패하면 refreshIfDue가 다시 받아올 때까지 빈 목록을 돌려줍니다. (업스트림 장애 중 요청마다 왕복하지 않음)
+        if (catalog.refreshedAt() == null && directLoadTried.compareAndSet(false, true)) {
+            refresh();
+        }
+        return catalog.models();
+    }
+
+    /**
+     * 아직 목록을 한 번도 받지 못했다면 검증하지 않고 통과시킵니다.
+     */
+    public boolean isKnownModel(String model) {
+        Catalog current = catalog;
+        return current.refreshedAt() == null || current.ids().contains(model);
+    }
+
+    public void validate(String model) {
+        if (!isKnownModel(model)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown model: " + model);
+        }
+    }
+
+    /**
+     * my.models.retry-interval 간격으로 깨어나서 갱신 주기가 지났을 때만 업스트림을 호출합니다.
+     * 실패하면 다음 깨어날 때 다시 시도하므로 장애가 풀리면 금방 최신 목록으로 돌아옵니다.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${my.models.retry-interval:PT1M}")
+    public void refreshIfDue() {
+        Catalog current = catalog;
+        if (current.refreshedAt() != null && Instant.now().isBefore(current.refreshedAt().plus(refreshInterval))) {
+            return;
+        }
+        refresh();
+    }
+
+    public void refresh() {
+        Catalog current = catalog;
+        try {
+            // [STEP1] 이전에 받은 ETag가 있으면 조건부 요청으로 보냅니다.
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(chatGPTConfig.httpHeaders());
+            if (current.etag() != null) {
+                headers.setIfNoneMatch(current.etag());
+            }
+
+            // [STEP2] 304면 목록은 그대로 두고 갱신 시각만 바꿉니다.
+            RestTemplate restTemplate = chatGPTConfig.restTemplate();
+            Catalog refreshed = restTemplate.execute(
+                    openAiUrl + "/v1/models",
+                    HttpMethod.GET,
+                    restTemplate.httpEntityCallback(new HttpEntity<>(headers)),
+                    response -> {
+                        if (response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+                            return new Catalog(current.models(), current.ids(), current.etag(), Instant.now());
+                        }
+                        List<ModelDto> models = List.copyOf(responseReader.readModels(response));
+                        Set<String> ids = models.stream().map(ModelDto::id).collect(Collectors.toUnmodifiableSet());
+                        return new Catalog(models, ids, response.getHeaders().getETag(), Instant.now());
+                    });
+            catalog = refreshed;
+            log.debug("[+] 모델 목록을 갱신했습니다. ({}개)", refreshed.models().size());
+        } catch (RuntimeException e) {
+            log.warn("[!] 모델 목록 갱신 실패, 이전 목록({}개)을 계속 사용합니다 : {}", current.models().size(), e.getMessage());
+        }
+    }
+}
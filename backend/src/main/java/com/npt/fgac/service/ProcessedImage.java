@@ -0,0 +1,36 @@
+package com.npt.fgac.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 전처리한 이미지 (임시 파일)
+ * 힙에 올리지 않고 디스크에서 바로 흘려 보낼 수 있습니다. 다 쓰고 나면 close()로 지웁니다.
+ */
+@Slf4j
+public class ProcessedImage extends FileSystemResource implements AutoCloseable {
+    private final String filename;
+
+    ProcessedImage(Path path, String filename) {
+        super(path);
+        this.filename = filename;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(getFile().toPath());
+        } catch (IOException e) {
+            log.warn("[!] 전처리 임시 파일 삭제 실패 : {}", getPath(), e);
+        }
+    }
+}
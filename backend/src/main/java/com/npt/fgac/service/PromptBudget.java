@@ -0,0 +1,161 @@
+package com.npt.fgac.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.npt.fgac.config.TokenProperties;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 업스트림 호출 전 토큰 예산 검사
+ * [STEP1] TokenCounter로 입력 토큰 수를 셉니다.
+ * [STEP2] 입력 + 최소 출력(my.tokens.min-output)이 모델 컨텍스트 창을 넘으면 업스트림에 보내지 않고 400을 돌려줍니다.
+ * [STEP3] 호출자별 분당 토큰 버킷(my.tokens.user)에서 입력 + 예상 출력 토큰을 꺼내고, 모자라면 Retry-After와 함께 429를 돌려줍니다.
+ * [STEP4] max_tokens를 모델 최대 출력과 컨텍스트 창의 남은 양 중 작은 값으로 채웁니다.
+ * 캐시에 있는 응답은 업스트림을 부르지 않으므로 캐시 loader 안에서 부르면 예산을 쓰지 않습니다.
+ */
+@Slf4j
+@Component
+public class PromptBudget {
+    private final TokenProperties tokenProperties;
+    private final TokenCounter tokenCounter;
+    private final CallerResolver callerResolver;
+    private final int completionTokenEstimate;
+    // 호출자별 토큰 버킷. 한동안 요청이 없는 호출자는 버킷이 가득 찬 상태와 같으므로 지워도 됩니다.
+    private final Cache<String, UpstreamTarget.TokenBucket> buckets;
+    private final DistributionSummary promptTokens;
+    private final Counter contextRejected;
+    private final Counter budgetRejected;
+
+    public PromptBudget(TokenProperties tokenProperties,
+                        TokenCounter tokenCounter,
+                        CallerResolver callerResolver,
+                        MeterRegistry meterRegistry,
+                        @Value("${my.ratelimit.completion-token-estimate:256}") int completionTokenEstimate) {
+        this.tokenProperties = tokenProperties;
+        this.tokenCounter = tokenCounter;
+        this.callerResolver = callerResolver;
+        this.completionTokenEstimate = completionTokenEstimate;
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(tokenProperties.user().burst().plusMinutes(1))
+                .maximumSize(100_000)
+                .build();
+        this.promptTokens = DistributionSummary.builder("fgac.tokens.prompt")
+                .description("Prompt tokens counted before dispatch")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+        this.contextRejected = Counter.builder("fgac.tokens.rejected").tag("reason", "context_window")
+                .description("Requests rejected before dispatch by the token budget")
+                .register(meterRegistry);
+        this.budgetRejected = Counter.builder("fgac.tokens.rejected").tag("reason", "caller_budget")
+                .description("Requests rejected before dispatch by the token budget")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 현재 요청의 호출자로 검사합니다. 입력 토큰 수를 돌려줍니다.
+     */
+    public int admit(Object request) {
+        return admit(callerResolver.current(), request);
+    }
+
+    /**
+     * caller가 null이면(요청 밖에서 부르는 경우) 호출자별 한도는 검사하지 않습니다.
+     */
+    public int admit(String caller, Object request) {
+        if (!tokenProperties.enabled()) {
+            return 0;
+        }
+        // [STEP1] 입력 토큰
+        int prompt = tokenCounter.count(request);
+        promptTokens.record(prompt);
+
+        // [STEP2] 컨텍스트 창
+        TokenProperties.Limit limit = tokenProperties.limit(model(request));
+        int available = limit.contextWindow() - prompt;
+        if (available < tokenProperties.minOutput()) {
+            contextRejected.increment();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Prompt is too long: " + prompt
+                    + " tokens (context window " + limit.contextWindow() + ")");
+        }
+        int maxTokens = Math.min(limit.maxOutput(), available);
+
+        // [STEP3] 호출자별 분당 토큰
+        int perMinute = tokenProperties.user().tokensPerMinute();
+        if (caller != null && perMinute > 0) {
+            take(caller, perMinute, prompt + Math.min(maxTokens, completionTokenEstimate));
+        }
+
+        // [STEP4] max_tokens
+        if (request instanceof CompletionRequestDto completionRequestDto) {
+            completionRequestDto.setMaxTokens(maxTokens);
+        } else if (request instanceof ImageMessageDto imageMessageDto) {
+            imageMessageDto.setMaxTokens(maxTokens);
+        }
+        log.debug("[+] 토큰 예산 : 입력 {}, max_tokens {}", prompt, maxTokens);
+        return prompt;
+    }
+
+    private void take(String caller, int perMinute, int tokens) {
+        UpstreamTarget.TokenBucket bucket = buckets.get(caller,
+                key -> new UpstreamTarget.TokenBucket(perMinute, tokenProperties.user().burst()));
+        long waitNanos;
+        synchronized (bucket) {
+            bucket.refill(System.nanoTime(), 1.0);
+            waitNanos = bucket.nanosUntil(tokens, 1.0);
+            if (waitNanos == 0) {
+                bucket.take(tokens);
+                return;
+            }
+        }
+        budgetRejected.increment();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        log.warn("[!] 호출자 토큰 한도 초과 : {} ({} tokens, {}초 뒤 다시 시도)", caller, tokens, retryAfterSeconds);
+        throw new BudgetExceededException(Duration.ofSeconds(retryAfterSeconds));
+    }
+
+    private static String model(Object request) {
+        if (request instanceof CompletionRequestDto completionRequestDto) {
+            return completionRequestDto.getModel();
+        }
+        if (request instanceof ImageMessageDto imageMessageDto) {
+            return imageMessageDto.getModel();
+        }
+        return null;
+    }
+
+    /**
+     * 호출자 토큰 한도 초과 (429 + Retry-After)
+     */
+    public static class BudgetExceededException extends ResponseStatusException {
+        private final Duration retryAfter;
+
+        public BudgetExceededException(Duration retryAfter) {
+            super(HttpStatus.TOO_MANY_REQUESTS, "Token budget exceeded");
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter.toSeconds()));
+            return headers;
+        }
+    }
+}
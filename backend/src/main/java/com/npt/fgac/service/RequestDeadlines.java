@@ -0,0 +1,55 @@
+package com.npt.fgac.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+
+/**
+ * 엔드포인트별 마감 시간
+ * 클라이언트가 X-Request-Timeout 헤더("30s", "1500"(ms), "PT30S")를 보내면 그 값을, 없으면 엔드포인트 기본값을 사용합니다.
+ * 어떤 경우에도 my.deadline.max를 넘지 않습니다.
+ */
+@Component
+public class RequestDeadlines {
+    public static final String HEADER = "X-Request-Timeout";
+
+    @Value("${my.deadline.prompt:60s}")
+    private Duration prompt;
+    @Value("${my.deadline.image:90s}")
+    private Duration image;
+    @Value("${my.deadline.conversation:60s}")
+    private Duration conversation;
+    @Value("${my.deadline.max:120s}")
+    private Duration max;
+
+    public Deadline prompt(String header) {
+        return resolve(header, prompt);
+    }
+
+    public Deadline image(String header) {
+        return resolve(header, image);
+    }
+
+    public Deadline conversation(String header) {
+        return resolve(header, conversation);
+    }
+
+    private Deadline resolve(String header, Duration fallback) {
+        Duration timeout = fallback;
+        if (header != null && !header.isBlank()) {
+            try {
+                timeout = DurationStyle.detectAndParse(header.trim());
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid " + HEADER + ": " + header);
+            }
+            if (timeout.isZero() || timeout.isNegative()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid " + HEADER + ": " + header);
+            }
+        }
+        return Deadline.after(timeout.compareTo(max) > 0 ? max : timeout);
+    }
+}
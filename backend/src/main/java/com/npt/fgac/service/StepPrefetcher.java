@@ -0,0 +1,284 @@
+package com.npt.fgac.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.npt.fgac.config.PrefetchProperties;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 안내 단계 다음 질문 미리 호출하기 (/conversations/{conversationId}/prompt)
+ * 화면은 단계(1~7)마다 정해진 질문을 보내므로, N단계 답이 나가면 N+1단계 질문을 미리 알 수 있습니다.
+ * [STEP1] 답을 보낸 질문이 단계 질문(my.prefetch.steps)이면 다음 단계 질문을 같은 이미지로 만들어 대화 끝에 붙였을 때의 요청을 만듭니다. (기록에는 넣지 않음)
+ * [STEP2] 이미 캐시에 있거나, 동시 미리 호출 수(max-in-flight)나 분당 토큰(tokens-per-minute)을 넘으면 건너뜁니다.
+ * [STEP3] BACKGROUND 우선순위로 호출해서 대화별로 ttl 동안 들고 있습니다. (사용자 요청이 먼저 업스트림을 씁니다)
+ * [STEP4] 같은 대화에 다음 요청이 오면 미리 만든 요청과 같은지(CompletionCache 키) 비교해서, 같으면 그 결과를 쓰고 다르면 취소합니다.
+ * 대화를 교체/삭제하거나 ttl이 지나도 취소합니다.
+ */
+@Slf4j
+@Component
+public class StepPrefetcher {
+    private final PrefetchProperties properties;
+    private final ConversationService conversationService;
+    private final CompletionCache completionCache;
+    private final ImageStore imageStore;
+    private final PromptBudget promptBudget;
+    private final ChatGPTService chatGPTService;
+    private final MeterRegistry meterRegistry;
+    private final int completionTokenEstimate;
+    private final Cache<String, Speculation> speculations;
+    private final UpstreamTarget.TokenBucket budget;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ThreadPoolExecutor workers;
+
+    public StepPrefetcher(PrefetchProperties properties,
+                          ConversationService conversationService,
+                          CompletionCache completionCache,
+                          ImageStore imageStore,
+                          PromptBudget promptBudget,
+                          ChatGPTService chatGPTService,
+                          MeterRegistry meterRegistry,
+                          @Value("${my.ratelimit.completion-token-estimate:256}") int completionTokenEstimate) {
+        this.properties = properties;
+        this.conversationService = conversationService;
+        this.completionCache = completionCache;
+        this.imageStore = imageStore;
+        this.promptBudget = promptBudget;
+        this.chatGPTService = chatGPTService;
+        this.meterRegistry = meterRegistry;
+        this.completionTokenEstimate = completionTokenEstimate;
+        // ttl이 지나면 요청이 없어도 지우고 취소하도록 scheduler를 붙입니다.
+        this.speculations = Caffeine.newBuilder()
+                .expireAfterWrite(properties.ttl())
+                .maximumSize(properties.maxConversations())
+                .scheduler(Scheduler.systemScheduler())
+                .removalListener((String conversationId, Speculation speculation, RemovalCause cause) -> {
+                    if (speculation != null && cause.wasEvicted() && speculation.result.cancel(true)) {
+                        count("expired");
+                    }
+                })
+                .build();
+        this.budget = new UpstreamTarget.TokenBucket(Math.max(1, properties.tokensPerMinute()), Duration.ofMinutes(1));
+        int threads = Math.max(1, properties.maxInFlight());
+        AtomicInteger sequence = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads),
+                task -> {
+                    Thread thread = new Thread(task, "step-prefetch-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * question에 대한 답을 기록에 남긴 뒤 부릅니다. 다음 단계 질문이 있으면 백그라운드에서 미리 호출합니다.
+     */
+    public void answered(String conversationId, ChatMessageDto question) {
+        if (!properties.enabled()) {
+            return;
+        }
+        int step = properties.stepOf(text(question));
+        if (step < 0 || step + 1 >= properties.steps().size()) {
+            return;
+        }
+        if (inFlight.incrementAndGet() > properties.maxInFlight()) {
+            inFlight.decrementAndGet();
+            count("skipped_busy");
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    speculate(conversationId, nextStep(question, properties.steps().get(step + 1)));
+                } catch (RuntimeException e) {
+                    log.warn("[!] 다음 단계 미리 호출 실패 : {} ({})", conversationId, e.getMessage());
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            count("skipped_busy");
+        }
+    }
+
+    /**
+     * 미리 호출한 결과를 꺼냅니다. request가 미리 만든 요청과 같을 때만 돌려주고, 다르면 취소하고 null을 돌려줍니다.
+     * 꺼낸 결과는 대화에서 지워지므로 한 번만 쓸 수 있습니다.
+     */
+    public CompletableFuture<ChatCompletionResponseDto> claim(String conversationId, CompletionRequestDto request) {
+        Speculation speculation = speculations.asMap().remove(conversationId);
+        if (speculation == null) {
+            return null;
+        }
+        // [STEP4] 같은 요청이면 사용, 다르면 취소
+        if (speculation.key.equals(completionCache.key(request)) && !speculation.result.isCompletedExceptionally()) {
+            count("hit");
+            log.debug("[+] 미리 호출한 다음 단계 결과 사용 : {} (완료 {})", conversationId, speculation.result.isDone());
+            return speculation.result;
+        }
+        // 이미 끝난 호출은 버리기만 합니다.
+        speculation.result.cancel(true);
+        count("diverged");
+        log.debug("[+] 다음 단계와 다른 질문이라 미리 호출 버림 : {}", conversationId);
+        return null;
+    }
+
+    /**
+     * 대화 기록이 바뀌거나 지워지면 미리 호출한 결과도 버립니다.
+     */
+    public void discard(String conversationId) {
+        Speculation speculation = speculations.asMap().remove(conversationId);
+        if (speculation != null) {
+            speculation.result.cancel(true);
+            count("diverged");
+        }
+    }
+
+    private void speculate(String conversationId, ChatMessageDto next) {
+        // [STEP1] 다음 단계 질문을 붙였을 때의 요청
+        List<ChatMessageDto> context = conversationService.preview(conversationId, next);
+        CompletionRequestDto request = new CompletionRequestDto(context);
+        String key = completionCache.key(request);
+
+        // [STEP2] 건너뛰기
+        if (completionCache.contains(key)) {
+            inFlight.decrementAndGet();
+            count("skipped_cached");
+            return;
+        }
+        CompletionRequestDto upstreamRequest = new CompletionRequestDto(imageStore.resolveImages(context));
+        int tokens;
+        try {
+            // 컨텍스트 창 검사와 max_tokens만 채우고, 호출자 토큰 한도는 쓰지 않습니다.
+            tokens = promptBudget.admit(null, upstreamRequest)
+                    + Math.min(upstreamRequest.getMaxTokens() != null ? upstreamRequest.getMaxTokens() : completionTokenEstimate,
+                    completionTokenEstimate);
+        } catch (ResponseStatusException e) {
+            inFlight.decrementAndGet();
+            count("skipped_budget");
+            return;
+        }
+        if (!take(tokens)) {
+            inFlight.decrementAndGet();
+            count("skipped_budget");
+            log.debug("[+] 미리 호출 토큰 한도 초과로 건너뜀 : {} ({} tokens)", conversationId, tokens);
+            return;
+        }
+
+        // [STEP3] 백그라운드 호출 (blocking 모드에서는 이 스레드에서 응답을 기다립니다)
+        Speculation speculation = new Speculation(key, new CompletableFuture<>());
+        speculation.result.whenComplete((response, failure) -> inFlight.decrementAndGet());
+        Speculation previous = speculations.asMap().put(conversationId, speculation);
+        if (previous != null) {
+            previous.result.cancel(true);
+        }
+        count("started");
+        log.debug("[+] 다음 단계 미리 호출 : {} ({} tokens)", conversationId, tokens);
+        CompletableFuture<ChatCompletionResponseDto> call;
+        try {
+            call = chatGPTService.promptAsync(upstreamRequest, UpstreamScheduler.Priority.BACKGROUND,
+                    Deadline.after(properties.ttl()));
+        } catch (RuntimeException e) {
+            speculation.result.completeExceptionally(e);
+            speculations.asMap().remove(conversationId, speculation);
+            return;
+        }
+        // 취소되면 업스트림 호출도 끊습니다. (async 모드)
+        speculation.result.whenComplete((response, failure) -> {
+            if (speculation.result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        call.whenComplete((response, failure) -> {
+            if (failure != null) {
+                speculation.result.completeExceptionally(failure);
+                speculations.asMap().remove(conversationId, speculation);
+            } else {
+                speculation.result.complete(response);
+            }
+        });
+    }
+
+    private boolean take(int tokens) {
+        if (properties.tokensPerMinute() <= 0) {
+            return true;
+        }
+        synchronized (budget) {
+            budget.refill(System.nanoTime(), 1.0);
+            if (budget.nanosUntil(tokens, 1.0) > 0) {
+                return false;
+            }
+            budget.take(tokens);
+            return true;
+        }
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("fgac.prefetch", "outcome", outcome).increment();
+    }
+
+    // 질문의 텍스트 (content가 파트 목록이면 첫 text 파트)
+    private static String text(ChatMessageDto message) {
+        if (message.getContent() instanceof String text) {
+            return text;
+        }
+        if (message.getContent() instanceof List<?> parts) {
+            for (Object part : parts) {
+                if (part instanceof Map<?, ?> map && "text".equals(map.get("type")) && map.get("text") instanceof String text) {
+                    return text;
+                }
+            }
+        }
+        return null;
+    }
+
+    // 화면이 다음 단계에서 보낼 질문 : 텍스트만 다음 단계 질문으로 바꾸고 이미지 파트는 그대로 둡니다.
+    private static ChatMessageDto nextStep(ChatMessageDto question, String nextText) {
+        if (!(question.getContent() instanceof List<?> parts)) {
+            return new ChatMessageDto(question.getRole(), nextText);
+        }
+        List<Object> nextParts = new ArrayList<>(parts.size());
+        boolean replaced = false;
+        for (Object part : parts) {
+            if (!replaced && part instanceof Map<?, ?> map && "text".equals(map.get("type"))) {
+                Map<Object, Object> textPart = new LinkedHashMap<>(map);
+                textPart.put("text", nextText);
+                nextParts.add(textPart);
+                replaced = true;
+            } else {
+                nextParts.add(part);
+            }
+        }
+        return new ChatMessageDto(question.getRole(), nextParts);
+    }
+
+    @PreDestroy
+    public void close() {
+        speculations.asMap().values().forEach(speculation -> speculation.result.cancel(true));
+        workers.shutdownNow();
+    }
+
+    private record Speculation(String key, CompletableFuture<ChatCompletionResponseDto> result) {
+    }
+}
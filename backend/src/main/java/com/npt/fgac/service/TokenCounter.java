@@ -0,0 +1,216 @@
+package com.npt.fgac.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.npt.fgac.config.TokenProperties;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageContentDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ImageText;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 프롬프트 토큰 수 계산
+ * [STEP1] 텍스트는 모델의 BPE 인코딩(gpt-4o 계열 o200k_base, gpt-4 / gpt-3.5 계열 cl100k_base)으로 셉니다.
+ *         같은 텍스트(대화 기록의 이전 턴 등)는 다시 세지 않도록 결과를 텍스트 길이로 무게를 매긴 Caffeine 캐시에 둡니다.
+ * [STEP2] 메시지마다 3토큰(역할, 구분자), 응답 시작에 3토큰을 더합니다. (OpenAI 계산 방식)
+ * [STEP3] 이미지는 data: URL이면 헤더만 읽어서 크기를 구하고 OpenAI 타일 공식(85 + 512px 타일당 170)으로 계산합니다.
+ *         크기를 알 수 없는 외부 URL은 1024x1024 high detail 기준(765)으로 잡고, detail=low는 85입니다.
+ */
+@Component
+public class TokenCounter {
+    static final int MESSAGE_OVERHEAD_TOKENS = 3;
+    static final int REPLY_PRIMING_TOKENS = 3;
+    // 이미지 한 장의 대략적인 토큰 비용 (크기를 모를 때, 1024x1024 detail=high 기준)
+    static final int IMAGE_TOKENS = 765;
+    static final int LOW_DETAIL_IMAGE_TOKENS = 85;
+    private static final int TILE_TOKENS = 170;
+    // 짧은 텍스트는 캐시 조회보다 바로 세는 편이 빠릅니다.
+    private static final int CACHE_MIN_LENGTH = 256;
+    // 이미지 크기는 파일 앞부분(헤더)에 있으므로 data: URL은 앞쪽만 디코딩합니다.
+    private static final int IMAGE_HEADER_CHARS = 64 * 1024;
+
+    private final EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+    private final Cache<Key, Integer> counts;
+
+    private record Key(EncodingType encoding, String text) {
+    }
+
+    @Autowired
+    public TokenCounter(TokenProperties tokenProperties) {
+        this(tokenProperties.countCache());
+    }
+
+    TokenCounter(DataSize countCache) {
+        this.counts = Caffeine.newBuilder()
+                .maximumWeight(countCache.toBytes())
+                .weigher((Key key, Integer count) -> 2 * key.text().length())
+                .build();
+    }
+
+    /**
+     * 요청 본문(CompletionRequestDto, ImageMessageDto)의 입력 토큰 수
+     */
+    public int count(Object request) {
+        if (request instanceof CompletionRequestDto completionRequestDto) {
+            return count(completionRequestDto.getModel(), completionRequestDto.getMessages());
+        }
+        if (request instanceof ImageMessageDto imageMessageDto && imageMessageDto.getMessages() != null) {
+            EncodingType encoding = encoding(imageMessageDto.getModel());
+            int tokens = REPLY_PRIMING_TOKENS;
+            for (ImageMessageContentDto message : imageMessageDto.getMessages()) {
+                tokens += MESSAGE_OVERHEAD_TOKENS + text(encoding, message.getRole());
+                if (message.getContent() == null) {
+                    continue;
+                }
+                for (ImageText part : message.getContent()) {
+                    tokens += part.getImageUrl() != null ? imageTokens(part.getImageUrl().getUrl(), null)
+                            : text(encoding, part.getText());
+                }
+            }
+            return tokens;
+        }
+        return 0;
+    }
+
+    public int count(String model, List<ChatMessageDto> messages) {
+        if (messages == null) {
+            return 0;
+        }
+        EncodingType encoding = encoding(model);
+        int tokens = REPLY_PRIMING_TOKENS;
+        for (ChatMessageDto message : messages) {
+            tokens += count(encoding, message);
+        }
+        return tokens;
+    }
+
+    /**
+     * 메시지 하나의 토큰 수 (응답 시작 토큰은 빼고)
+     */
+    public int count(String model, ChatMessageDto message) {
+        return count(encoding(model), message);
+    }
+
+    private int count(EncodingType encoding, ChatMessageDto message) {
+        int tokens = MESSAGE_OVERHEAD_TOKENS + text(encoding, message.getRole());
+        Object content = message.getContent();
+        if (content instanceof String text) {
+            tokens += text(encoding, text);
+        } else if (content instanceof List<?> parts) {
+            // OpenAI content 파트 : {"type":"text","text":..} / {"type":"image_url","image_url":{"url":..,"detail":..}}
+            for (Object part : parts) {
+                if (!(part instanceof Map<?, ?> map)) {
+                    continue;
+                }
+                if (map.get("image_url") instanceof Map<?, ?> imageUrl && imageUrl.get("url") instanceof String url) {
+                    tokens += imageTokens(url, imageUrl.get("detail") instanceof String detail ? detail : null);
+                } else if (map.get("text") instanceof String text) {
+                    tokens += text(encoding, text);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private int text(EncodingType encoding, String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        if (text.length() < CACHE_MIN_LENGTH) {
+            return registry.getEncoding(encoding).countTokensOrdinary(text);
+        }
+        return counts.get(new Key(encoding, text), key -> registry.getEncoding(key.encoding()).countTokensOrdinary(key.text()));
+    }
+
+    // gpt-4o, o1 등 최신 모델은 o200k_base, gpt-4 / gpt-3.5 계열은 cl100k_base. 모르는 모델은 o200k_base로 셉니다.
+    static EncodingType encoding(String model) {
+        if (model != null && (model.startsWith("gpt-4") || model.startsWith("gpt-3.5")) && !model.startsWith("gpt-4o")) {
+            return EncodingType.CL100K_BASE;
+        }
+        return EncodingType.O200K_BASE;
+    }
+
+    /**
+     * detail=low는 85토큰, 그 밖에는 2048x2048 안으로 줄이고 짧은 변을 768로 맞춘 뒤 512px 타일당 170 + 85
+     */
+    static int imageTokens(String url, String detail) {
+        if ("low".equals(detail)) {
+            return LOW_DETAIL_IMAGE_TOKENS;
+        }
+        int[] size = dataUrlSize(url);
+        if (size == null) {
+            return IMAGE_TOKENS;
+        }
+        return imageTokens(size[0], size[1]);
+    }
+
+    static int imageTokens(int width, int height) {
+        double w = width;
+        double h = height;
+        if (Math.max(w, h) > 2048) {
+            double scale = 2048 / Math.max(w, h);
+            w *= scale;
+            h *= scale;
+        }
+        if (Math.min(w, h) > 768) {
+            double scale = 768 / Math.min(w, h);
+            w *= scale;
+            h *= scale;
+        }
+        int tiles = (int) (Math.ceil(w / 512) * Math.ceil(h / 512));
+        return LOW_DETAIL_IMAGE_TOKENS + TILE_TOKENS * tiles;
+    }
+
+    // data:image/..;base64,.. 이면 헤더에서 가로/세로 크기를 읽습니다. 읽지 못하면 null
+    private static int[] dataUrlSize(String url) {
+        if (url == null || !url.startsWith("data:")) {
+            return null;
+        }
+        int comma = url.indexOf(',');
+        if (comma < 0 || !url.substring(0, comma).endsWith(";base64")) {
+            return null;
+        }
+        int end = Math.min(url.length(), comma + 1 + IMAGE_HEADER_CHARS);
+        // base64는 4글자 단위로 끊어야 디코딩됩니다.
+        end -= (end - comma - 1) % 4;
+        byte[] header;
+        try {
+            header = Base64.getDecoder().decode(url.substring(comma + 1, end));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(header))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
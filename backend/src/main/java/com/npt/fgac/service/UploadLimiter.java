@@ -0,0 +1,60 @@
+package com.npt.fgac.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 이미지 업로드 크기와 동시 실행 수 제한 (my.upload)
+ * 저장소(local / imgur)와 상관없이 모든 업로드가 이 경로를 지납니다.
+ * 동시에 진행되는 업로드 수를 세마포어로 제한해서 업로드가 몰려도 힙과 임시 파일 사용량이 일정하게 유지됩니다.
+ */
+@Component
+public class UploadLimiter {
+    private final long maxUploadBytes;
+    private final Duration uploadWait;
+    private final Semaphore uploadPermits;
+
+    public UploadLimiter(@Value("${my.upload.max-size:5MB}") DataSize maxUploadSize,
+                         @Value("${my.upload.max-concurrent:8}") int maxConcurrentUploads,
+                         @Value("${my.upload.wait:10s}") Duration uploadWait) {
+        this.maxUploadBytes = maxUploadSize.toBytes();
+        this.uploadWait = uploadWait;
+        this.uploadPermits = new Semaphore(maxConcurrentUploads, true);
+    }
+
+    public <T> T run(MultipartFile file, Supplier<T> upload) {
+        // [STEP1] 크기 제한을 넘으면 업로드를 시작하지 않습니다.
+        if (file.getSize() > maxUploadBytes) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Image exceeds " + DataSize.ofBytes(maxUploadBytes).toKilobytes() + "KB");
+        }
+
+        // [STEP2] 진행 중인 업로드가 가득 차 있으면 잠시 기다리고, 그래도 자리가 없으면 503으로 돌려보냅니다.
+        if (!acquirePermit()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent uploads");
+        }
+        try {
+            return upload.get();
+        } finally {
+            uploadPermits.release();
+        }
+    }
+
+    private boolean acquirePermit() {
+        try {
+            return uploadPermits.tryAcquire(uploadWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 외부 API 호출 지표와 트레이스 (/actuator/prometheus)
+ * [STEP1] 업스트림 호출 하나하나를 Observation(fgac.upstream)으로 감싸서 endpoint, model, target, outcome별 응답 시간과 스팬을 남깁니다.
+ * [STEP2] 응답 헤더가 올 때까지의 시간(TTFB), 요청/응답 크기, 응답 usage의 토큰 수를 기록합니다.
+ * [STEP3] 스케줄러 대기열, 업스트림별 진행 중인 호출 수 / 브레이커 상태 / 실패·재시도 횟수, 완성 캐시, 이미지 전처리 스레드 풀을 게이지와 카운터로 내보냅니다.
+ * model 태그는 클라이언트가 보낸 값이라 처음 보인 MAX_MODEL_TAGS개만 그대로 쓰고 나머지는 other로 묶습니다.
+ */
+@Component
+public class UpstreamMetrics {
+    private static final int MAX_MODEL_TAGS = 32;
+
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final Set<String> modelTags = ConcurrentHashMap.newKeySet();
+
+    public UpstreamMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry,
+                           UpstreamScheduler upstreamScheduler, CompletionCache completionCache,
+                           ImagePreprocessService imagePreprocessService) {
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+
+        Gauge.builder("fgac.upstream.queue", upstreamScheduler, UpstreamScheduler::queued)
+                .description("Upstream calls waiting for a rate limit slot")
+                .register(meterRegistry);
+        FunctionCounter.builder("fgac.upstream.hedges", upstreamScheduler.hedges, LongAdder::sum)
+                .description("Hedged upstream calls sent")
+                .register(meterRegistry);
+        for (UpstreamTarget target : upstreamScheduler.targets()) {
+            Tags tags = Tags.of("target", target.name());
+            Gauge.builder("fgac.upstream.in.flight", target, UpstreamTarget::inFlight)
+                    .tags(tags).register(meterRegistry);
+            // 0 : CLOSED, 1 : OPEN, 2 : HALF_OPEN
+            Gauge.builder("fgac.upstream.breaker.state", target, value -> value.state().ordinal())
+                    .tags(tags).register(meterRegistry);
+            FunctionCounter.builder("fgac.upstream.failures", target.failures, LongAdder::sum)
+                    .description("5xx and connection failures").tags(tags).register(meterRegistry);
+            FunctionCounter.builder("fgac.upstream.rate.limited", target.rateLimited, LongAdder::sum)
+                    .description("429 responses").tags(tags).register(meterRegistry);
+            FunctionCounter.builder("fgac.upstream.retries", target.retries, LongAdder::sum)
+                    .description("Calls retried after failing on this target").tags(tags).register(meterRegistry);
+        }
+        CaffeineCacheMetrics.monitor(meterRegistry, completionCache.cache(), "completions");
+        if (imagePreprocessService instanceof ImagePreprocessServiceImpl preprocessService) {
+            new ExecutorServiceMetrics(preprocessService.workers(), "image.preprocess", Tags.empty()).bindTo(meterRegistry);
+        }
+    }
+
+    /**
+     * 동기 호출 : 호출하는 스레드에서 스팬을 열어 두므로 RestTemplate의 http.client.requests 스팬이 그 아래에 붙습니다.
+     */
+    public <T> T observe(String endpoint, String model, UpstreamTarget target, Supplier<T> call) {
+        Observation observation = start(null, endpoint, model, target);
+        T result;
+        try (Observation.Scope scope = observation.openScope()) {
+            result = call.get();
+        } catch (RuntimeException e) {
+            stop(observation, model, null, e);
+            throw e;
+        }
+        stop(observation, model, result, null);
+        return result;
+    }
+
+    /**
+     * 비동기 호출 : 응답이 오면 기록합니다. 헤징이 취소할 수 있도록 call이 돌려준 future를 그대로 돌려줍니다.
+     * 스케줄러 스레드에서 시작되므로 요청 스레드에서 잡아 둔 parent 아래에 스팬을 만듭니다.
+     */
+    public <T> CompletableFuture<T> observeAsync(Observation parent, String endpoint, String model, UpstreamTarget target,
+                                                 Supplier<CompletableFuture<T>> call) {
+        Observation observation = start(parent, endpoint, model, target);
+        CompletableFuture<T> result;
+        try (Observation.Scope scope = observation.openScope()) {
+            result = call.get();
+        } catch (RuntimeException e) {
+            stop(observation, model, null, e);
+            throw e;
+        }
+        result.whenComplete((response, failure) -> stop(observation, model, response, failure));
+        return result;
+    }
+
+    // 요청 스레드의 현재 스팬 (비동기 호출의 parent)
+    public Observation currentObservation() {
+        return observationRegistry.getCurrentObservation();
+    }
+
+    public void timeToFirstByte(String endpoint, String model, UpstreamTarget target, long startedAtNanos) {
+        Timer.builder("fgac.upstream.ttfb")
+                .description("Time until the upstream response headers arrive")
+                .tags("endpoint", endpoint, "model", modelTag(model), "target", target.name())
+                .register(meterRegistry)
+                .record(System.nanoTime() - startedAtNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void requestSize(String endpoint, long bytes) {
+        DistributionSummary.builder("fgac.upstream.request.size")
+                .baseUnit("bytes")
+                .tags("endpoint", endpoint)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * Imgur 업로드 시간과 (전처리 후) 이미지 크기
+     */
+    public <T> T imageUpload(long bytes, Supplier<T> upload) {
+        if (bytes >= 0) {
+            DistributionSummary.builder("fgac.image.upload.size")
+                    .baseUnit("bytes")
+                    .register(meterRegistry)
+                    .record(bytes);
+        }
+        Observation observation = Observation.createNotStarted("fgac.image.upload", observationRegistry)
+                .contextualName("imgur upload")
+                .start();
+        try (Observation.Scope scope = observation.openScope()) {
+            T result = upload.get();
+            observation.lowCardinalityKeyValue("outcome", "SUCCESS");
+            return result;
+        } catch (RuntimeException e) {
+            observation.lowCardinalityKeyValue("outcome", outcome(e.getCause() != null ? e.getCause() : e));
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    private Observation start(Observation parent, String endpoint, String model, UpstreamTarget target) {
+        return Observation.createNotStarted("fgac.upstream", observationRegistry)
+                .contextualName("openai " + endpoint)
+                .parentObservation(parent)
+                .lowCardinalityKeyValue("endpoint", endpoint)
+                .lowCardinalityKeyValue("model", modelTag(model))
+                .lowCardinalityKeyValue("target", target.name())
+                .start();
+    }
+
+    private void stop(Observation observation, String model, Object result, Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        observation.lowCardinalityKeyValue("outcome", outcome(cause));
+        if (cause != null && !(cause instanceof CancellationException)) {
+            observation.error(cause);
+        }
+        observation.stop();
+        if (result instanceof ChatCompletionResponseDto response && response.usage() != null) {
+            String modelTag = modelTag(model);
+            meterRegistry.counter("fgac.tokens", "model", modelTag, "type", "prompt")
+                    .increment(response.usage().promptTokens());
+            meterRegistry.counter("fgac.tokens", "model", modelTag, "type", "completion")
+                    .increment(response.usage().completionTokens());
+        }
+    }
+
+    static String outcome(Throwable failure) {
+        if (failure == null) {
+            return "SUCCESS";
+        }
+        if (failure instanceof CancellationException) {
+            return "CANCELLED";
+        }
+        if (failure instanceof RestClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return status == 429 ? "RATE_LIMITED" : status >= 500 ? "SERVER_ERROR" : "CLIENT_ERROR";
+        }
+        if (failure instanceof ResponseStatusException response) {
+            return response.getStatusCode().value() == 504 ? "DEADLINE_EXCEEDED" : "ERROR";
+        }
+        // 연결 실패, 타임아웃, 응답 도중 끊김
+        if (failure instanceof ResourceAccessException || failure instanceof IOException
+                || failure instanceof UncheckedIOException) {
+            return "IO_ERROR";
+        }
+        return "ERROR";
+    }
+
+    private String modelTag(String model) {
+        if (model == null) {
+            return "none";
+        }
+        if (modelTags.contains(model) || (modelTags.size() < MAX_MODEL_TAGS && modelTags.add(model))) {
+            return model;
+        }
+        return "other";
+    }
+}
@@ -0,0 +1,814 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.config.UpstreamProperties;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OpenAI 호출 앞단의 스케줄러
+ * [STEP1] 업스트림(키 + 주소)마다 분당 요청 수 / 분당 토큰 수 두 개의 토큰 버킷으로 호출을 고르게 내보냅니다.
+ *         기다리는 호출은 우선순위(INTERACTIVE가 BACKGROUND보다 먼저), 들어온 순서대로 나갑니다.
+ *         앞선 호출이 쓸 수 있는 업스트림이 모두 막혀 있으면, 다른 업스트림으로 갈 수 있는 뒤쪽 호출은 먼저 나갑니다.
+ * [STEP2] 모델을 제공하고 여유가 있는 업스트림 중 (진행 중인 호출 수 / weight)가 가장 작은 곳으로 보냅니다.
+ *         5xx나 연결 오류가 연속으로 나면 서킷 브레이커가 열려서 그 업스트림은 잠시 빠지고, 시험 호출 하나가 성공하면 돌아옵니다.
+ * [STEP3] 응답의 x-ratelimit-remaining-* / x-ratelimit-reset-* 헤더로 버킷을 실제 남은 양에 맞추고,
+ *         429가 오면 그 업스트림만 retry-after 동안 멈추고 속도를 절반으로 줄인 뒤 성공할 때마다 조금씩 되돌립니다. (AIMD)
+ * [STEP4] 429, 5xx, 연결 오류는 다른 업스트림으로 넘기고, 넘길 곳이 없으면 지터를 넣은 지수 백오프로 다시 시도합니다.
+ * [STEP5] 호출마다 마감(Deadline)이 있으면 줄에서 기다리다 마감이 지나거나, 재시도할 시간이 없으면 504로 끝냅니다.
+ *         헤징을 켜면 INTERACTIVE 호출이 최근 응답 시간의 백분위만큼 지나도 끝나지 않았을 때 다른 업스트림으로 같은 요청을 한 번 더 보내고,
+ *         먼저 끝난 응답을 쓰고 나머지는 취소합니다.
+ */
+@Slf4j
+@Component
+public class UpstreamScheduler {
+    public enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+    private static final double MIN_RATE_FACTOR = 0.1;
+    private static final double RATE_RECOVERY_STEP = 0.02;
+    // my.ratelimit.enabled=false일 때 버킷 한도 (사실상 무제한)
+    private static final int UNLIMITED = Integer.MAX_VALUE / 2;
+
+    private final List<UpstreamTarget> targets;
+    private final int maxQueue;
+    private final int maxRetries;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final int completionTokenEstimate;
+    private final TokenCounter tokenCounter;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Hedging hedging;
+    private final ScheduledExecutorService dispatcher;
+    // 차례가 온 호출을 깨우는 스레드. thenCompose로 이어지는 요청 직렬화(이미지 base64 등)가 dispatcher 한 스레드에 몰리지 않게 합니다.
+    private final ExecutorService callbacks;
+    // 모델별 최근 응답 시간 (헤징 지연 계산용)
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    // 헤지 호출을 보낸 횟수 (UpstreamMetrics가 읽음)
+    final LongAdder hedges = new LongAdder();
+
+    // 아래 상태와 UpstreamTarget의 상태는 모두 this로 잠근 상태에서만 바꿉니다.
+    // 우선순위, 들어온 순서대로 정렬 (drain이 앞에서부터 훑음)
+    private final NavigableSet<Ticket> queue = new TreeSet<>();
+    private long sequence;
+    private ScheduledFuture<?> wakeUp;
+
+    @Autowired
+    public UpstreamScheduler(UpstreamProperties upstreamProperties,
+                             TokenCounter tokenCounter,
+                             @Value("${my.api.key}") String apiKey,
+                             @Value("${my.api.openai-url}") String openAiUrl,
+                             @Value("${my.ratelimit.enabled:true}") boolean enabled,
+                             @Value("${my.ratelimit.requests-per-minute:500}") int requestsPerMinute,
+                             @Value("${my.ratelimit.tokens-per-minute:30000}") int tokensPerMinute,
+                             @Value("${my.ratelimit.burst:5s}") Duration burst,
+                             @Value("${my.ratelimit.max-queue:1000}") int maxQueue,
+                             @Value("${my.ratelimit.max-retries:3}") int maxRetries,
+                             @Value("${my.ratelimit.base-backoff:500ms}") Duration baseBackoff,
+                             @Value("${my.ratelimit.max-backoff:30s}") Duration maxBackoff,
+                             @Value("${my.ratelimit.completion-token-estimate:256}") int completionTokenEstimate,
+                             @Value("${my.hedge.enabled:false}") boolean hedgeEnabled,
+                             @Value("${my.hedge.percentile:0.95}") double hedgePercentile,
+                             @Value("${my.hedge.initial-delay:2s}") Duration hedgeInitialDelay,
+                             @Value("${my.hedge.min-delay:200ms}") Duration hedgeMinDelay) {
+        this(targets(upstreamProperties, apiKey, openAiUrl, enabled, requestsPerMinute, tokensPerMinute, burst),
+                maxQueue, maxRetries, baseBackoff, maxBackoff, completionTokenEstimate, tokenCounter,
+                upstreamProperties.breaker().failureThreshold(), upstreamProperties.breaker().openDuration(),
+                new Hedging(hedgeEnabled, hedgePercentile, hedgeInitialDelay, hedgeMinDelay));
+    }
+
+    UpstreamScheduler(List<UpstreamTarget> targets, int maxQueue, int maxRetries, Duration baseBackoff,
+                      Duration maxBackoff, int completionTokenEstimate, TokenCounter tokenCounter, int failureThreshold,
+                      Duration openDuration, Hedging hedging) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one upstream target is required");
+        }
+        this.targets = List.copyOf(targets);
+        this.maxQueue = maxQueue;
+        this.maxRetries = maxRetries;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        this.completionTokenEstimate = completionTokenEstimate;
+        this.tokenCounter = tokenCounter;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+        this.hedging = hedging;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "upstream-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger callbackSequence = new AtomicInteger();
+        this.callbacks = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "upstream-dispatch-" + callbackSequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // my.upstream.targets가 비어 있으면 my.api.key / my.api.openai-url 하나만 사용합니다.
+    // 속도 제한을 끄면 버킷 한도만 없애고, 업스트림 선택과 서킷 브레이커는 그대로 동작합니다.
+    private static List<UpstreamTarget> targets(UpstreamProperties properties, String apiKey, String openAiUrl,
+                                                boolean enabled, int requestsPerMinute, int tokensPerMinute, Duration burst) {
+        if (properties.targets().isEmpty()) {
+            return List.of(new UpstreamTarget("default", openAiUrl, apiKey, 1, Set.of(),
+                    enabled ? requestsPerMinute : UNLIMITED, enabled ? tokensPerMinute : UNLIMITED, burst));
+        }
+        List<UpstreamTarget> targets = new ArrayList<>();
+        for (UpstreamProperties.Target target : properties.targets()) {
+            int rpm = target.requestsPerMinute() != null ? target.requestsPerMinute() : requestsPerMinute;
+            int tpm = target.tokensPerMinute() != null ? target.tokensPerMinute() : tokensPerMinute;
+            // 이름은 로그와 지표 태그에 쓰이므로 비워두면 순서로 붙입니다.
+            String name = target.name() != null ? target.name() : "upstream-" + targets.size();
+            targets.add(new UpstreamTarget(name, target.baseUrl(), target.apiKey(), target.weight(),
+                    Set.copyOf(target.models()), enabled ? rpm : UNLIMITED, enabled ? tpm : UNLIMITED, burst));
+        }
+        return targets;
+    }
+
+    public <T> CompletableFuture<T> submit(Priority priority, String model, int estimatedTokens,
+                                           Function<UpstreamTarget, CompletableFuture<T>> call) {
+        return submit(priority, model, estimatedTokens, Deadline.none(), call);
+    }
+
+    /**
+     * 비동기 호출 : 차례가 오면 고른 업스트림으로 call을 시작하고, 다시 시도할 수 있는 오류면 다시 줄을 섭니다.
+     * 기다리는 동안 어떤 스레드도 붙잡지 않습니다.
+     * 돌려준 future를 취소하거나 헤징으로 진 호출은 call이 돌려준 future를 cancel(true)로 취소하므로, call은 취소되면 HTTP 교환도 끊어야 합니다.
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, String model, int estimatedTokens, Deadline deadline,
+                                           Function<UpstreamTarget, CompletableFuture<T>> call) {
+        Ticket ticket = newTicket(priority, model, estimatedTokens, deadline, null);
+        Duration hedgeDelay = hedgeDelay(ticket);
+        if (hedgeDelay == null) {
+            return attempt(ticket, call, 0, Duration.ZERO);
+        }
+        return hedge(ticket, call, hedgeDelay);
+    }
+
+    public <T> T execute(Priority priority, String model, int estimatedTokens, Function<UpstreamTarget, T> call) {
+        return execute(priority, model, estimatedTokens, Deadline.none(), call);
+    }
+
+    /**
+     * 동기 호출 : 호출한 스레드에서 차례를 기다렸다가 고른 업스트림으로 call을 실행합니다. (my.concurrency.mode=blocking)
+     * call을 실행하는 동안 Deadline.current()가 마감을 돌려주므로 HTTP 클라이언트가 응답 타임아웃을 맞출 수 있습니다.
+     */
+    public <T> T execute(Priority priority, String model, int estimatedTokens, Deadline deadline,
+                         Function<UpstreamTarget, T> call) {
+        Ticket ticket = newTicket(priority, model, estimatedTokens, deadline, null);
+        Duration delay = Duration.ZERO;
+        for (int attempt = 0; ; attempt++) {
+            UpstreamTarget target = join(enqueue(ticket, delay));
+            T result;
+            try {
+                result = deadline.apply(() -> call.apply(target));
+            } catch (RuntimeException e) {
+                onFailure(target, ticket, e);
+                delay = retryDelay(target, ticket, e, attempt);
+                if (delay == null) {
+                    throw deadline.expired() ? deadline.exceeded() : e;
+                }
+                ticket = ticket.retry(target);
+                continue;
+            }
+            onSuccess(target, ticket, result);
+            return result;
+        }
+    }
+
+    /**
+     * 성공 응답의 헤더로 그 업스트림의 남은 한도를 맞춥니다. (서비스가 응답을 받을 때마다 호출)
+     */
+    public void observe(UpstreamTarget target, HttpHeaders headers) {
+        if (headers == null) {
+            return;
+        }
+        synchronized (this) {
+            observeLocked(target, headers);
+        }
+        drain();
+    }
+
+    /**
+     * 요청 본문의 토큰 수를 계산합니다. (입력 토큰 + 예상 출력 토큰)
+     * 요청에 max_tokens가 있으면 예상 출력 토큰은 그 값을 넘지 않습니다.
+     */
+    public int estimateTokens(Object request) {
+        int completion = completionTokenEstimate;
+        Integer maxTokens = request instanceof CompletionRequestDto completionRequestDto ? completionRequestDto.getMaxTokens()
+                : request instanceof ImageMessageDto imageMessageDto ? imageMessageDto.getMaxTokens() : null;
+        if (maxTokens != null) {
+            completion = Math.min(completion, maxTokens);
+        }
+        return tokenCounter.count(request) + completion;
+    }
+
+    public synchronized int queued() {
+        return queue.size();
+    }
+
+    public List<UpstreamTarget> targets() {
+        return targets;
+    }
+
+    /**
+     * 차례를 기다렸다가 call을 시작하고, 다시 시도할 수 있는 오류면 다시 줄을 섭니다.
+     * 돌려준 future를 취소하면 줄에서 기다리는 호출은 빼고, 시작한 호출(call이 돌려준 future)과 다시 시도하는 호출도 취소합니다.
+     */
+    private <T> CompletableFuture<T> attempt(Ticket ticket, Function<UpstreamTarget, CompletableFuture<T>> call,
+                                             int attempt, Duration delay) {
+        CompletableFuture<T> attempted = new CompletableFuture<>();
+        attempted.whenComplete((ignored, failure) -> {
+            if (attempted.isCancelled()) {
+                withdraw(ticket);
+            }
+        });
+        enqueue(ticket, delay).thenCompose(target -> {
+            long startedAt = System.nanoTime();
+            CompletableFuture<T> running = start(call, target);
+            cancelWith(attempted, running);
+            return running
+                    .thenApply(result -> {
+                        onSuccess(target, ticket, result);
+                        latencies(ticket.model()).record(System.nanoTime() - startedAt);
+                        return result;
+                    })
+                    .exceptionallyCompose(failure -> {
+                        Throwable cause = unwrap(failure);
+                        onFailure(target, ticket, cause);
+                        Duration retryDelay = retryDelay(target, ticket, cause, attempt);
+                        if (retryDelay == null) {
+                            return CompletableFuture.failedFuture(
+                                    ticket.deadline().expired() && !(cause instanceof CancellationException)
+                                            ? ticket.deadline().exceeded() : cause);
+                        }
+                        CompletableFuture<T> retried = attempt(ticket.retry(target), call, attempt + 1, retryDelay);
+                        cancelWith(attempted, retried);
+                        return retried;
+                    });
+        }).whenComplete((result, failure) -> {
+            if (failure == null) {
+                attempted.complete(result);
+            } else {
+                attempted.completeExceptionally(failure);
+            }
+        });
+        return attempted;
+    }
+
+    // result가 취소되면 stage도 취소합니다. (이미 취소된 뒤에 붙이면 바로 취소)
+    private static void cancelWith(CompletableFuture<?> result, Future<?> stage) {
+        result.whenComplete((ignored, failure) -> {
+            if (result.isCancelled()) {
+                stage.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * 헤징 : hedgeDelay가 지나도 첫 호출이 끝나지 않았으면 첫 호출이 간 곳이 아닌 업스트림으로 한 번 더 보냅니다.
+     * 먼저 성공한 응답을 돌려주고, 남은 호출(줄에서 기다리는 것 포함)은 취소합니다. 둘 다 실패하면 첫 호출의 오류를 돌려줍니다.
+     * 헤지 호출은 다시 시도하지 않습니다. (첫 호출이 재시도를 맡습니다)
+     */
+    private <T> CompletableFuture<T> hedge(Ticket ticket, Function<UpstreamTarget, CompletableFuture<T>> call,
+                                           Duration hedgeDelay) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        List<Future<?>> running = new CopyOnWriteArrayList<>();
+        AtomicReference<UpstreamTarget> primaryTarget = new AtomicReference<>();
+        AtomicReference<Throwable> primaryFailure = new AtomicReference<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+
+        Function<UpstreamTarget, CompletableFuture<T>> tracked = target -> {
+            CompletableFuture<T> future = call.apply(target);
+            running.add(future);
+            // 이미 다른 호출이 이겼으면 시작하자마자 취소합니다.
+            if (winner.isDone()) {
+                future.cancel(true);
+            }
+            return future;
+        };
+
+        CompletableFuture<T> primary = attempt(ticket, target -> {
+            primaryTarget.set(target);
+            return tracked.apply(target);
+        }, 0, Duration.ZERO);
+        running.add(primary);
+        primary.whenComplete((result, failure) -> {
+            if (failure != null) {
+                primaryFailure.set(unwrap(failure));
+            }
+            settle(winner, outstanding, primaryFailure, result, failure);
+        });
+
+        ScheduledFuture<?> timer = dispatcher.schedule(() -> {
+            Duration remaining = ticket.deadline().remaining();
+            if (winner.isDone() || (remaining != null && remaining.isZero())) {
+                return;
+            }
+            outstanding.incrementAndGet();
+            hedges.increment();
+            Ticket hedgeTicket = newTicket(ticket.priority(), ticket.model(), ticket.tokens(), ticket.deadline(),
+                    primaryTarget.get());
+            log.debug("[+] {}ms 안에 응답이 없어 다른 업스트림으로 한 번 더 보냅니다.", hedgeDelay.toMillis());
+            CompletableFuture<T> hedged = attempt(hedgeTicket, tracked, maxRetries, Duration.ZERO);
+            running.add(hedged);
+            if (winner.isDone()) {
+                hedged.cancel(true);
+            }
+            hedged.whenComplete((result, failure) -> settle(winner, outstanding, primaryFailure, result, failure));
+        }, hedgeDelay.toNanos(), TimeUnit.NANOSECONDS);
+
+        winner.whenComplete((result, failure) -> {
+            timer.cancel(false);
+            running.forEach(future -> future.cancel(true));
+        });
+        return winner;
+    }
+
+    private static <T> void settle(CompletableFuture<T> winner, AtomicInteger outstanding,
+                                   AtomicReference<Throwable> primaryFailure, T result, Throwable failure) {
+        if (failure == null) {
+            winner.complete(result);
+        } else if (outstanding.decrementAndGet() == 0) {
+            Throwable primary = primaryFailure.get();
+            winner.completeExceptionally(primary != null ? primary : unwrap(failure));
+        }
+    }
+
+    /**
+     * 헤징할 호출이면 기다릴 시간을, 아니면 null을 돌려줍니다.
+     * 모델의 최근 응답 시간 백분위(표본이 모자라면 initial-delay)를 쓰고, 남은 마감 시간보다 길면 헤징하지 않습니다.
+     */
+    private Duration hedgeDelay(Ticket ticket) {
+        if (!hedging.enabled() || ticket.priority() != Priority.INTERACTIVE
+                || targets.stream().filter(target -> target.serves(ticket.model())).count() < 2) {
+            return null;
+        }
+        long percentile = latencies(ticket.model()).percentile(hedging.percentile());
+        Duration delay = percentile < 0 ? hedging.initialDelay() : Duration.ofNanos(percentile);
+        if (delay.compareTo(hedging.minDelay()) < 0) {
+            delay = hedging.minDelay();
+        }
+        Duration remaining = ticket.deadline().remaining();
+        return remaining != null && remaining.compareTo(delay) <= 0 ? null : delay;
+    }
+
+    private LatencyTracker latencies(String model) {
+        return latencies.computeIfAbsent(model == null ? "" : model, key -> new LatencyTracker(256, 20));
+    }
+
+    // call이 future를 돌려주기 전에 던진 예외도 실패한 future로 바꿔서 진행 중인 호출 수가 어긋나지 않게 합니다.
+    private static <T> CompletableFuture<T> start(Function<UpstreamTarget, CompletableFuture<T>> call, UpstreamTarget target) {
+        try {
+            return call.apply(target);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private synchronized Ticket newTicket(Priority priority, String model, int estimatedTokens, Deadline deadline,
+                                         UpstreamTarget avoid) {
+        return new Ticket(priority, sequence++, 0, Math.max(1, estimatedTokens), model, deadline, avoid, new CompletableFuture<>());
+    }
+
+    // 백오프가 있으면 그만큼 지난 뒤에 줄을 섭니다. 줄이 가득 차 있으면 바로 429로 돌려보냅니다.
+    // 마감이 있으면 그때까지 차례가 오지 않은 호출은 줄에서 빼고 504로 끝냅니다.
+    private CompletableFuture<UpstreamTarget> enqueue(Ticket ticket, Duration delay) {
+        if (!delay.isZero() && !delay.isNegative()) {
+            dispatcher.schedule(() -> enqueue(ticket, Duration.ZERO), delay.toNanos(), TimeUnit.NANOSECONDS);
+            return ticket.admitted();
+        }
+        Duration remaining = ticket.deadline().remaining();
+        synchronized (this) {
+            if (ticket.admitted().isDone()) {
+                // 백오프 중에 헤징으로 취소된 호출
+                return ticket.admitted();
+            }
+            if (remaining != null && remaining.isZero()) {
+                ticket.admitted().completeExceptionally(ticket.deadline().exceeded());
+                return ticket.admitted();
+            }
+            if (queue.size() >= maxQueue) {
+                ticket.admitted().completeExceptionally(
+                        new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Upstream queue is full"));
+                return ticket.admitted();
+            }
+            queue.add(ticket);
+        }
+        if (remaining != null) {
+            dispatcher.schedule(() -> expire(ticket), remaining.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        drain();
+        return ticket.admitted();
+    }
+
+    // 취소된 호출은 다음 drain을 기다리지 않고 줄에서 빼서 자리를 돌려줍니다. (이미 차례가 온 호출이면 아무것도 하지 않음)
+    private void withdraw(Ticket ticket) {
+        ticket.admitted().cancel(true);
+        synchronized (this) {
+            queue.remove(ticket);
+        }
+    }
+
+    private void expire(Ticket ticket) {
+        synchronized (this) {
+            if (!queue.remove(ticket)) {
+                return;
+            }
+        }
+        ticket.admitted().completeExceptionally(ticket.deadline().exceeded());
+    }
+
+    /**
+     * 줄을 앞에서부터 훑으면서 지금 받을 수 있는 업스트림이 있는 호출을 내보내고, 남은 호출은 가장 빨리 자리가 나는 때에 다시 깨어납니다.
+     * 내보내지 못한 호출이 쓸 수 있는 업스트림은 그 호출 몫으로 남겨서 뒤쪽 호출이 가로채지 않게 합니다. (업스트림마다 순서 유지)
+     * 그래서 한 업스트림이 막혀도 다른 업스트림으로 갈 호출은 그 뒤에서 기다리지 않습니다.
+     * 토큰이 버킷 크기보다 많이 필요한 호출은 버킷이 가득 찼을 때 내보내고 잔고를 음수로 둡니다.
+     */
+    private void drain() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            long earliest = Long.MAX_VALUE;
+            Set<UpstreamTarget> reserved = new HashSet<>();
+            Iterator<Ticket> tickets = queue.iterator();
+            while (tickets.hasNext() && reserved.size() < targets.size()) {
+                Ticket ticket = tickets.next();
+                if (ticket.admitted().isDone()) {
+                    // 헤징에서 진 호출은 줄에서 그냥 뺍니다.
+                    tickets.remove();
+                    continue;
+                }
+                UpstreamTarget chosen = null;
+                boolean served = false;
+                for (UpstreamTarget target : targets) {
+                    if (!target.serves(ticket.model())) {
+                        continue;
+                    }
+                    served = true;
+                    if (reserved.contains(target)) {
+                        continue;
+                    }
+                    long waitNanos = waitNanos(target, ticket, now);
+                    if (waitNanos > 0) {
+                        earliest = Math.min(earliest, waitNanos);
+                    } else if (chosen == null || preferred(target, chosen, ticket)) {
+                        chosen = target;
+                    }
+                }
+                if (!served) {
+                    tickets.remove();
+                    ticket.admitted().completeExceptionally(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "No upstream target serves model " + ticket.model()));
+                    continue;
+                }
+                if (chosen == null) {
+                    for (UpstreamTarget target : targets) {
+                        if (target.serves(ticket.model())) {
+                            reserved.add(target);
+                        }
+                    }
+                    continue;
+                }
+                tickets.remove();
+                chosen.requestBucket.take(1);
+                chosen.tokenBucket.take(ticket.tokens());
+                chosen.inFlight++;
+                UpstreamTarget admitted = chosen;
+                callbacks.execute(() -> {
+                    // 그 사이에 헤징으로 취소됐으면 자리를 돌려줍니다.
+                    if (!ticket.admitted().complete(admitted)) {
+                        release(admitted);
+                    }
+                });
+            }
+            if (earliest != Long.MAX_VALUE) {
+                scheduleWakeUp(earliest);
+            }
+        }
+    }
+
+    private void release(UpstreamTarget target) {
+        synchronized (this) {
+            target.inFlight--;
+        }
+        drain();
+    }
+
+    // 이 업스트림이 지금 호출을 받을 수 있으면 0, 아니면 받을 수 있을 때까지 남은 시간
+    private long waitNanos(UpstreamTarget target, Ticket ticket, long now) {
+        if (target.state == UpstreamTarget.State.OPEN) {
+            if (now < target.openUntilNanos) {
+                return target.openUntilNanos - now;
+            }
+            target.state = UpstreamTarget.State.HALF_OPEN;
+            log.debug("[+] 업스트림 {} 시험 호출을 허용합니다.", target.name());
+        }
+        if (target.state == UpstreamTarget.State.HALF_OPEN && target.inFlight > 0) {
+            // 시험 호출 하나의 결과가 나올 때까지 기다립니다. (끝나면 drain이 다시 불립니다)
+            return openDuration.toNanos();
+        }
+        if (now < target.pausedUntilNanos) {
+            return target.pausedUntilNanos - now;
+        }
+        target.requestBucket.refill(now, target.rateFactor);
+        target.tokenBucket.refill(now, target.rateFactor);
+        return Math.max(target.requestBucket.nanosUntil(1, target.rateFactor),
+                target.tokenBucket.nanosUntil(ticket.tokens(), target.rateFactor));
+    }
+
+    // 바로 전에 실패한(헤징이면 첫 호출이 간) 업스트림은 피하고, 그다음은 (진행 중인 호출 수 / weight)가 작은 쪽을 고릅니다.
+    private static boolean preferred(UpstreamTarget candidate, UpstreamTarget current, Ticket ticket) {
+        boolean candidateFailed = candidate == ticket.avoid();
+        boolean currentFailed = current == ticket.avoid();
+        if (candidateFailed != currentFailed) {
+            return currentFailed;
+        }
+        return (double) candidate.inFlight / candidate.weight() < (double) current.inFlight / current.weight();
+    }
+
+    // 이미 시간이 되어 실행 중인 wakeUp은 지금 줄을 다시 보지 않을 수 있으므로 새로 예약합니다.
+    // (호출을 깨우는 일은 callbacks 스레드에서 하므로 그 사이에 다른 스레드의 drain이 여기에 올 수 있음)
+    private void scheduleWakeUp(long nanos) {
+        long scheduled = wakeUp != null && !wakeUp.isDone() ? wakeUp.getDelay(TimeUnit.NANOSECONDS) : -1;
+        if (scheduled > 0 && scheduled <= nanos) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUp = dispatcher.schedule(this::drain, Math.max(nanos, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+    }
+
+    private void onSuccess(UpstreamTarget target, Ticket ticket, Object result) {
+        synchronized (this) {
+            target.inFlight--;
+            closeBreaker(target);
+            target.rateFactor = Math.min(1.0, target.rateFactor + RATE_RECOVERY_STEP);
+            // 실제 사용량을 알면 미리 뺀 예상치와의 차이를 돌려주거나 더 뺍니다.
+            if (result instanceof ChatCompletionResponseDto response && response.usage() != null) {
+                target.tokenBucket.take(response.usage().totalTokens() - ticket.tokens());
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 5xx와 연결 오류만 업스트림 장애로 셉니다. 429는 한도 문제라서, 그 밖의 4xx는 요청 문제라서 브레이커와 상관없습니다.
+     * 헤징으로 취소했거나 클라이언트 마감이 지나서 끊은 호출도 업스트림 탓이 아니므로 세지 않습니다.
+     * 시험 호출(HALF_OPEN)이 실패하면 바로 다시 엽니다.
+     * NotRetryableException은 감싼 원인으로 판단합니다. (chunk를 넘긴 뒤 끊긴 스트림도 업스트림 장애로 셈)
+     */
+    private void onFailure(UpstreamTarget target, Ticket ticket, Throwable thrown) {
+        Throwable failure = thrown instanceof NotRetryableException && thrown.getCause() != null ? thrown.getCause() : thrown;
+        synchronized (this) {
+            target.inFlight--;
+            if (failure instanceof CancellationException || ticket.deadline().expired()) {
+                if (target.state == UpstreamTarget.State.HALF_OPEN) {
+                    // 시험 호출 결과를 모르므로 다음 호출을 다시 시험 호출로 보냅니다.
+                    log.debug("[+] 업스트림 {} 시험 호출이 결과 없이 끝났습니다.", target.name());
+                }
+            } else if (isUpstreamFault(failure)) {
+                target.failures.increment();
+                target.consecutiveFailures++;
+                if (target.state == UpstreamTarget.State.HALF_OPEN || target.consecutiveFailures >= failureThreshold) {
+                    target.state = UpstreamTarget.State.OPEN;
+                    target.openUntilNanos = System.nanoTime() + openDuration.toNanos();
+                    log.warn("[!] 업스트림 {} 차단 ({}ms) : {}", target.name(), openDuration.toMillis(), failure.toString());
+                }
+            } else if (isRateLimited(failure)) {
+                target.rateLimited.increment();
+            } else {
+                closeBreaker(target);
+            }
+        }
+        drain();
+    }
+
+    private void closeBreaker(UpstreamTarget target) {
+        if (target.state != UpstreamTarget.State.CLOSED) {
+            log.info("[+] 업스트림 {} 복구", target.name());
+        }
+        target.state = UpstreamTarget.State.CLOSED;
+        target.consecutiveFailures = 0;
+    }
+
+    private static boolean isRateLimited(Throwable failure) {
+        return failure instanceof RestClientResponseException response && response.getStatusCode().value() == 429;
+    }
+
+    private static boolean isUpstreamFault(Throwable failure) {
+        if (failure instanceof RestClientResponseException response) {
+            return response.getStatusCode().is5xxServerError();
+        }
+        return failure instanceof ResourceAccessException || failure instanceof IOException
+                || failure instanceof UncheckedIOException;
+    }
+
+    /**
+     * 다시 시도할 수 있으면 기다릴 시간을, 아니면 null을 돌려줍니다.
+     * 429는 그 업스트림만 retry-after 동안 멈추고 속도를 절반으로 줄입니다. (멈춘 동안은 drain이 다른 업스트림을 고릅니다)
+     * 아직 다른 업스트림이 남아 있으면 바로 넘기고, 모두 시도했으면 지터를 넣은 지수 백오프로 기다립니다.
+     */
+    private Duration retryDelay(UpstreamTarget target, Ticket ticket, Throwable failure, int attempt) {
+        if (attempt >= maxRetries || ticket.deadline().expired() || failure instanceof NotRetryableException
+                || !(isRateLimited(failure) || isUpstreamFault(failure))) {
+            return null;
+        }
+        if (isRateLimited(failure)) {
+            HttpHeaders headers = ((RestClientResponseException) failure).getResponseHeaders();
+            Duration retryAfter = retryAfter(headers);
+            synchronized (this) {
+                target.rateFactor = Math.max(MIN_RATE_FACTOR, target.rateFactor / 2);
+                if (retryAfter != null) {
+                    target.pausedUntilNanos = Math.max(target.pausedUntilNanos, System.nanoTime() + retryAfter.toNanos());
+                }
+                if (headers != null) {
+                    observeLocked(target, headers);
+                }
+            }
+        }
+        Duration delay = Duration.ZERO;
+        if (attempt + 1 >= targets.size()) {
+            long cap = Math.min(maxBackoff.toMillis(), baseBackoff.toMillis() << Math.min(attempt, 20));
+            delay = Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+        }
+        Duration remaining = ticket.deadline().remaining();
+        if (remaining != null && remaining.compareTo(delay) <= 0) {
+            return null;
+        }
+        target.retries.increment();
+        log.debug("[+] 업스트림 {} 실패({}), {}ms 후 다시 시도합니다. ({}번째)", target.name(), failure.toString(),
+                delay.toMillis(), attempt + 1);
+        return delay;
+    }
+
+    private void observeLocked(UpstreamTarget target, HttpHeaders headers) {
+        long now = System.nanoTime();
+        adjust(target, target.requestBucket, headers, "requests", now);
+        adjust(target, target.tokenBucket, headers, "tokens", now);
+    }
+
+    // 서버가 알려준 남은 양보다 로컬 잔고가 많으면 줄이고, 0이면 초기화 시각까지 그 업스트림을 멈춥니다.
+    private void adjust(UpstreamTarget target, UpstreamTarget.TokenBucket bucket, HttpHeaders headers, String kind, long now) {
+        String remaining = headers.getFirst("x-ratelimit-remaining-" + kind);
+        if (remaining == null) {
+            return;
+        }
+        try {
+            long left = Long.parseLong(remaining.trim());
+            bucket.limitTo(left);
+            if (left <= 0) {
+                Duration reset = parseDuration(headers.getFirst("x-ratelimit-reset-" + kind));
+                if (reset != null) {
+                    target.pausedUntilNanos = Math.max(target.pausedUntilNanos, now + reset.toNanos());
+                }
+            }
+        } catch (NumberFormatException e) {
+            log.debug("[!] 잘못된 x-ratelimit-remaining-{} 헤더 : {}", kind, remaining);
+        }
+    }
+
+    static Duration retryAfter(HttpHeaders headers) {
+        if (headers == null) {
+            return null;
+        }
+        String millis = headers.getFirst("retry-after-ms");
+        if (millis != null) {
+            try {
+                return Duration.ofMillis((long) Double.parseDouble(millis.trim()));
+            } catch (NumberFormatException ignored) {
+                // retry-after로 넘어갑니다.
+            }
+        }
+        String seconds = headers.getFirst("retry-after");
+        if (seconds != null) {
+            try {
+                return Duration.ofMillis((long) (Double.parseDouble(seconds.trim()) * 1000));
+            } catch (NumberFormatException ignored) {
+                // HTTP 날짜 형식은 사용하지 않습니다.
+            }
+        }
+        return null;
+    }
+
+    // "1s", "6m0s", "59.634s", "20ms" 같은 형식
+    static Duration parseDuration(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        double millis = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "h" -> amount * 3_600_000;
+                case "m" -> amount * 60_000;
+                case "s" -> amount * 1_000;
+                default -> amount;
+            };
+        }
+        return found ? Duration.ofMillis((long) millis) : null;
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        callbacks.shutdownNow();
+    }
+
+    /**
+     * 다시 시도하지 않을 실패 (브라우저가 이미 chunk를 받은 스트림 등). 서킷 브레이커는 원인(getCause)으로 판단합니다.
+     */
+    public static class NotRetryableException extends IllegalStateException {
+        public NotRetryableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * 헤징 설정 : percentile은 0~1, 표본이 모자랄 때는 initialDelay, 지연은 minDelay 이상
+     */
+    record Hedging(boolean enabled, double percentile, Duration initialDelay, Duration minDelay) {
+        static final Hedging DISABLED = new Hedging(false, 0.95, Duration.ZERO, Duration.ZERO);
+    }
+
+    private record Ticket(Priority priority, long sequence, int attempt, int tokens, String model, Deadline deadline,
+                          UpstreamTarget avoid, CompletableFuture<UpstreamTarget> admitted) implements Comparable<Ticket> {
+        // 다시 시도할 때는 새 차례를 받지만 처음 들어온 순서는 유지해서 새 요청보다 먼저 나갑니다.
+        Ticket retry(UpstreamTarget failedTarget) {
+            return new Ticket(priority, sequence, attempt + 1, tokens, model, deadline, failedTarget, new CompletableFuture<>());
+        }
+
+        // 줄(TreeSet)은 compareTo로 같은 호출을 찾으므로, 지난 시도의 expire가 다시 시도한 호출을 빼지 않도록 attempt까지 비교합니다.
+        @Override
+        public int compareTo(Ticket other) {
+            int byPriority = priority.compareTo(other.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            int bySequence = Long.compare(sequence, other.sequence);
+            return bySequence != 0 ? bySequence : Integer.compare(attempt, other.attempt);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.npt.fgac.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 업스트림 하나(키 + 주소)의 상태
+ * 토큰 버킷, 429로 멈춘 시각, 진행 중인 호출 수, 서킷 브레이커 상태를 가지고 있습니다.
+ * 상태 값은 UpstreamScheduler가 자신의 잠금 안에서만 바꿉니다. (누적 횟수는 UpstreamMetrics가 읽는 카운터)
+ */
+public class UpstreamTarget {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final String baseUrl;
+    private final String apiKey;
+    private final int weight;
+    private final Set<String> models;
+    final TokenBucket requestBucket;
+    final TokenBucket tokenBucket;
+
+    long pausedUntilNanos;
+    double rateFactor = 1.0;
+    // 상태 조회(모니터링)용으로 잠금 없이 읽을 수 있게 합니다.
+    volatile int inFlight;
+    volatile State state = State.CLOSED;
+    int consecutiveFailures;
+    long openUntilNanos;
+    // 5xx/연결 오류, 429, 다른 업스트림이나 백오프 후 다시 시도한 횟수
+    final LongAdder failures = new LongAdder();
+    final LongAdder rateLimited = new LongAdder();
+    final LongAdder retries = new LongAdder();
+
+    public UpstreamTarget(String name, String baseUrl, String apiKey, int weight, Set<String> models,
+                          int requestsPerMinute, int tokensPerMinute, Duration burst) {
+        this.name = name;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.apiKey = apiKey;
+        this.weight = Math.max(1, weight);
+        this.models = Set.copyOf(models);
+        this.requestBucket = new TokenBucket(requestsPerMinute, burst);
+        this.tokenBucket = new TokenBucket(tokensPerMinute, burst);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String url(String path) {
+        return baseUrl + path;
+    }
+
+    // 요청마다 새로 만들어서 호출하는 쪽이 헤더를 더해도 다른 요청에 영향이 없게 합니다.
+    public HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(apiKey);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public int inFlight() {
+        return inFlight;
+    }
+
+    int weight() {
+        return weight;
+    }
+
+    boolean serves(String model) {
+        return models.isEmpty() || model == null || models.contains(model);
+    }
+
+    /**
+     * 분당 한도를 초당 속도로 바꾼 토큰 버킷. 크기는 burst 시간 동안 채워지는 양입니다.
+     */
+    static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double available;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(int perMinute, Duration burst) {
+            this.ratePerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.capacity = Math.max(1, ratePerNano * burst.toNanos());
+            this.available = capacity;
+        }
+
+        void refill(long now, double factor) {
+            available = Math.min(capacity, available + (now - refilledAt) * ratePerNano * factor);
+            refilledAt = now;
+        }
+
+        // 필요한 양(버킷보다 크면 가득 찰 때까지)이 모일 때까지 남은 시간
+        long nanosUntil(double amount, double factor) {
+            double needed = Math.min(amount, capacity) - available;
+            return needed <= 0 ? 0 : (long) Math.ceil(needed / (ratePerNano * factor));
+        }
+
+        void take(double amount) {
+            available -= amount;
+        }
+
+        void limitTo(double remaining) {
+            available = Math.min(available, remaining);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.npt.fgac.benchmark;
+
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 느린 업스트림(1초) 호출 수천 개를 동시에 보냈을 때 async 모드가 적은 스레드와 고정된 메모리로 처리하는지 측정합니다.
+ * Tomcat 스레드를 20개로 제한해도 blocking 모드의 하한(요청 수 / 스레드 수 * 지연 시간)보다 빨리 끝나야 합니다.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test",
+                "my.concurrency.mode=async", "server.tomcat.threads.max=20",
+                "server.tomcat.max-connections=10000", "server.tomcat.accept-count=4096", "my.http.connect-timeout=30s",
+                "logging.level.com.npt.fgac=INFO", "my.ratelimit.enabled=false", "my.admission.enabled=false"})
+class AsyncPromptLoadBenchmark {
+    private static final int CONCURRENT_REQUESTS = 2000;
+    private static final long UPSTREAM_LATENCY_MILLIS = 1000;
+    private static final int TOMCAT_THREADS = 20;
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void servesThousandsOfSlowUpstreamCallsWithFewThreads() {
+        stub.setResponseDelayMillis(UPSTREAM_LATENCY_MILLIS);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/prompt"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"hi\"}]"))
+                .build();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        int threadsBefore = threads.getThreadCount();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>(CONCURRENT_REQUESTS);
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+
+        // 요청이 모두 업스트림에서 대기 중일 때 살아있는 스레드 수와 GC 후 힙 사용량을 잰다
+        sleep(UPSTREAM_LATENCY_MILLIS / 2);
+        System.gc();
+        long heapInFlight = memory.getHeapMemoryUsage().getUsed();
+        int threadsInFlight = threads.getThreadCount();
+
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long succeeded = responses.stream().map(CompletableFuture::join).filter(response -> response.statusCode() == 200).count();
+        System.out.printf("[benchmark] blocking lower bound=%dms%n", CONCURRENT_REQUESTS / TOMCAT_THREADS * UPSTREAM_LATENCY_MILLIS);
+        System.out.printf("[benchmark] requests=%d ok=%d elapsed=%dms throughput=%.0f req/s%n",
+                CONCURRENT_REQUESTS, succeeded, elapsedMillis, CONCURRENT_REQUESTS * 1000.0 / elapsedMillis);
+        System.out.printf("[benchmark] threads before=%d in-flight=%d, live heap before=%dMB in-flight=%dMB%n",
+                threadsBefore, threadsInFlight, heapBefore >> 20, heapInFlight >> 20);
+
+        assertThat(succeeded).isEqualTo(CONCURRENT_REQUESTS);
+        assertThat(threadsInFlight).isLessThan(CONCURRENT_REQUESTS / 10);
+        // blocking 모드라면 2000 / 20 스레드 * 1초 = 100초 이상 걸린다
+        assertThat(elapsedMillis).isLessThan(CONCURRENT_REQUESTS / TOMCAT_THREADS * UPSTREAM_LATENCY_MILLIS);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
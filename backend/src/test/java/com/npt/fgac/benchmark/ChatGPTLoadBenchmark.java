@@ -0,0 +1,143 @@
+package com.npt.fgac.benchmark;
+
+import com.npt.fgac.support.LoadGenerator;
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 로컬 스텁을 업스트림(OpenAI, Imgur)으로 두고 ChatGPTController 전체 경로에 부하를 줍니다.
+ * 스텁은 중앙값 300ms, p99 2초인 로그 정규 분포로 지연하고, 요청의 1%는 500, 3%는 429로 응답합니다.
+ * 모델 목록, 프롬프트, 스트리밍, 이미지 업로드를 차례로 돌리며 처리량, 응답 시간 분위수, 스레드/힙 사용량을 출력합니다.
+ * 실행 : ./gradlew benchmark --tests '*ChatGPTLoadBenchmark' -Dload.requests=5000 -Dload.concurrency=500
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test",
+                "my.concurrency.mode=async", "my.cache.enabled=false", "my.image.store=imgur",
+                "my.ratelimit.requests-per-minute=600000", "my.ratelimit.tokens-per-minute=100000000",
+                "my.ratelimit.max-queue=10000", "my.ratelimit.base-backoff=100ms",
+                "server.tomcat.max-connections=10000", "server.tomcat.accept-count=4096",
+                "my.audit.enabled=false", "my.admission.enabled=false", "logging.level.com.npt.fgac=INFO"})
+class ChatGPTLoadBenchmark {
+    private static final int REQUESTS = Integer.getInteger("load.requests", 2000);
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 200);
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+    private static final LoadGenerator load = new LoadGenerator();
+    private static byte[] image;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void upstreams(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+        registry.add("my.api.imgur-url", stub::baseUrl);
+    }
+
+    @BeforeAll
+    static void configureStub() throws IOException {
+        stub.setLatency(OpenAiStubServer.Latency.logNormal(300, 2000));
+        stub.setFaults(0.01, 0.03, 200);
+        stub.setChunkDelayMillis(20);
+        image = photo(1600, 1200);
+    }
+
+    @AfterAll
+    static void stop() {
+        load.close();
+        stub.stop();
+    }
+
+    @Test
+    void modelList() {
+        LoadGenerator.Report report = load.run("modelList", CONCURRENCY, REQUESTS,
+                i -> HttpRequest.newBuilder(uri("/api/v1/chatGpt/modelList")).GET().build());
+        report.print();
+        // async 모드는 ModelRegistry가 들고 있는 목록을 돌려주므로 업스트림 오류와 상관없습니다.
+        assertThat(report.count(200)).isEqualTo(REQUESTS);
+    }
+
+    @Test
+    void prompt() {
+        LoadGenerator.Report report = load.run("prompt", CONCURRENCY, REQUESTS, i -> json("/api/v1/chatGpt/prompt", i));
+        report.print();
+        // 500과 429는 스케줄러가 다시 시도합니다.
+        assertThat(report.count(200)).isGreaterThan(REQUESTS * 99L / 100);
+    }
+
+    @Test
+    void promptStream() {
+        LoadGenerator.Report report = load.run("prompt/stream", CONCURRENCY, REQUESTS, i -> json("/api/v1/chatGpt/prompt/stream", i));
+        report.print();
+        // 스트리밍 응답은 MVC 비동기 실행기 스레드에서 업스트림을 읽으므로 처리량이 그 스레드 수에 묶입니다.
+        assertThat(report.count(200)).isGreaterThan(REQUESTS * 9L / 10);
+    }
+
+    @Test
+    void imageUpload() {
+        int requests = Math.max(1, REQUESTS / 10);
+        LoadGenerator.Report report = load.run("image", Math.min(CONCURRENCY, requests), requests, i -> multipart(image));
+        report.print();
+        // 업로드 동시 실행 한도(my.upload.max-concurrent)를 넘으면 기다리거나 503
+        assertThat(report.count(200)).isGreaterThan(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    // 캐시를 꺼도 요청 내용은 모두 다르게
+    private HttpRequest json(String path, int i) {
+        return HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"load question " + i + "\"}]"))
+                .build();
+    }
+
+    private HttpRequest multipart(byte[] file) {
+        String boundary = "load-boundary";
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"photo.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(uri("/api/v1/chatGpt/image"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, file, tail)))
+                .build();
+    }
+
+    // 전처리(축소, 재압축)가 실제로 일을 하도록 노이즈가 섞인 사진 크기의 JPEG
+    private static byte[] photo(int width, int height) throws IOException {
+        BufferedImage photo = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = photo.createGraphics();
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+            graphics.fillRect(random.nextInt(width), random.nextInt(height), 40, 40);
+        }
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(photo, "jpg", out);
+        return out.toByteArray();
+    }
+}
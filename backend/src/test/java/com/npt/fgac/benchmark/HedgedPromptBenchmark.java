@@ -0,0 +1,122 @@
+package com.npt.fgac.benchmark;
+
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 업스트림 호출 20개 중 1개가 2초 걸릴 때 헤징이 /prompt 응답 시간 꼬리를 얼마나 줄이는지 측정합니다.
+ * 같은 스텁을 가리키는 업스트림 두 개를 등록하고, 스텁이 넣은 지연(헤징이 없었다면 겪었을 응답 시간)과
+ * 클라이언트가 실제로 받은 응답 시간의 히스토그램을 나란히 출력합니다.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test",
+                "my.concurrency.mode=async", "my.cache.enabled=false", "my.ratelimit.enabled=false", "my.admission.enabled=false",
+                "my.hedge.enabled=true", "my.hedge.percentile=0.9", "my.hedge.initial-delay=300ms",
+                "my.hedge.min-delay=50ms", "logging.level.com.npt.fgac=INFO"})
+class HedgedPromptBenchmark {
+    private static final int REQUESTS = 400;
+    private static final int CLIENTS = 8;
+    private static final long BASE_LATENCY_MILLIS = 50;
+    private static final long SLOW_LATENCY_MILLIS = 2000;
+    private static final long[] BUCKETS_MILLIS = {100, 250, 500, 1000, 2000, Long.MAX_VALUE};
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @LocalServerPort
+    private int port;
+
+    // 목록은 한 곳(property source)에서만 읽히므로 업스트림 설정은 모두 여기에 둡니다.
+    @DynamicPropertySource
+    static void upstreams(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+        for (int i = 0; i < 2; i++) {
+            String name = "stub-" + i;
+            registry.add("my.upstream.targets[" + i + "].name", () -> name);
+            registry.add("my.upstream.targets[" + i + "].api-key", () -> "test");
+            registry.add("my.upstream.targets[" + i + "].base-url", stub::baseUrl);
+        }
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void hedgingCutsTheSlowTail() {
+        stub.setResponseDelayMillis(BASE_LATENCY_MILLIS);
+        stub.setSlowEvery(20, SLOW_LATENCY_MILLIS);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        AtomicInteger sequence = new AtomicInteger();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+        // 클라이언트마다 앞 요청이 끝나면 다음 요청을 보냅니다. (캐시를 꺼도 요청 내용은 모두 다르게)
+        List<CompletableFuture<Void>> clients = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            clients.add(CompletableFuture.runAsync(() -> {
+                int i;
+                while ((i = sequence.getAndIncrement()) < REQUESTS) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/prompt"))
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"question " + i + "\"}]"))
+                            .build();
+                    long start = System.nanoTime();
+                    HttpResponse<String> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).join();
+                    assertThat(response.statusCode()).isEqualTo(200);
+                    latencies.add((System.nanoTime() - start) / 1_000_000);
+                }
+            }));
+        }
+        CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).join();
+
+        List<Long> upstream = new ArrayList<>(stub.completionDelays());
+        List<Long> endToEnd = new ArrayList<>(latencies);
+        System.out.printf("[benchmark] requests=%d upstream calls=%d (hedges=%d)%n",
+                REQUESTS, upstream.size(), upstream.size() - REQUESTS);
+        print("upstream call (no hedging)", upstream);
+        print("end-to-end (hedged)", endToEnd);
+
+        assertThat(percentile(upstream, 0.99)).isGreaterThanOrEqualTo(SLOW_LATENCY_MILLIS);
+        assertThat(percentile(endToEnd, 0.99)).isLessThan(SLOW_LATENCY_MILLIS / 2);
+        // 헤지는 느린 호출에만 나가야 합니다. (10% 미만)
+        assertThat(upstream.size() - REQUESTS).isLessThan(REQUESTS / 10);
+    }
+
+    private static void print(String name, List<Long> millis) {
+        StringBuilder histogram = new StringBuilder();
+        long lower = 0;
+        for (long upper : BUCKETS_MILLIS) {
+            long from = lower;
+            long count = millis.stream().filter(value -> value >= from && value < upper).count();
+            histogram.append(String.format("  [%d, %s)ms=%d", lower, upper == Long.MAX_VALUE ? "inf" : upper, count));
+            lower = upper;
+        }
+        System.out.printf("[benchmark] %s p50=%dms p90=%dms p99=%dms max=%dms%n%s%n", name,
+                percentile(millis, 0.5), percentile(millis, 0.9), percentile(millis, 0.99), percentile(millis, 1.0), histogram);
+    }
+
+    private static long percentile(List<Long> millis, double percentile) {
+        List<Long> sorted = new ArrayList<>(millis);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+}
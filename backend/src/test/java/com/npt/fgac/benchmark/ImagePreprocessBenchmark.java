@@ -0,0 +1,104 @@
+package com.npt.fgac.benchmark;
+
+import com.npt.fgac.service.ImagePreprocessServiceImpl;
+import com.npt.fgac.service.ProcessedImage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 휴대폰 사진 크기(4032x3024) 이미지를 전처리했을 때 처리량과 이미지당 줄어든 바이트를 측정합니다.
+ */
+@Tag("benchmark")
+class ImagePreprocessBenchmark {
+    private static final int IMAGES = 48;
+    private static final int CLIENTS = 8;
+
+    @Test
+    void preprocessThroughputAndBytesSaved() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        ImagePreprocessServiceImpl service = new ImagePreprocessServiceImpl(true, 2048, 50_000_000L, 0.85f, 0, 64);
+        byte[] photo = photoJpeg(4032, 3024);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            // 워밍업 (JIT, ImageIO 플러그인 로딩)
+            for (int i = 0; i < 3; i++) {
+                if (service.preprocess(new ByteArrayResource(photo)) instanceof ProcessedImage image) {
+                    image.close();
+                }
+            }
+
+            long start = System.nanoTime();
+            List<CompletableFuture<Resource>> results = new ArrayList<>();
+            for (int i = 0; i < IMAGES; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> service.preprocess(new ByteArrayResource(photo)), clients));
+            }
+            long outputBytes = 0;
+            for (CompletableFuture<Resource> result : results) {
+                Resource processed = result.join();
+                outputBytes += processed.contentLength();
+                if (processed instanceof ProcessedImage image) {
+                    image.close();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            long inputBytes = (long) photo.length * IMAGES;
+            System.out.printf("images=%d cores=%d elapsed=%.2fs throughput=%.1f images/s%n",
+                    IMAGES, cores, seconds, IMAGES / seconds);
+            System.out.printf("avg input=%dKB avg output=%dKB saved=%dKB per image (%.0f%%)%n",
+                    inputBytes / IMAGES / 1024, outputBytes / IMAGES / 1024, (inputBytes - outputBytes) / IMAGES / 1024,
+                    100.0 * (inputBytes - outputBytes) / inputBytes);
+
+            assertThat(outputBytes).isLessThan(inputBytes);
+        } finally {
+            clients.shutdownNow();
+            service.shutdown();
+        }
+    }
+
+    // 그라데이션에 노이즈를 섞어서 실제 사진처럼 압축이 잘 되지 않는 이미지를 만듭니다.
+    private static byte[] photoJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(48);
+                int r = Math.min(255, x * 200 / width + noise);
+                int g = Math.min(255, y * 200 / height + noise);
+                int b = Math.min(255, (x + y) * 100 / (width + height) + noise);
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.92f);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
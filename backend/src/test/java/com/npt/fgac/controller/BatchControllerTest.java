@@ -0,0 +1,157 @@
+package com.npt.fgac.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.BatchJobDto;
+import com.npt.fgac.service.BatchJobStore;
+import com.npt.fgac.service.BatchService;
+import com.npt.fgac.service.ImageStore;
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test",
+                "my.batch.max-requests-per-file=2", "my.batch.poll-interval=PT1H"})
+class BatchControllerTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+    private static final Path batchDirectory = createTempDirectory();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private BatchService batchService;
+
+    @Autowired
+    private BatchJobStore batchJobStore;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+        registry.add("my.batch.dir", batchDirectory::toString);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void bulkJobIsPackedPolledAndStreamedBack() throws Exception {
+        String requests = "[" + String.join(",", "a", "b", "c").replaceAll("(\\w)",
+                "{\"model\":\"gpt-4o\",\"messages\":[{\"role\":\"user\",\"content\":\"$1\"}]}") + "]";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        ResponseEntity<BatchJobDto> submitted = restTemplate.postForEntity("/api/v1/chatGpt/batches",
+                new HttpEntity<>(requests, headers), BatchJobDto.class);
+
+        assertThat(submitted.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        BatchJobDto job = submitted.getBody();
+        assertThat(job.requestCount()).isEqualTo(3);
+        // 파일당 2개씩 나누므로 batch 두 개
+        assertThat(job.parts()).hasSize(2);
+        assertThat(job.status()).isEqualTo("in_progress");
+
+        // 재시작한 것처럼 디스크에서 다시 읽어도 진행 중인 작업이 보여야 합니다.
+        BatchJobStore reloaded = new BatchJobStore(objectMapper, batchDirectory);
+        assertThat(reloaded.unfinished()).extracting(BatchJobDto::id).contains(job.id());
+
+        batchService.poll();
+
+        BatchJobDto polled = restTemplate.getForObject("/api/v1/chatGpt/batches/" + job.id(), BatchJobDto.class);
+        assertThat(polled.status()).isEqualTo("completed");
+
+        ResponseEntity<String> results = restTemplate.getForEntity("/api/v1/chatGpt/batches/" + job.id() + "/results", String.class);
+        assertThat(results.getHeaders().getFirst("X-Batch-Status")).isEqualTo("completed");
+        String[] lines = results.getBody().split("\n");
+        assertThat(Arrays.stream(lines).map(this::customId)).containsExactly("request-0", "request-1", "request-2");
+        JsonNode first = objectMapper.readTree(lines[0]);
+        assertThat(first.path("response").path("body").path("choices").get(0).path("message").path("content").asText())
+                .isEqualTo("batch answer");
+    }
+
+    @Test
+    void storedImagePathsAreResolvedInTheBatchInput() {
+        String url = imageStore.save(new MockMultipartFile("image", "a.png", "image/png", new byte[]{1, 2, 3}));
+        String requests = "[{\"model\":\"gpt-4o\",\"messages\":[{\"role\":\"user\",\"content\":["
+                + "{\"type\":\"text\",\"text\":\"what is this?\"},"
+                + "{\"type\":\"image_url\",\"image_url\":{\"url\":\"" + url + "\"}}]}]}]";
+
+        ResponseEntity<BatchJobDto> submitted = restTemplate.postForEntity("/api/v1/chatGpt/batches",
+                new HttpEntity<>(requests, jsonHeaders()), BatchJobDto.class);
+
+        assertThat(submitted.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        // OpenAI는 이 서버의 /api/v1/chatGpt/images/.. 경로를 읽을 수 없으므로 data URL로 바뀌어야 함
+        String input = stub.batchInputs().get(stub.batchInputs().size() - 1);
+        assertThat(input).contains("data:image/png;base64,AQID").doesNotContain(url);
+    }
+
+    @Test
+    void batchesCreatedBeforeAFailedPartAreCancelled() {
+        String requests = "[" + String.join(",", "x", "y", "z").replaceAll("(\\w)",
+                "{\"model\":\"gpt-4o\",\"messages\":[{\"role\":\"user\",\"content\":\"$1\"}]}") + "]";
+        int cancelled = stub.cancelledBatches().size();
+        int unfinished = batchJobStore.unfinished().size();
+        // 첫 batch는 만들어지고 두 번째 batch에서 실패
+        stub.failBatchesAfter(1);
+        try {
+            ResponseEntity<String> response = restTemplate.postForEntity("/api/v1/chatGpt/batches",
+                    new HttpEntity<>(requests, jsonHeaders()), String.class);
+
+            assertThat(response.getStatusCode().is5xxServerError()).isTrue();
+        } finally {
+            stub.failBatchesAfter(Integer.MAX_VALUE);
+        }
+        assertThat(stub.cancelledBatches()).hasSize(cancelled + 1);
+        assertThat(batchJobStore.unfinished()).hasSize(unfinished);
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
+
+    private String customId(String line) {
+        try {
+            return objectMapper.readTree(line).path("custom_id").asText();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("batches");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.npt.fgac.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.support.OpenAiStubServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test", "my.admission.enabled=true"})
+class ChatGPTControllerTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void promptReturnsChoicesInUpstreamShape() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/v1/chatGpt/prompt",
+                new HttpEntity<>("[{\"role\":\"user\",\"content\":\"hi\"}]", headers), String.class);
+
+        assertThat(response.getStatusCode().is2xxSuccessful()).isTrue();
+        JsonNode choice = objectMapper.readTree(response.getBody()).get(0);
+        assertThat(choice.get("index").asInt()).isZero();
+        assertThat(choice.path("message").path("role").asText()).isEqualTo("assistant");
+        assertThat(choice.path("message").path("content").asText()).isEqualTo("stub answer");
+        assertThat(choice.path("finish_reason").asText()).isEqualTo("stop");
+        assertThat(choice.has("logprobs")).isTrue();
+    }
+
+    @Test
+    void slimViewAcceptsGzipBodyAndReturnsOnlyContent() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/v1/chatGpt/prompt?view=slim",
+                new HttpEntity<>(gzip("[{\"role\":\"user\",\"content\":\"compressed question\"}]"), headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(objectMapper.readTree(response.getBody()).get(0).toString()).isEqualTo("{\"content\":\"stub answer\"}");
+        assertThat(stub.requestBodies().get(stub.requestBodies().size() - 1)).contains("compressed question");
+
+        ResponseEntity<String> badView = restTemplate.postForEntity("/api/v1/chatGpt/prompt?view=tiny",
+                new HttpEntity<>("[{\"role\":\"user\",\"content\":\"hi\"}]", jsonHeaders()), String.class);
+        assertThat(badView.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        HttpHeaders brotli = jsonHeaders();
+        brotli.set(HttpHeaders.CONTENT_ENCODING, "br");
+        ResponseEntity<String> unsupported = restTemplate.postForEntity("/api/v1/chatGpt/prompt",
+                new HttpEntity<>("[{\"role\":\"user\",\"content\":\"hi\"}]", brotli), String.class);
+        assertThat(unsupported.getStatusCode()).isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    @Test
+    void gzipBodyThatWaitsForAdmissionIsStillDecompressed() throws Exception {
+        // 호출자 하나가 동시에 4개까지 처리하므로 나머지 2개는 줄을 섰다가 다시 dispatch 됩니다.
+        Timer wait = meterRegistry.timer("fgac.admission.wait", "outcome", "admitted");
+        double waitedBefore = wait.totalTime(TimeUnit.MILLISECONDS);
+        stub.setResponseDelayMillis(300);
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<ResponseEntity<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                HttpHeaders headers = jsonHeaders();
+                headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                HttpEntity<byte[]> request = new HttpEntity<>(
+                        gzip("[{\"role\":\"user\",\"content\":\"queued compressed question " + i + "\"}]"), headers);
+                responses.add(clients.submit(() -> restTemplate.postForEntity("/api/v1/chatGpt/prompt", request, String.class)));
+            }
+
+            for (Future<ResponseEntity<String>> response : responses) {
+                assertThat(response.get(10, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+            }
+            assertThat(wait.totalTime(TimeUnit.MILLISECONDS)).isGreaterThan(waitedBefore);
+        } finally {
+            clients.shutdownNow();
+            stub.setResponseDelayMillis(0);
+        }
+    }
+
+    @Test
+    void inflatedBodyOverTheLimitIsRejectedWith413() throws Exception {
+        // 11MB로 풀리는 작은 gzip 본문 (my.compression.max-request-size=10MB)
+        HttpHeaders headers = jsonHeaders();
+        headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        byte[] bomb = gzip("[{\"role\":\"user\",\"content\":\"" + "a".repeat(11 * 1024 * 1024) + "\"}]");
+        int before = stub.requestBodies().size();
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/v1/chatGpt/prompt",
+                new HttpEntity<>(bomb, headers), String.class);
+
+        assertThat(bomb.length).isLessThan(64 * 1024);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+        assertThat(stub.requestBodies()).hasSize(before);
+    }
+
+    @Test
+    void unknownContentEncodingIsRejectedWith415() {
+        HttpHeaders headers = jsonHeaders();
+        headers.set(HttpHeaders.CONTENT_ENCODING, "zstd");
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/v1/chatGpt/prompt",
+                new HttpEntity<>("[{\"role\":\"user\",\"content\":\"hi\"}]", headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void promptPastDeadlineReturnsGatewayTimeout() {
+        stub.setResponseDelayMillis(2000);
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.set("X-Request-Timeout", "300ms");
+            long start = System.nanoTime();
+            ResponseEntity<String> response = restTemplate.postForEntity("/api/v1/chatGpt/prompt",
+                    new HttpEntity<>("[{\"role\":\"user\",\"content\":\"slow question\"}]", headers), String.class);
+
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1500));
+        } finally {
+            stub.setResponseDelayMillis(0);
+        }
+    }
+
+    @Test
+    void modelListReturnsModels() throws Exception {
+        ResponseEntity<String> response = restTemplate.getForEntity("/api/v1/chatGpt/modelList", String.class);
+
+        JsonNode models = objectMapper.readTree(response.getBody());
+        assertThat(models).hasSize(2);
+        assertThat(models.get(0).path("id").asText()).isEqualTo("gpt-4o");
+        assertThat(models.get(0).path("owned_by").asText()).isEqualTo("system");
+    }
+}
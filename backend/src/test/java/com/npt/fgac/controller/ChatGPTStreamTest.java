@@ -0,0 +1,151 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.service.CallerResolver;
+import com.npt.fgac.service.FairShareAdmission;
+import com.npt.fgac.service.RequestDeadlines;
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test", "my.admission.enabled=true"})
+class ChatGPTStreamTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private FairShareAdmission admission;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void relaysEachChunkBeforeUpstreamFinishes() throws Exception {
+        stub.setChunkDelayMillis(300);
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/prompt/stream"))
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"hi\"}]"))
+                .build();
+
+        long start = System.nanoTime();
+        HttpResponse<java.util.stream.Stream<String>> response = HttpClient.newHttpClient()
+                .send(request, HttpResponse.BodyHandlers.ofLines());
+        assertThat(response.headers().firstValue("Content-Type")).hasValueSatisfying(
+                contentType -> assertThat(contentType).startsWith("text/event-stream"));
+
+        List<String> events = new ArrayList<>();
+        long firstEventMillis = -1;
+        Iterator<String> lines = response.body().iterator();
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (!line.startsWith("data: ")) {
+                continue;
+            }
+            if (firstEventMillis < 0) {
+                firstEventMillis = (System.nanoTime() - start) / 1_000_000;
+            }
+            events.add(line.substring(6));
+        }
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(events).hasSize(5);
+        assertThat(events.get(0)).contains("\"content\":\"Hel\"");
+        assertThat(events.get(4)).isEqualTo("[DONE]");
+        // 첫 chunk는 업스트림 응답이 끝나기(chunk 4개 * 300ms) 전에 도착해야 한다
+        assertThat(firstEventMillis).isLessThan(totalMillis - 600);
+        assertThat(stub.requestBodies().get(stub.requestBodies().size() - 1)).contains("\"stream\":true");
+    }
+
+    @Test
+    void streamFailsWithGatewayTimeoutWhenFirstChunkMissesTheDeadline() throws Exception {
+        stub.setChunkDelayMillis(0);
+        stub.setResponseDelayMillis(2000);
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/prompt/stream"))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .header(RequestDeadlines.HEADER, "300ms")
+                    .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"too slow\"}]"))
+                    .build();
+
+            long start = System.nanoTime();
+            HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+
+            assertThat(response.statusCode()).isEqualTo(504);
+            // 업스트림이 첫 chunk를 보내기(2초) 전에 끝나야 한다
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1500);
+        } finally {
+            stub.setResponseDelayMillis(0);
+        }
+    }
+
+    @Test
+    void streamsOverTheCallerLimitWaitForTheirTurnInsteadOfFailing() throws Exception {
+        stub.setChunkDelayMillis(200);
+        HttpClient client = HttpClient.newHttpClient();
+        // 같은 세션에서 호출자 동시 처리 한도(my.admission.per-caller=4)보다 많이 보냄
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/prompt/stream"))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .header(CallerResolver.SESSION_HEADER, "stream-burst")
+                    .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"burst " + i + "\"}]"))
+                    .build();
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertThat(response.get(30, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+            assertThat(response.get().body()).contains("[DONE]");
+        }
+        assertThat(admission.inFlight()).isZero();
+        assertThat(admission.queued()).isZero();
+    }
+
+    @Test
+    void streamIsGzippedWhenTheClientAcceptsIt() throws Exception {
+        stub.setChunkDelayMillis(0);
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/prompt/stream"))
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"role\":\"user\",\"content\":\"gzip me\"}]"))
+                .build();
+
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.headers().firstValue("Content-Encoding")).hasValue("gzip");
+        String body = new String(new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes(), StandardCharsets.UTF_8);
+        assertThat(body).contains("\"content\":\"Hel\"").endsWith("data: [DONE]\n\n");
+    }
+}
@@ -0,0 +1,91 @@
+package com.npt.fgac.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.support.OpenAiStubServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// async 모드에서 업스트림 버킷을 1초에 하나로 두어, 미리 호출이 줄에서 기다리는 동안 다른 질문을 보냅니다.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test", "my.cache.enabled=false",
+                "my.concurrency.mode=async", "my.ratelimit.requests-per-minute=60", "my.ratelimit.tokens-per-minute=100000000",
+                "my.ratelimit.burst=1s", "my.prefetch.steps[0]=step one", "my.prefetch.steps[1]=step two"})
+class ConversationPrefetchCancelTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    private ResponseEntity<String> send(String conversationId, int size, String text) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-Conversation-Size", String.valueOf(size));
+        String body = objectMapper.writeValueAsString(Map.of("role", "user", "content", List.of(
+                Map.of("type", "text", "text", text),
+                Map.of("type", "image_url", "image_url", Map.of("url", "https://i.imgur.com/plan.png")))));
+        return restTemplate.postForEntity("/api/v1/chatGpt/conversations/" + conversationId + "/prompt?view=slim",
+                new HttpEntity<>(body, headers), String.class);
+    }
+
+    private long upstreamCalls(String text) {
+        return stub.requestBodies().stream().filter(body -> body.contains(text)).count();
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.counter("fgac.prefetch", "outcome", outcome).count();
+    }
+
+    @Test
+    void divergedSpeculationIsWithdrawnBeforeItReachesUpstream() throws Exception {
+        double startedBefore = count("started");
+        double divergedBefore = count("diverged");
+        // 첫 질문이 버킷을 비우므로 다음 단계 미리 호출은 1초 동안 줄에서 기다립니다.
+        assertThat(send("prefetch-cancelled", 0, "step one").getStatusCode()).isEqualTo(HttpStatus.OK);
+        long until = System.nanoTime() + 5_000_000_000L;
+        while (count("started") == startedBefore && System.nanoTime() < until) {
+            Thread.sleep(20);
+        }
+        assertThat(count("started")).isEqualTo(startedBefore + 1);
+
+        ResponseEntity<String> other = send("prefetch-cancelled", 2, "something else entirely");
+        // 취소되지 않았다면 다음 토큰으로 나갔을 시간까지 기다립니다.
+        Thread.sleep(1_500);
+
+        assertThat(other.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(count("diverged")).isEqualTo(divergedBefore + 1);
+        assertThat(upstreamCalls("something else entirely")).isEqualTo(1);
+        assertThat(upstreamCalls("step two")).isZero();
+    }
+}
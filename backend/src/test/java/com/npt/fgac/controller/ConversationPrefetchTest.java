@@ -0,0 +1,112 @@
+package com.npt.fgac.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.support.OpenAiStubServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 완성 응답 캐시를 끄고, 미리 호출한 결과만으로 업스트림 호출이 줄어드는지 봅니다.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test", "my.cache.enabled=false",
+                "my.prefetch.steps[0]=step one", "my.prefetch.steps[1]=step two"})
+class ConversationPrefetchTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+    private static final String IMAGE = "https://i.imgur.com/plan.png";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    // 화면이 보내는 모양 그대로 : 텍스트 파트 + 이미지 파트
+    private ResponseEntity<String> send(String conversationId, int size, String text) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-Conversation-Size", String.valueOf(size));
+        String body = objectMapper.writeValueAsString(Map.of("role", "user", "content", List.of(
+                Map.of("type", "text", "text", text),
+                Map.of("type", "image_url", "image_url", Map.of("url", IMAGE)))));
+        return restTemplate.postForEntity("/api/v1/chatGpt/conversations/" + conversationId + "/prompt?view=slim",
+                new HttpEntity<>(body, headers), String.class);
+    }
+
+    private long upstreamCalls(String text) {
+        return stub.requestBodies().stream().filter(body -> body.contains(text)).count();
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.counter("fgac.prefetch", "outcome", outcome).count();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long until = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean() && System.nanoTime() < until) {
+            Thread.sleep(20);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    @Test
+    void nextStepIsPrefetchedAndServedWithoutAnotherUpstreamCall() throws Exception {
+        double hitBefore = count("hit");
+        long callsBefore = upstreamCalls("step two");
+        assertThat(send("prefetch-hit", 0, "step one").getStatusCode()).isEqualTo(HttpStatus.OK);
+        // 답을 보낸 뒤 다음 단계 질문이 백그라운드로 나감
+        waitUntil(() -> upstreamCalls("step two") == callsBefore + 1);
+
+        ResponseEntity<String> next = send("prefetch-hit", 2, "step two");
+
+        assertThat(next.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(next.getBody()).isEqualTo("[{\"content\":\"stub answer\"}]");
+        assertThat(upstreamCalls("step two")).isEqualTo(callsBefore + 1);
+        assertThat(count("hit")).isEqualTo(hitBefore + 1);
+        // 미리 호출한 질문과 답도 대화 기록에 남음
+        ResponseEntity<String> history = restTemplate.getForEntity("/api/v1/chatGpt/conversations/prefetch-hit", String.class);
+        assertThat(history.getHeaders().getFirst("X-Conversation-Size")).isEqualTo("4");
+    }
+
+    @Test
+    void differentQuestionDropsTheSpeculationAndCallsUpstream() throws Exception {
+        double startedBefore = count("started");
+        double divergedBefore = count("diverged");
+        assertThat(send("prefetch-diverged", 0, "step one").getStatusCode()).isEqualTo(HttpStatus.OK);
+        waitUntil(() -> count("started") > startedBefore);
+
+        ResponseEntity<String> other = send("prefetch-diverged", 2, "something else entirely");
+
+        assertThat(other.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(upstreamCalls("something else entirely")).isEqualTo(1);
+        assertThat(count("diverged")).isEqualTo(divergedBefore + 1);
+    }
+}
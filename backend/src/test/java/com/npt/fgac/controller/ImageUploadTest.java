@@ -0,0 +1,96 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.service.ImgurService;
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test", "my.upload.max-size=1MB",
+                "my.image.store=imgur"})
+class ImageUploadTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ImgurService imgurService;
+
+    @DynamicPropertySource
+    static void imgurUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+        registry.add("my.api.imgur-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void uploadStreamsFileToImgur() {
+        ResponseEntity<String> response = upload(new byte[512 * 1024]);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo("https://i.imgur.com/stub.png");
+        OpenAiStubServer.Upload upload = stub.uploads().get(stub.uploads().size() - 1);
+        assertThat(upload.bytes()).isGreaterThan(512 * 1024);
+        // 본문을 미리 메모리에 모았다면 Content-Length가 붙습니다. 스트리밍이면 chunked로 나갑니다.
+        assertThat(upload.transferEncoding()).isEqualToIgnoringCase("chunked");
+        assertThat(upload.contentLength()).isNull();
+    }
+
+    @Test
+    void oversizedUploadIsRejected() {
+        int before = stub.uploads().size();
+
+        ResponseEntity<String> response = upload(new byte[2 * 1024 * 1024]);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+        assertThat(stub.uploads()).hasSize(before);
+    }
+
+    // 위 요청은 서블릿 multipart 제한에서 먼저 막히므로, 서비스의 크기 검사는 직접 불러서 확인합니다.
+    @Test
+    void serviceRejectsOversizedFileBeforeUploading() {
+        int before = stub.uploads().size();
+        MockMultipartFile file = new MockMultipartFile("image", "big.png", "image/png", new byte[1024 * 1024 + 1]);
+
+        assertThatThrownBy(() -> imgurService.uploadImage(file))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+        assertThat(stub.uploads()).hasSize(before);
+    }
+
+    private ResponseEntity<String> upload(byte[] image) {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("image", new ByteArrayResource(image) {
+            @Override
+            public String getFilename() {
+                return "test.png";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        return restTemplate.postForEntity("/api/v1/chatGpt/image", new HttpEntity<>(body, headers), String.class);
+    }
+}
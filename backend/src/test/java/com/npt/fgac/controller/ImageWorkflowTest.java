@@ -0,0 +1,251 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test", "my.cache.enabled=false"})
+class ImageWorkflowTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+    private static final Path imageDirectory = createTempDirectory();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+        registry.add("my.image.local.dir", imageDirectory::toString);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void storedImageUrlIsSentBeforeTheAnswer() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("text", "what is in this photo?");
+        body.add("image", file("photo.png", "not really a png"));
+
+        ResponseEntity<String> response = post(body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String events = response.getBody();
+        Matcher image = Pattern.compile("event:image\\s*\\ndata:(\\S+)").matcher(events);
+        assertThat(image.find()).isTrue();
+        assertThat(image.group(1)).startsWith("/api/v1/chatGpt/images/").endsWith(".png");
+        assertThat(events.indexOf("event:answer")).isGreaterThan(image.end());
+        assertThat(events).contains("stub answer").doesNotContain("event:error");
+        // 업스트림에는 저장소 경로 대신 data URL이 질문과 함께 들어갑니다.
+        String upstream = stub.requestBodies().get(stub.requestBodies().size() - 1);
+        assertThat(upstream).contains("what is in this photo?").contains("data:image/png;base64,");
+    }
+
+    @Test
+    void missingImageIsRejectedBeforeStreaming() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("text", "no image");
+
+        ResponseEntity<String> response = post(body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void eachImageIsAskedSeparatelyAndResultsAreMergedInOrder() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("text", "describe");
+        for (int i = 0; i < 3; i++) {
+            body.add("image", file("photo-" + i + ".png", "image " + i));
+        }
+        int before = stub.requestBodies().size();
+
+        ResponseEntity<String> response = post("/workflow/images", body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String events = response.getBody();
+        assertThat(count(events, "event:image")).isEqualTo(3);
+        assertThat(count(events, "event:answer")).isEqualTo(3);
+        assertThat(events).doesNotContain("event:error");
+        // done 이벤트는 index 순서대로 모은 결과
+        String done = events.substring(events.indexOf("event:done"));
+        assertThat(done).containsPattern("\\{\"index\":0,\"choices\".*\\{\"index\":1,\"choices\".*\\{\"index\":2,\"choices\"");
+        assertThat(stub.requestBodies().subList(before, stub.requestBodies().size()))
+                .hasSize(3)
+                .allSatisfy(upstream -> assertThat(count(upstream, "data:image/png;base64,")).isEqualTo(1));
+    }
+
+    @Test
+    void textItemsAreAskedTogetherAndStreamedAsTheyFinish() throws Exception {
+        // 첫 업스트림 연결 준비 시간이 재는 값에 섞이지 않도록 한 번 먼저 호출합니다.
+        assertThat(streamTexts("warm up")).hasSize(1);
+        // 들어온 순서대로 300 / 600 / 900ms 뒤에 응답
+        AtomicInteger calls = new AtomicInteger();
+        stub.setLatency(() -> 300L * calls.incrementAndGet());
+        try {
+            long startedAt = System.nanoTime();
+            List<Long> answeredMillis = streamTexts("first", "second", "third").stream()
+                    .map(at -> (at - startedAt) / 1_000_000)
+                    .toList();
+
+            // 하나씩 호출하면 1800ms 뒤에야 한꺼번에 오지만, 동시에 호출하므로 끝나는 대로 하나씩 옵니다.
+            assertThat(answeredMillis).hasSize(3);
+            assertThat(answeredMillis.get(1) - answeredMillis.get(0)).isGreaterThan(150L);
+            assertThat(answeredMillis.get(2) - answeredMillis.get(1)).isGreaterThan(150L);
+            assertThat(answeredMillis.get(2)).isLessThan(1_500L);
+        } finally {
+            stub.setResponseDelayMillis(0);
+        }
+    }
+
+    @Test
+    void packedImagesGoOutInOneMessage() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("mode", "packed");
+        body.add("text", "compare these");
+        body.add("image", file("left.png", "left"));
+        body.add("image", file("right.png", "right"));
+        int before = stub.requestBodies().size();
+
+        ResponseEntity<String> response = post("/workflow/images", body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(count(response.getBody(), "event:image")).isEqualTo(2);
+        assertThat(count(response.getBody(), "event:answer")).isEqualTo(1);
+        assertThat(stub.requestBodies()).hasSize(before + 1);
+        assertThat(count(stub.requestBodies().get(before), "data:image/png;base64,")).isEqualTo(2);
+    }
+
+    @Test
+    void severalPhotosOverTheSingleFileLimitInTotalAreAccepted() {
+        // 한 장은 파일 한도(my.upload.max-size=5MB) 안이지만 합치면 넘는 크기
+        byte[] photo = new byte[2 * 1024 * 1024];
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("text", "describe");
+        for (int i = 0; i < 3; i++) {
+            photo[0] = (byte) i;
+            body.add("image", file("large-" + i + ".jpg", photo.clone()));
+        }
+
+        ResponseEntity<String> response = post("/workflow/images", body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(count(response.getBody(), "event:answer")).isEqualTo(3);
+        assertThat(response.getBody()).doesNotContain("event:error");
+    }
+
+    @Test
+    void mismatchedTextAndImageCountsAreRejected() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("text", "first");
+        body.add("text", "second");
+        for (int i = 0; i < 3; i++) {
+            body.add("image", file("photo-" + i + ".png", "image " + i));
+        }
+
+        ResponseEntity<String> response = post("/workflow/images", body);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    // 질문만 보내고 스트림을 읽으면서 event:answer가 도착한 시각(nanoTime)을 모읍니다.
+    private List<Long> streamTexts(String... texts) throws Exception {
+        String boundary = "workflow-boundary";
+        StringBuilder body = new StringBuilder();
+        for (String text : texts) {
+            body.append("--").append(boundary).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"text\"\r\n\r\n")
+                    .append(text).append("\r\n");
+        }
+        body.append("--").append(boundary).append("--\r\n");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/chatGpt/workflow/images"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        HttpResponse<Stream<String>> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofLines());
+        assertThat(response.statusCode()).isEqualTo(200);
+        List<Long> answeredAt = new ArrayList<>();
+        response.body().forEach(line -> {
+            if (line.startsWith("event:answer")) {
+                answeredAt.add(System.nanoTime());
+            }
+        });
+        return answeredAt;
+    }
+
+    private ResponseEntity<String> post(MultiValueMap<String, Object> body) {
+        return post("/workflow/image", body);
+    }
+
+    private ResponseEntity<String> post(String path, MultiValueMap<String, Object> body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        return restTemplate.postForEntity("/api/v1/chatGpt" + path, new HttpEntity<>(body, headers), String.class);
+    }
+
+    private static ByteArrayResource file(String name, String content) {
+        return file(name, content.getBytes());
+    }
+
+    private static ByteArrayResource file(String name, byte[] content) {
+        return new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return name;
+            }
+        };
+    }
+
+    private static int count(String text, String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + token.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("images");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
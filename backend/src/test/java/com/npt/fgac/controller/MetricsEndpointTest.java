@@ -0,0 +1,65 @@
+package com.npt.fgac.controller;
+
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@AutoConfigureObservability
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test"})
+class MetricsEndpointTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void upstreamCallsAreExposedToPrometheus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> prompt = restTemplate.postForEntity("/api/v1/chatGpt/prompt",
+                new HttpEntity<>("[{\"role\":\"user\",\"content\":\"metrics\"}]", headers), String.class);
+        assertThat(prompt.getStatusCode().is2xxSuccessful()).isTrue();
+
+        String scrape = restTemplate.getForObject("/actuator/prometheus", String.class);
+
+        assertThat(scrape)
+                .contains("fgac_upstream_seconds_count{")
+                .contains("endpoint=\"chat.completions\"")
+                .contains("outcome=\"SUCCESS\"")
+                .contains("fgac_upstream_ttfb_seconds_bucket{")
+                .containsPattern("fgac_upstream_request_size_bytes_count\\{[^}]*endpoint=\"chat.completions\"")
+                .contains("fgac_upstream_response_size_bytes_count{")
+                .contains("fgac_json_parse_seconds_count{")
+                // 스텁 응답의 usage : prompt 12, completion 3
+                .containsPattern("fgac_tokens_total\\{[^}]*type=\"prompt\"[^}]*} 12")
+                .containsPattern("fgac_tokens_total\\{[^}]*type=\"completion\"[^}]*} 3")
+                .contains("fgac_upstream_in_flight{")
+                .contains("fgac_upstream_queue")
+                .contains("cache_gets_total{")
+                .contains("httpcomponents_httpclient_pool_total_max{")
+                .contains("executor_pool_size_threads{");
+    }
+}
@@ -0,0 +1,114 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AuditLogServiceImplTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private final List<AuditLogServiceImpl> services = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        services.forEach(AuditLogServiceImpl::shutdown);
+    }
+
+    private AuditLogServiceImpl service(double sampleRate, int bufferSize, Consumer<String> sink) {
+        AuditLogServiceImpl service = new AuditLogServiceImpl(objectMapper, meterRegistry, true, sampleRate, bufferSize, 16, sink);
+        services.add(service);
+        return service;
+    }
+
+    private static CompletionRequestDto request(Object content) {
+        return new CompletionRequestDto(List.of(new ChatMessageDto("user", content)));
+    }
+
+    private double events(String result) {
+        return meterRegistry.get("fgac.audit.events").tag("result", result).counter().count();
+    }
+
+    @Test
+    void longTextIsTruncatedAndInlineImagesAreRedacted() throws Exception {
+        AuditLogServiceImpl service = service(1.0, 8, lines::add);
+        String image = "data:image/png;base64," + "A".repeat(10_000);
+        Object content = List.of(Map.of("type", "text", "text", "x".repeat(100)),
+                Map.of("type", "image_url", "image_url", Map.of("url", image)));
+
+        service.audit("prompt", request(content), () -> "answer");
+
+        JsonNode event = objectMapper.readTree(lines.poll(5, TimeUnit.SECONDS));
+        assertThat(event.path("endpoint").asText()).isEqualTo("prompt");
+        assertThat(event.path("status").asText()).isEqualTo("200");
+        assertThat(event.path("response").asText()).isEqualTo("answer");
+        JsonNode parts = event.path("request").path("messages").get(0).path("content");
+        assertThat(parts.get(0).path("text").asText()).isEqualTo("x".repeat(16) + "...(84 more chars)");
+        assertThat(parts.get(1).path("image_url").path("url").asText()).isEqualTo("[data:image/png, " + image.length() + " chars]");
+    }
+
+    @Test
+    void failuresAreRecordedEvenWhenSuccessesAreSampledOut() throws Exception {
+        AuditLogServiceImpl service = service(0.0, 8, lines::add);
+
+        service.auditAsync("prompt", request("hi"), () -> CompletableFuture.completedFuture("ok")).join();
+        CompletableFuture<String> failed = service.auditAsync("prompt", request("hi"),
+                () -> CompletableFuture.failedFuture(new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT)));
+
+        assertThatThrownBy(failed::join).hasCauseInstanceOf(ResponseStatusException.class);
+        JsonNode event = objectMapper.readTree(lines.poll(5, TimeUnit.SECONDS));
+        assertThat(event.path("status").asText()).isEqualTo("504");
+        assertThat(event.has("response")).isFalse();
+        assertThat(lines).isEmpty();
+        assertThat(events("sampled_out")).isEqualTo(1);
+    }
+
+    @Test
+    void slowWriterDropsOldestRecordsInsteadOfBlockingCallers() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AuditLogServiceImpl service = service(1.0, 2, line -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lines.add(line);
+        });
+
+        // 첫 기록을 쓰는 동안 멈춰 있게 하고, 나머지 4개 중 버퍼(2개)에 들어가지 못한 2개는 버려집니다.
+        service.audit("prompt", request("first"), () -> "0");
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 4; i++) {
+            service.audit("prompt", request("next"), String.valueOf(i)::toString);
+        }
+        assertThat(events("dropped")).isEqualTo(2);
+        release.countDown();
+
+        List<String> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(objectMapper.readTree(lines.poll(5, TimeUnit.SECONDS)).path("response").asText());
+        }
+        assertThat(responses).containsExactly("0", "3", "4");
+    }
+}
@@ -0,0 +1,120 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompletionCacheTest {
+    private final CompletionCache cache = new CompletionCache(new ObjectMapper(), true, DataSize.ofMegabytes(1), Duration.ofMinutes(1));
+
+    private static CompletionRequestDto request(Map<String, Object> part) {
+        return new CompletionRequestDto(List.of(new ChatMessageDto("user", List.of(part))));
+    }
+
+    @Test
+    void sameRequestWithDifferentKeyOrderHasSameKey() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("type", "text");
+        first.put("text", "hello");
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("text", "hello");
+        second.put("type", "text");
+
+        assertThat(cache.key(request(first))).isEqualTo(cache.key(request(second)));
+        assertThat(cache.key(request(first))).isNotEqualTo(cache.key(request(Map.of("type", "text", "text", "bye"))));
+    }
+
+    @Test
+    void concurrentIdenticalRequestsShareOneUpstreamCall() {
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        CompletableFuture<ChatCompletionResponseDto> upstream = new CompletableFuture<>();
+        CompletionRequestDto request = request(Map.of("type", "text", "text", "same"));
+
+        CompletableFuture<ChatCompletionResponseDto> first = cache.get(request, () -> {
+            upstreamCalls.incrementAndGet();
+            return upstream;
+        });
+        CompletableFuture<ChatCompletionResponseDto> second = cache.get(request, () -> {
+            upstreamCalls.incrementAndGet();
+            return upstream;
+        });
+        upstream.complete(new ChatCompletionResponseDto("id", "chat.completion", 0L, "gpt-4o", List.of(), null));
+
+        assertThat(upstreamCalls).hasValue(1);
+        assertThat(first.join()).isSameAs(second.join());
+        assertThat(cache.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void failedCallsAreNotCached() {
+        CompletionRequestDto request = request(Map.of("type", "text", "text", "fails"));
+        cache.get(request, () -> CompletableFuture.failedFuture(new IllegalStateException("429")));
+
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        cache.get(request, () -> {
+            upstreamCalls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+
+        assertThat(upstreamCalls).hasValue(1);
+    }
+
+    @Test
+    void slowBlockingLoaderDoesNotHoldTheCacheLock() throws InterruptedException {
+        CompletionRequestDto slow = request(Map.of("type", "text", "text", "slow"));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ChatCompletionResponseDto response = new ChatCompletionResponseDto("id", "chat.completion", 0L, "gpt-4o", List.of(), null);
+        // blocking 모드처럼 업스트림 호출이 끝나야 loader가 돌아옴
+        CompletableFuture<ChatCompletionResponseDto> first = CompletableFuture.supplyAsync(() -> cache.get(slow, () -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(response);
+        })).thenCompose(future -> future);
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // 같은 키는 호출 중인 future를 바로 받고, 다른 키는 기다리지 않고 호출됨
+        CompletableFuture<CompletableFuture<ChatCompletionResponseDto>> same =
+                CompletableFuture.supplyAsync(() -> cache.get(slow, CompletableFuture::new));
+        CompletableFuture<ChatCompletionResponseDto> other = CompletableFuture.supplyAsync(() ->
+                cache.get(request(Map.of("type", "text", "text", "fast")), () -> CompletableFuture.completedFuture(response)))
+                .thenCompose(future -> future);
+        assertThat(same).succeedsWithin(Duration.ofSeconds(1));
+        assertThat(other).succeedsWithin(Duration.ofSeconds(1));
+        assertThat(same.join()).isNotDone();
+
+        release.countDown();
+        assertThat(first).succeedsWithin(Duration.ofSeconds(5));
+        assertThat(same.join()).succeedsWithin(Duration.ofSeconds(5)).isSameAs(response);
+    }
+
+    @Test
+    void loaderThatThrowsFailsTheEntry() {
+        CompletionRequestDto request = request(Map.of("type", "text", "text", "throws"));
+
+        CompletableFuture<ChatCompletionResponseDto> result = cache.get(request, () -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertThat(result).isCompletedExceptionally();
+        assertThat(cache.get(request, CompletableFuture::new)).isNotDone();
+    }
+}
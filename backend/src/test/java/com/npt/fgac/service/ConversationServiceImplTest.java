@@ -0,0 +1,111 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConversationServiceImplTest {
+
+    private ConversationServiceImpl conversationService(int tokenBudget) {
+        ConversationServiceImpl service = new ConversationServiceImpl(new InMemoryConversationStore(100),
+                new TokenCounter(DataSize.ofMegabytes(1)));
+        ReflectionTestUtils.setField(service, "tokenBudget", tokenBudget);
+        return service;
+    }
+
+    private static ChatMessageDto userWithImage(String text, String url) {
+        return new ChatMessageDto("user", List.of(
+                Map.of("type", "text", "text", text),
+                Map.of("type", "image_url", "image_url", Map.of("url", url))));
+    }
+
+    @Test
+    void keepsImageOnlyOnNewestMessageThatRepeatsIt() {
+        ConversationServiceImpl service = conversationService(100_000);
+        service.append("c1", userWithImage("step 1", "https://i.imgur.com/a.png"), null);
+        service.appendReply("c1", new ChatMessageDto("assistant", "answer 1"));
+
+        List<ChatMessageDto> context = service.append("c1", userWithImage("step 2", "https://i.imgur.com/a.png"), 2);
+
+        assertThat(context).hasSize(3);
+        assertThat((List<?>) context.get(0).getContent()).hasSize(1);
+        assertThat((List<?>) context.get(2).getContent()).hasSize(2);
+        // 저장된 원본 기록은 바뀌지 않는다
+        assertThat((List<?>) service.history("c1").get(0).getContent()).hasSize(2);
+    }
+
+    @Test
+    void dropsOldestTurnsOverBudgetButKeepsSystemAndLastMessage() {
+        ConversationServiceImpl service = conversationService(40);
+        service.append("c2", new ChatMessageDto("system", "be brief"), null);
+        for (int i = 0; i < 10; i++) {
+            service.append("c2", new ChatMessageDto("user", "question number " + i + " with some padding text"), null);
+        }
+
+        List<ChatMessageDto> context = service.compact(service.history("c2"));
+
+        assertThat(context.get(0).getRole()).isEqualTo("system");
+        assertThat(context.get(context.size() - 1).getContent()).isEqualTo("question number 9 with some padding text");
+        assertThat(context.size()).isLessThan(11);
+    }
+
+    @Test
+    void rejectsOutOfSyncClient() {
+        ConversationServiceImpl service = conversationService(1000);
+        service.append("c3", new ChatMessageDto("user", "hi"), null);
+
+        assertThatThrownBy(() -> service.append("c3", new ChatMessageDto("user", "again"), 5))
+                .isInstanceOf(ResponseStatusException.class);
+    }
+
+    @Test
+    void onlyOneOfConcurrentTurnsWithSameExpectedSizeIsAppended() throws Exception {
+        ConversationServiceImpl service = conversationService(1000);
+        service.append("c4", new ChatMessageDto("user", "hi"), null);
+
+        int turns = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService clients = Executors.newFixedThreadPool(turns);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < turns; i++) {
+                ChatMessageDto message = new ChatMessageDto("user", "turn " + i);
+                results.add(clients.submit(() -> {
+                    start.await();
+                    try {
+                        service.append("c4", message, 1);
+                        return true;
+                    } catch (ResponseStatusException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int appended = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(5, TimeUnit.SECONDS)) {
+                    appended++;
+                }
+            }
+            assertThat(appended).isEqualTo(1);
+            assertThat(service.size("c4")).isEqualTo(2);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.config.AdmissionFilter;
+import com.npt.fgac.config.AdmissionProperties;
+import com.npt.fgac.config.CallerProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FairShareAdmissionTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private FairShareAdmission admission(int maxConcurrent, int perCaller, int maxQueue, Duration targetWait,
+                                         Duration maxWait, Map<String, Double> weights) {
+        return new FairShareAdmission(new AdmissionProperties(true, maxConcurrent, perCaller, maxQueue, targetWait, maxWait, weights),
+                meterRegistry);
+    }
+
+    private double rejected(String reason) {
+        return meterRegistry.get("fgac.admission.rejected").tag("reason", reason).counter().count();
+    }
+
+    private static String admittedCaller(CompletableFuture<FairShareAdmission.Permit> future) {
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join().getCaller() : null;
+    }
+
+    @Test
+    void heavyCallerIsBoundedAndOthersTakeTurnsByWeight() {
+        FairShareAdmission admission = admission(2, 2, 100, Duration.ofMinutes(1), Duration.ofMinutes(1),
+                Map.of("gold", 2.0));
+        // 무거운 호출자가 자리를 모두 차지하고 줄도 먼저 세워 둠
+        FairShareAdmission.Permit first = admission.acquire("heavy").join();
+        FairShareAdmission.Permit second = admission.acquire("heavy").join();
+        List<CompletableFuture<FairShareAdmission.Permit>> waiting = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            waiting.add(admission.acquire("heavy"));
+        }
+        for (int i = 0; i < 4; i++) {
+            waiting.add(admission.acquire("gold"));
+            waiting.add(admission.acquire("light"));
+        }
+        assertThat(admission.queued()).isEqualTo(14);
+
+        // 한 자리씩 비울 때마다 누가 들어가는지 기록
+        List<String> order = new ArrayList<>();
+        List<FairShareAdmission.Permit> running = new ArrayList<>(List.of(first, second));
+        for (int i = 0; i < 8; i++) {
+            running.remove(0).release();
+            for (CompletableFuture<FairShareAdmission.Permit> future : waiting) {
+                String caller = admittedCaller(future);
+                if (caller != null && running.stream().noneMatch(permit -> permit == future.join())) {
+                    running.add(future.join());
+                    order.add(caller);
+                    waiting.remove(future);
+                    break;
+                }
+            }
+        }
+
+        // weight 2인 gold가 light보다 자주 들어가고, heavy는 먼저 줄을 섰어도 앞자리를 차지하지 못함
+        assertThat(order).hasSize(8);
+        assertThat(order.stream().filter("gold"::equals).count()).isGreaterThan(order.stream().filter("light"::equals).count());
+        assertThat(order.stream().filter("heavy"::equals).count()).isLessThanOrEqualTo(3);
+        assertThat(order.subList(0, 4)).contains("gold", "light");
+    }
+
+    @Test
+    void callerOverItsBulkheadWaitsWhileOthersGetFreeSlots() {
+        FairShareAdmission admission = admission(10, 1, 10, Duration.ofMinutes(1), Duration.ofMinutes(1), Map.of());
+        FairShareAdmission.Permit permit = admission.acquire("alice").join();
+
+        CompletableFuture<FairShareAdmission.Permit> aliceAgain = admission.acquire("alice");
+        CompletableFuture<FairShareAdmission.Permit> bob = admission.acquire("bob");
+
+        assertThat(aliceAgain).isNotDone();
+        assertThat(bob).isCompleted();
+        assertThat(admission.inFlight()).isEqualTo(2);
+        permit.release();
+        permit.release();
+        assertThat(aliceAgain).isCompleted();
+        assertThat(admission.inFlight()).isEqualTo(2);
+    }
+
+    @Test
+    void fullQueueSlowServiceAndLongWaitAreShedWithRetryAfter() throws InterruptedException {
+        FairShareAdmission admission = admission(1, 1, 1, Duration.ofMillis(200), Duration.ofMillis(100), Map.of());
+        // 가득 찬 줄
+        FairShareAdmission.Permit permit = admission.acquire("alice").join();
+        CompletableFuture<FairShareAdmission.Permit> queued = admission.acquire("alice");
+        assertThatThrownBy(() -> admission.acquire("alice"))
+                .isInstanceOfSatisfying(FairShareAdmission.RejectedException.class,
+                        e -> assertThat(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isNotNull());
+        assertThat(rejected("queue_full")).isEqualTo(1);
+
+        // 줄에서 시간이 다 됨
+        assertThat(queued).failsWithin(Duration.ofSeconds(5));
+        assertThat(rejected("timeout")).isEqualTo(1);
+        assertThat(admission.queued()).isZero();
+
+        // 처리 시간이 target-wait보다 길었으면 다음 대기는 바로 거절
+        Thread.sleep(250);
+        permit.release();
+        FairShareAdmission.Permit slow = admission.acquire("alice").join();
+        assertThatThrownBy(() -> admission.acquire("bob")).isInstanceOf(FairShareAdmission.RejectedException.class);
+        assertThat(rejected("latency")).isEqualTo(1);
+        slow.release();
+        assertThat(admission.inFlight()).isZero();
+    }
+
+    @Test
+    void filterReleasesThePermitAfterTheResponseAndRejectsWith429() throws Exception {
+        FairShareAdmission admission = admission(1, 1, 0, Duration.ofMinutes(1), Duration.ofMinutes(1), Map.of());
+        AdmissionFilter filter = new AdmissionFilter(admission, new CallerResolver(new CallerProperties(List.of(), 4, Duration.ofMinutes(30), 1000)));
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/chatGpt/prompt");
+
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(admission.inFlight()).isZero();
+        // 자리가 없고 줄도 0이면 429
+        FairShareAdmission.Permit permit = admission.acquire("ip:127.0.0.1").join();
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/v1/chatGpt/prompt"), rejected, new MockFilterChain());
+        assertThat(rejected.getStatus()).isEqualTo(429);
+        assertThat(rejected.getHeader(HttpHeaders.RETRY_AFTER)).isNotNull();
+        // GET은 입장 검사를 하지 않음
+        MockHttpServletResponse get = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/v1/chatGpt/modelList"), get, new MockFilterChain());
+        assertThat(get.getStatus()).isEqualTo(200);
+        permit.release();
+    }
+}
@@ -0,0 +1,131 @@
+package com.npt.fgac.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImagePreprocessServiceImplTest {
+    private final ImagePreprocessServiceImpl service = new ImagePreprocessServiceImpl(true, 512, 5_000_000L, 0.85f, 1, 8);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void largeImageIsResizedToMaxEdgeAsJpeg() throws IOException {
+        Resource result = service.preprocess(named(png(2000, 1000, false), "photo.png"));
+
+        BufferedImage image = read(result);
+        assertThat(image.getWidth()).isEqualTo(512);
+        assertThat(image.getHeight()).isEqualTo(256);
+        assertThat(result.getFilename()).isEqualTo("photo.jpg");
+        // 결과는 힙이 아니라 임시 파일에 있고, close하면 지워짐
+        assertThat(result).isInstanceOf(ProcessedImage.class);
+        Path file = result.getFile().toPath();
+        ((ProcessedImage) result).close();
+        assertThat(Files.exists(file)).isFalse();
+    }
+
+    @Test
+    void veryLargeImageIsSubsampledWhileDecoding() throws IOException {
+        Resource result = service.preprocess(named(png(3000, 1500, false), "wide.png"));
+
+        BufferedImage image = read(result);
+        assertThat(image.getWidth()).isEqualTo(512);
+        assertThat(image.getHeight()).isEqualTo(256);
+        ((ProcessedImage) result).close();
+    }
+
+    @Test
+    void dimensionsOverPixelCapAreRejectedBeforeDecoding() {
+        // 헤더만 있는 30000x30000 PNG : 디코딩했다면 3.6GB 비트맵
+        Resource bomb = named(pngHeader(30_000, 30_000), "bomb.png");
+
+        assertThatThrownBy(() -> service.preprocess(bomb))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+    }
+
+    @Test
+    void transparentImageStaysPng() throws IOException {
+        Resource result = service.preprocess(named(png(1024, 1024, true), "icon.png"));
+
+        BufferedImage image = read(result);
+        assertThat(image.getWidth()).isEqualTo(512);
+        assertThat(image.getColorModel().hasAlpha()).isTrue();
+        assertThat(result.getFilename()).isEqualTo("icon.png");
+        ((ProcessedImage) result).close();
+    }
+
+    @Test
+    void unreadableInputIsPassedThrough() {
+        Resource original = named(new byte[]{1, 2, 3}, "unknown.webp");
+
+        assertThat(service.preprocess(original)).isSameAs(original);
+    }
+
+    static byte[] png(int width, int height, boolean alpha) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int a = alpha ? (x * 255 / width) << 24 : 0xFF000000;
+                image.setRGB(x, y, a | ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x ^ y) & 0xFF));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    // PNG 시그니처 + IHDR + IEND (픽셀 데이터 없음)
+    private static byte[] pngHeader(int width, int height) {
+        ByteBuffer ihdr = ByteBuffer.allocate(13).putInt(width).putInt(height)
+                .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        ByteBuffer png = ByteBuffer.allocate(8 + 25 + 12);
+        png.put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        chunk(png, "IHDR", ihdr.array());
+        chunk(png, "IEND", new byte[0]);
+        return png.array();
+    }
+
+    private static void chunk(ByteBuffer png, String type, byte[] data) {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        png.putInt(data.length).put(name).put(data).putInt((int) crc.getValue());
+    }
+
+    static Resource named(byte[] bytes, String filename) {
+        return new ByteArrayResource(bytes) {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+        };
+    }
+
+    private static BufferedImage read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return ImageIO.read(in);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatCompletionResponseDto;
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// 저장 스레드 하나로 두고, 첫 이미지 저장을 붙잡아 둔 채 나머지는 대기열에 남깁니다.
+@SpringBootTest(properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test",
+        "my.cache.enabled=false", "my.workflow.workers=1"})
+class ImageWorkflowServiceImplTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+    private static final Path imageDirectory = createTempDirectory();
+
+    @Autowired
+    private ImageWorkflowService imageWorkflowService;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+        registry.add("my.image.local.dir", imageDirectory::toString);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    void cancellingTheWorkflowStopsSavesAndPromptsThatHaveNotStarted() throws Exception {
+        CountDownLatch opened = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Set<String> read = ConcurrentHashMap.newKeySet();
+        List<MultipartFile> images = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            images.add(new BlockingFile("photo-" + i + ".png", read, opened, release));
+        }
+        AtomicInteger answered = new AtomicInteger();
+        int before = stub.requestBodies().size();
+
+        CompletableFuture<List<ImageWorkflowService.Result>> result = imageWorkflowService.promptImages(images,
+                List.of("describe"), false, Deadline.none(), progress(answered));
+        assertThat(opened.await(5, TimeUnit.SECONDS)).isTrue();
+        result.cancel(true);
+        release.countDown();
+        Thread.sleep(300);
+
+        // 붙잡혀 있던 첫 저장만 끝나고, 대기열의 두 장과 모든 호출은 시작하지 않습니다.
+        assertThat(read).containsExactly("photo-0.png");
+        assertThat(answered.get()).isZero();
+        assertThat(stub.requestBodies()).hasSize(before);
+    }
+
+    private static ImageWorkflowService.Progress progress(AtomicInteger answered) {
+        return new ImageWorkflowService.Progress() {
+            @Override
+            public void stored(int index, String imageUrl) {
+            }
+
+            @Override
+            public void answered(int index, ChatCompletionResponseDto response) {
+                answered.incrementAndGet();
+            }
+
+            @Override
+            public void failed(int index, Throwable failure) {
+            }
+        };
+    }
+
+    // 저장소가 내용을 읽기 시작하면 release될 때까지 기다리는 파일
+    private static final class BlockingFile extends MockMultipartFile {
+        private final Set<String> read;
+        private final CountDownLatch opened;
+        private final CountDownLatch release;
+
+        BlockingFile(String name, Set<String> read, CountDownLatch opened, CountDownLatch release) {
+            super("image", name, "image/png", name.getBytes());
+            this.read = read;
+            this.opened = opened;
+            this.release = release;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            read.add(getOriginalFilename());
+            opened.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            return super.getInputStream();
+        }
+    }
+
+    private static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("images");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
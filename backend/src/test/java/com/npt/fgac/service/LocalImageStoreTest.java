@@ -0,0 +1,111 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.ImageMessageContentDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ImageText;
+import com.npt.fgac.dto.ImageUrl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LocalImageStoreTest {
+    @TempDir
+    Path directory;
+
+    private final AtomicInteger preprocessed = new AtomicInteger();
+
+    private LocalImageStore store(String serve) {
+        return new LocalImageStore(image -> {
+            preprocessed.incrementAndGet();
+            return image;
+        }, new UploadLimiter(DataSize.ofBytes(16), 1, Duration.ZERO), directory, serve, "https://fgac.example.com/");
+    }
+
+    @Test
+    void sameImageIsStoredOnce() throws IOException {
+        LocalImageStore store = store("data-url");
+        byte[] photo = {1, 2, 3, 4};
+
+        String first = store.save(new MockMultipartFile("image", "a.png", "image/png", photo));
+        String second = store.save(new MockMultipartFile("image", "b.png", "image/png", photo));
+
+        assertThat(first).isEqualTo(second).startsWith(LocalImageStore.URL_PREFIX).endsWith(".png");
+        assertThat(preprocessed).hasValue(1);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).hasSize(1);
+        }
+    }
+
+    @Test
+    void oversizedUploadIsRejectedBeforeStoring() throws IOException {
+        LocalImageStore store = store("data-url");
+
+        assertThatThrownBy(() -> store.save(new MockMultipartFile("image", "big.png", "image/png", new byte[17])))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+        assertThat(preprocessed).hasValue(0);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void localUrlsAreInlinedAsDataUrls() {
+        LocalImageStore store = store("data-url");
+        String url = store.save(new MockMultipartFile("image", "a.png", "image/png", new byte[]{1, 2, 3}));
+        ChatMessageDto message = new ChatMessageDto("user", List.of(
+                Map.of("type", "text", "text", "what is this?"),
+                Map.of("type", "image_url", "image_url", Map.of("url", url))));
+
+        List<ChatMessageDto> resolved = store.resolveImages(List.of(message));
+
+        Map<?, ?> imagePart = (Map<?, ?>) ((List<?>) resolved.get(0).getContent()).get(1);
+        assertThat(((Map<?, ?>) imagePart.get("image_url")).get("url")).isEqualTo("data:image/png;base64,AQID");
+        // 원본 기록은 짧은 경로를 그대로 유지합니다.
+        assertThat(((Map<?, ?>) ((Map<?, ?>) ((List<?>) message.getContent()).get(1)).get("image_url")).get("url")).isEqualTo(url);
+    }
+
+    @Test
+    void imagePromptIsResolvedIntoACopy() {
+        LocalImageStore store = store("data-url");
+        String url = store.save(new MockMultipartFile("image", "a.png", "image/png", new byte[]{1, 2, 3}));
+        ImageMessageDto request = new ImageMessageDto("gpt-4o", List.of(new ImageMessageContentDto("user", List.of(
+                new ImageText("text", "what is this?", null), new ImageText("image_url", null, new ImageUrl(url))))));
+
+        ImageMessageDto resolved = store.resolveImages(request);
+
+        assertThat(resolved.getMessages().get(0).getContent().get(1).getImageUrl().getUrl()).isEqualTo("data:image/png;base64,AQID");
+        // 캐시 키를 만든 요청은 그대로
+        assertThat(request.getMessages().get(0).getContent().get(1).getImageUrl().getUrl()).isEqualTo(url);
+    }
+
+    @Test
+    void publicUrlModePrefixesHost() {
+        LocalImageStore store = store("public-url");
+        String url = store.save(new MockMultipartFile("image", "a.jpg", "image/jpeg", new byte[]{9}));
+
+        assertThat(store.resolve(url)).isEqualTo("https://fgac.example.com" + url);
+        assertThat(store.resolve("https://i.imgur.com/x.png")).isEqualTo("https://i.imgur.com/x.png");
+    }
+
+    @Test
+    void pathTraversalIsNotServed() {
+        assertThat(store("data-url").load("../application.yml")).isEmpty();
+    }
+}
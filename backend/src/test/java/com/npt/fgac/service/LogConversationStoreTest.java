@@ -0,0 +1,226 @@
+package com.npt.fgac.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.npt.fgac.dto.ChatMessageDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LogConversationStoreTest {
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final List<LogConversationStore> stores = new ArrayList<>();
+
+    @TempDir
+    private Path directory;
+
+    @AfterEach
+    void close() {
+        stores.forEach(LogConversationStore::close);
+    }
+
+    // 백그라운드 fsync / 정리는 테스트 중에 돌지 않게 길게 잡고, 닫을 때 내려씁니다.
+    private LogConversationStore open(DataSize segmentSize) {
+        return open(segmentSize, 0, Duration.ZERO);
+    }
+
+    private LogConversationStore open(DataSize segmentSize, int maxConversations, Duration retention) {
+        LogConversationStore store = new LogConversationStore(objectMapper, directory, segmentSize, Duration.ofHours(1), 0.5,
+                maxConversations, retention, 100);
+        stores.add(store);
+        return store;
+    }
+
+    private LogConversationStore reopen(LogConversationStore store, DataSize segmentSize) {
+        store.close();
+        stores.remove(store);
+        return open(segmentSize);
+    }
+
+    private static ChatMessageDto message(String role, String text) {
+        return new ChatMessageDto(role, text);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static List<Object> contents(List<ChatMessageDto> messages) {
+        return messages.stream().map(ChatMessageDto::getContent).toList();
+    }
+
+    @Test
+    void historySurvivesRestartAndPagesReadOnlyTheRequestedRange() {
+        LogConversationStore store = open(DataSize.ofMegabytes(1));
+        for (int i = 0; i < 25; i++) {
+            store.append("a", message(i % 2 == 0 ? "user" : "assistant", "turn " + i));
+        }
+        store.append("b", new ChatMessageDto("user", List.of(Map.of("type", "text", "text", "with parts"))));
+        store.replace("c", List.of(message("user", "old")));
+        store.replace("c", List.of(message("system", "be brief"), message("user", "new")));
+        store.append("d", message("user", "gone"));
+        store.delete("d");
+        // 다른 인스턴스는 같은 디렉터리를 열 수 없습니다.
+        assertThatThrownBy(() -> open(DataSize.ofMegabytes(1))).isInstanceOf(IllegalStateException.class);
+
+        store = reopen(store, DataSize.ofMegabytes(1));
+
+        assertThat(store.size("a")).isEqualTo(25);
+        assertThat(contents(store.messages("a", 10, 5))).containsExactly("turn 10", "turn 11", "turn 12", "turn 13", "turn 14");
+        assertThat(contents(store.messages("a", 20, 100))).hasSize(5);
+        assertThat(store.messages("a").get(24).getRole()).isEqualTo("user");
+        assertThat(store.messages("b").get(0).getContent()).isEqualTo(List.of(Map.of("type", "text", "text", "with parts")));
+        assertThat(contents(store.messages("c"))).containsExactly("be brief", "new");
+        assertThat(store.messages("d")).isEmpty();
+        assertThat(store.size("d")).isZero();
+    }
+
+    @Test
+    void tornTailFromACrashIsCutOffOnRecovery() throws IOException {
+        LogConversationStore store = open(DataSize.ofMegabytes(1));
+        store.append("a", message("user", "first"));
+        store.append("a", message("assistant", "second"));
+        store.close();
+        stores.remove(store);
+        Path segment = segments().get(segments().size() - 1);
+        long intact = Files.size(segment);
+        // 기록 머리(길이 100, CRC)만 쓰고 죽은 경우
+        Files.write(segment, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 1, 0}, StandardOpenOption.APPEND);
+
+        store = open(DataSize.ofMegabytes(1));
+
+        assertThat(Files.size(segment)).isEqualTo(intact);
+        assertThat(contents(store.messages("a"))).containsExactly("first", "second");
+        store.append("a", message("user", "third"));
+        store = reopen(store, DataSize.ofMegabytes(1));
+        assertThat(contents(store.messages("a"))).containsExactly("first", "second", "third");
+    }
+
+    @Test
+    void compactionMovesLiveConversationsAndDoesNotResurrectDeletedOnes() throws IOException {
+        DataSize segmentSize = DataSize.ofBytes(512);
+        LogConversationStore store = open(segmentSize);
+        store.append("kept", message("user", "kept 0"));
+        store.append("restarted", message("user", "before delete"));
+        for (int i = 0; i < 20; i++) {
+            store.replace("churn", List.of(message("user", "version " + i)));
+        }
+        store.delete("restarted");
+        for (int i = 0; i < 20; i++) {
+            store.replace("churn", List.of(message("user", "version " + (20 + i))));
+        }
+        store.append("restarted", message("user", "after delete"));
+        store.append("kept", message("assistant", "kept 1"));
+        int before = segments().size();
+
+        store.compact();
+
+        assertThat(segments().size()).isLessThan(before);
+        store = reopen(store, segmentSize);
+        assertThat(contents(store.messages("kept"))).containsExactly("kept 0", "kept 1");
+        assertThat(contents(store.messages("restarted"))).containsExactly("after delete");
+        assertThat(contents(store.messages("churn"))).containsExactly("version 39");
+    }
+
+    @Test
+    void leastRecentlyUsedConversationsOverTheLimitAreDeletedAndCompactedAway() throws IOException {
+        DataSize segmentSize = DataSize.ofBytes(512);
+        LogConversationStore store = open(segmentSize, 3, Duration.ZERO);
+        for (int i = 0; i < 6; i++) {
+            store.append("conversation-" + i, message("user", "hello " + i));
+        }
+        // 읽은 대화는 가장 최근에 쓴 대화가 됩니다.
+        store.messages("conversation-0");
+
+        assertThat(store.evict()).isEqualTo(3);
+
+        assertThat(store.size("conversation-0")).isEqualTo(1);
+        assertThat(store.size("conversation-1")).isZero();
+        assertThat(store.size("conversation-3")).isZero();
+        assertThat(store.size("conversation-5")).isEqualTo(1);
+        // 삭제 기록이 남아 있으므로 정리하면 지운 대화의 세그먼트도 돌려받고, 다시 열어도 되살아나지 않습니다.
+        for (int i = 0; i < 20; i++) {
+            store.replace("conversation-5", List.of(message("user", "version " + i)));
+        }
+        int before = segments().size();
+        store.compact();
+        assertThat(segments().size()).isLessThan(before);
+        store = reopen(store, segmentSize);
+        assertThat(contents(store.messages("conversation-0"))).containsExactly("hello 0");
+        assertThat(store.size("conversation-2")).isZero();
+        assertThat(contents(store.messages("conversation-5"))).containsExactly("version 19");
+    }
+
+    @Test
+    void conversationsIdleLongerThanTheRetentionAreDeleted() throws InterruptedException {
+        LogConversationStore store = open(DataSize.ofMegabytes(1), 0, Duration.ofMillis(200));
+        store.append("idle", message("user", "old"));
+        Thread.sleep(300);
+        store.append("active", message("user", "new"));
+
+        assertThat(store.evict()).isEqualTo(1);
+
+        assertThat(store.messages("idle")).isEmpty();
+        assertThat(contents(store.messages("active"))).containsExactly("new");
+    }
+
+    @Test
+    void conversationAppendedInANewerSegmentIsNotIdleAfterRestart() throws IOException {
+        DataSize segmentSize = DataSize.ofBytes(512);
+        LogConversationStore store = open(segmentSize);
+        store.append("stale", message("user", "forgotten"));
+        store.append("kept", message("user", "first turn"));
+        for (int i = 0; i < 10; i++) {
+            store.append("filler", message("user", "filler " + i));
+        }
+        store.append("kept", message("assistant", "yesterday"));
+        store.close();
+        stores.remove(store);
+        // 첫 세그먼트만 보관 기간보다 오래전에 쓴 파일로 만듭니다.
+        List<Path> written = segments();
+        assertThat(written).hasSizeGreaterThan(1);
+        Files.setLastModifiedTime(written.get(0), FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        store = open(segmentSize, 0, Duration.ofDays(1));
+
+        // 첫 기록이 오래된 세그먼트에 있어도 새 세그먼트에 이어 쓴 대화는 남습니다.
+        assertThat(store.evict()).isEqualTo(1);
+        assertThat(store.messages("stale")).isEmpty();
+        assertThat(contents(store.messages("kept"))).containsExactly("first turn", "yesterday");
+        assertThat(store.size("filler")).isEqualTo(10);
+    }
+
+    @Test
+    void manyAppendsAreReplayedInOrder() {
+        LogConversationStore store = open(DataSize.ofMegabytes(1));
+        int appends = 5000;
+        for (int i = 0; i < appends; i++) {
+            store.append("conversation-" + (i % 50), message("user", "message " + i));
+        }
+
+        store = reopen(store, DataSize.ofMegabytes(1));
+
+        for (int c = 0; c < 50; c++) {
+            assertThat(store.size("conversation-" + c)).isEqualTo(appends / 50);
+        }
+        assertThat(store.messages("conversation-7", 99, 1).get(0).getContent()).isEqualTo("message " + (99 * 50 + 7));
+    }
+}
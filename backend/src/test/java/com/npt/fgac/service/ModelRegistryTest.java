@@ -0,0 +1,64 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.dto.ModelDto;
+import com.npt.fgac.support.OpenAiStubServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {"my.api.key=test", "my.api.image=test", "my.api.projectName=test"})
+class ModelRegistryTest {
+    private static final OpenAiStubServer stub = new OpenAiStubServer();
+
+    @Autowired
+    private ModelRegistry modelRegistry;
+
+    @DynamicPropertySource
+    static void openAiUrl(DynamicPropertyRegistry registry) {
+        registry.add("my.api.openai-url", stub::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.stop();
+    }
+
+    @AfterEach
+    void restoreModels() {
+        stub.setModelsStatus(200);
+    }
+
+    @Test
+    void notModifiedKeepsCatalogue() {
+        modelRegistry.refresh();
+        int notModified = stub.modelsNotModified();
+
+        // 두 번째 갱신은 받은 ETag로 조건부 요청을 보내고 304를 받습니다.
+        modelRegistry.refresh();
+
+        assertThat(stub.modelsNotModified()).isEqualTo(notModified + 1);
+        assertThat(modelRegistry.models()).extracting(ModelDto::id).containsExactlyInAnyOrder("gpt-4o", "gpt-4o-mini");
+        assertThatCode(() -> modelRegistry.validate("gpt-4o-mini")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void upstreamFailureServesLastCatalogue() {
+        modelRegistry.refresh();
+        stub.setModelsStatus(500);
+
+        modelRegistry.refresh();
+
+        assertThat(modelRegistry.models()).extracting(ModelDto::id).containsExactlyInAnyOrder("gpt-4o", "gpt-4o-mini");
+        assertThatCode(() -> modelRegistry.validate("gpt-4o")).doesNotThrowAnyException();
+        assertThatThrownBy(() -> modelRegistry.validate("no-such-model")).isInstanceOf(ResponseStatusException.class);
+    }
+}
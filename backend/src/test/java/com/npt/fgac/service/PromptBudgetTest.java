@@ -0,0 +1,173 @@
+package com.npt.fgac.service;
+
+import com.npt.fgac.config.CallerProperties;
+import com.npt.fgac.config.TokenProperties;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.catalina.filters.RemoteIpFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PromptBudgetTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // 등록된 키 하나, IP 하나에 세션 2개까지
+    private final CallerResolver callerResolver = new CallerResolver(
+            new CallerProperties(List.of("registered-key"), 2, Duration.ofMinutes(30), 1000));
+
+    private PromptBudget budget(int tokensPerMinute) {
+        TokenProperties properties = new TokenProperties(true, DataSize.ofMegabytes(1), 16,
+                new TokenProperties.Limit(128000, 4096),
+                Map.of("tiny", new TokenProperties.Limit(100, 50), "tiny-large", new TokenProperties.Limit(1000, 50)),
+                new TokenProperties.User(tokensPerMinute, Duration.ofMinutes(1)));
+        return new PromptBudget(properties, new TokenCounter(properties), callerResolver, meterRegistry, 10);
+    }
+
+    private static CompletionRequestDto request(String model, String text) {
+        CompletionRequestDto request = new CompletionRequestDto(List.of(new ChatMessageDto("user", text)));
+        if (model != null) {
+            ReflectionTestUtils.setField(request, "model", model);
+        }
+        return request;
+    }
+
+    private double rejected(String reason) {
+        return meterRegistry.get("fgac.tokens.rejected").tag("reason", reason).counter().count();
+    }
+
+    @Test
+    void maxTokensIsCappedByModelOutputAndRemainingContext() {
+        PromptBudget budget = budget(0);
+        CompletionRequestDto fits = request("tiny", "hello world");
+        CompletionRequestDto large = request(null, "hello world");
+
+        int prompt = budget.admit("caller", fits);
+        budget.admit("caller", large);
+
+        // tiny : 컨텍스트 100 - 입력 9 = 91, 최대 출력 50
+        assertThat(prompt).isEqualTo(9);
+        assertThat(fits.getMaxTokens()).isEqualTo(50);
+        assertThat(large.getMaxTokens()).isEqualTo(4096);
+    }
+
+    @Test
+    void promptThatCannotFitTheContextWindowIsRejectedBeforeDispatch() {
+        PromptBudget budget = budget(0);
+        CompletionRequestDto tooLong = request("tiny", "word ".repeat(200));
+
+        assertThatThrownBy(() -> budget.admit("caller", tooLong))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThat(tooLong.getMaxTokens()).isNull();
+        assertThat(rejected("context_window")).isEqualTo(1);
+        // 이름이 가장 길게 겹치는 모델 한도를 씁니다.
+        CompletionRequestDto dated = request("tiny-large-2024", "word ".repeat(200));
+        budget.admit("caller", dated);
+        assertThat(dated.getMaxTokens()).isEqualTo(50);
+    }
+
+    @Test
+    void callerOverItsTokenBudgetGetsRetryAfter() {
+        // 입력 9 + 예상 출력 10 = 19토큰씩, 분당 50토큰이면 두 번까지
+        PromptBudget budget = budget(50);
+        budget.admit("alice", request(null, "hello world"));
+        budget.admit("alice", request(null, "hello world"));
+
+        assertThatThrownBy(() -> budget.admit("alice", request(null, "hello world")))
+                .isInstanceOfSatisfying(PromptBudget.BudgetExceededException.class, e -> {
+                    assertThat(e.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                    assertThat(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isNotNull();
+                    assertThat(e.getRetryAfter()).isPositive();
+                });
+        assertThat(rejected("caller_budget")).isEqualTo(1);
+        // 다른 호출자와 요청 밖(caller == null) 호출은 영향이 없습니다.
+        budget.admit("bob", request(null, "hello world"));
+        budget.admit(null, request(null, "hello world"));
+    }
+
+    @Test
+    void callersAreIdentifiedByKeyThenSessionThenAddress() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        assertThat(callerResolver.resolve(request)).isEqualTo("ip:10.0.0.1");
+
+        request.addHeader(CallerResolver.SESSION_HEADER, "session-1");
+        assertThat(callerResolver.resolve(request)).isEqualTo("session:10.0.0.1/session-1");
+
+        // 등록되지 않은 키는 믿지 않습니다.
+        request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer unknown");
+        assertThat(callerResolver.resolve(request)).isEqualTo("session:10.0.0.1/session-1");
+
+        MockHttpServletRequest registered = new MockHttpServletRequest();
+        registered.addHeader(HttpHeaders.AUTHORIZATION, "Bearer registered-key");
+        assertThat(callerResolver.resolve(registered)).startsWith("key:").doesNotContain("registered").hasSize(4 + 16);
+    }
+
+    @Test
+    void clientsBehindOneProxyResolveToDifferentCallers() throws Exception {
+        // server.forward-headers-strategy=native 와 같은 처리 : 신뢰하는 프록시가 보낸 X-Forwarded-For만 클라이언트 IP로 씁니다.
+        RemoteIpFilter remoteIp = new RemoteIpFilter();
+        remoteIp.setInternalProxies("127\\.0\\.0\\.1");
+        List<String> callers = new ArrayList<>();
+        FilterChain resolve = (request, response) -> callers.add(callerResolver.resolve((HttpServletRequest) request));
+        for (String[] client : new String[][]{{"127.0.0.1", "203.0.113.10"}, {"127.0.0.1", "203.0.113.20"}, {"198.51.100.1", "203.0.113.30"}}) {
+            MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/chatGpt/prompt");
+            request.setRemoteAddr(client[0]);
+            request.addHeader("X-Forwarded-For", client[1]);
+            remoteIp.doFilter(request, new MockHttpServletResponse(), resolve);
+        }
+        // 신뢰하지 않는 주소가 보낸 X-Forwarded-For는 무시합니다.
+        assertThat(callers).containsExactly("ip:203.0.113.10", "ip:203.0.113.20", "ip:198.51.100.1");
+
+        // 프록시가 클라이언트 IP를 넘기지 않아도 브라우저가 보내는 X-Session-Id로 나뉩니다.
+        MockHttpServletRequest firstTab = new MockHttpServletRequest();
+        firstTab.setRemoteAddr("127.0.0.1");
+        firstTab.addHeader(CallerResolver.SESSION_HEADER, "tab-a");
+        MockHttpServletRequest secondTab = new MockHttpServletRequest();
+        secondTab.setRemoteAddr("127.0.0.1");
+        secondTab.addHeader(CallerResolver.SESSION_HEADER, "tab-b");
+        assertThat(callerResolver.resolve(firstTab)).isNotEqualTo(callerResolver.resolve(secondTab));
+    }
+
+    @Test
+    void rotatingHeadersDoesNotResetTheCallerBudget() {
+        // 19토큰씩, 분당 50토큰이면 호출자마다 두 번까지
+        PromptBudget budget = budget(50);
+        int admitted = 0;
+        for (int i = 0; i < 20; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRemoteAddr("10.0.0.2");
+            request.addHeader(CallerResolver.API_KEY_HEADER, "made-up-key-" + i);
+            request.addHeader(CallerResolver.SESSION_HEADER, "session-" + i);
+            try {
+                budget.admit(callerResolver.resolve(request), request(null, "hello world"));
+                admitted++;
+            } catch (PromptBudget.BudgetExceededException e) {
+                // 한도 초과
+            }
+        }
+
+        // 처음 두 세션이 한 번씩, 나머지 18번은 IP 하나로 묶여서 두 번만
+        assertThat(admitted).isEqualTo(4);
+        MockHttpServletRequest other = new MockHttpServletRequest();
+        other.setRemoteAddr("10.0.0.3");
+        other.addHeader(CallerResolver.SESSION_HEADER, "session-0");
+        assertThat(callerResolver.resolve(other)).isEqualTo("session:10.0.0.3/session-0");
+    }
+}
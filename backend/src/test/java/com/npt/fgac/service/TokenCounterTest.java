@@ -0,0 +1,77 @@
+package com.npt.fgac.service;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import com.npt.fgac.dto.ChatMessageDto;
+import com.npt.fgac.dto.CompletionRequestDto;
+import com.npt.fgac.dto.ImageMessageContentDto;
+import com.npt.fgac.dto.ImageMessageDto;
+import com.npt.fgac.dto.ImageText;
+import com.npt.fgac.dto.ImageUrl;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenCounterTest {
+    private final TokenCounter tokenCounter = new TokenCounter(DataSize.ofMegabytes(1));
+
+    private static String pngDataUrl(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    @Test
+    void countsTextWithTheModelEncodingPlusMessageOverhead() {
+        CompletionRequestDto request = new CompletionRequestDto(List.of(new ChatMessageDto("user", "hello world")));
+
+        // 응답 시작 3 + 메시지 3 + "user" 1 + "hello world" 2
+        assertThat(tokenCounter.count(request)).isEqualTo(9);
+        assertThat(TokenCounter.encoding("gpt-4o-mini")).isEqualTo(EncodingType.O200K_BASE);
+        assertThat(TokenCounter.encoding("gpt-4-turbo")).isEqualTo(EncodingType.CL100K_BASE);
+        assertThat(TokenCounter.encoding("gpt-3.5-turbo")).isEqualTo(EncodingType.CL100K_BASE);
+    }
+
+    @Test
+    void longTextIsCountedOnceAndServedFromTheCache() {
+        String text = "the quick brown fox jumps over the lazy dog ".repeat(50);
+        ChatMessageDto message = new ChatMessageDto("user", text);
+
+        int first = tokenCounter.count("gpt-4o", message);
+
+        assertThat(first).isGreaterThan(400);
+        assertThat(tokenCounter.count("gpt-4o", new ChatMessageDto("user", new String(text)))).isEqualTo(first);
+    }
+
+    @Test
+    void imageCostFollowsTheTileFormulaWhenTheSizeIsKnown() throws IOException {
+        // 512x512 -> 타일 1개, 1600x1200 -> 1024x768 -> 타일 4개, 4000x1000 -> 2048x512 -> 타일 4개
+        assertThat(TokenCounter.imageTokens(pngDataUrl(512, 512), null)).isEqualTo(85 + 170);
+        assertThat(TokenCounter.imageTokens(1600, 1200)).isEqualTo(85 + 4 * 170);
+        assertThat(TokenCounter.imageTokens(4000, 1000)).isEqualTo(85 + 4 * 170);
+        assertThat(TokenCounter.imageTokens(pngDataUrl(2000, 2000), "low")).isEqualTo(85);
+        // 크기를 모르는 외부 URL
+        assertThat(TokenCounter.imageTokens("https://i.imgur.com/a.png", null)).isEqualTo(765);
+    }
+
+    @Test
+    void imagePartsAreCountedInBothRequestShapes() throws IOException {
+        String url = pngDataUrl(512, 512);
+        ImageMessageDto imageRequest = new ImageMessageDto("gpt-4o", List.of(new ImageMessageContentDto("user", List.of(
+                new ImageText("text", "hello world", null), new ImageText("image_url", null, new ImageUrl(url))))));
+        CompletionRequestDto chatRequest = new CompletionRequestDto(List.of(new ChatMessageDto("user", List.of(
+                Map.of("type", "text", "text", "hello world"),
+                Map.of("type", "image_url", "image_url", Map.of("url", url))))));
+
+        assertThat(tokenCounter.count(imageRequest)).isEqualTo(9 + 255);
+        assertThat(tokenCounter.count(chatRequest)).isEqualTo(9 + 255);
+    }
+}
@@ -0,0 +1,315 @@
+package com.npt.fgac.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UpstreamSchedulerTest {
+    // 초당 10개, 버킷 크기 1 : 100ms마다 하나씩 나갑니다.
+    private final UpstreamScheduler scheduler = scheduler(target("default", 600, Set.of()));
+    private final List<UpstreamScheduler> others = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdown();
+        others.forEach(UpstreamScheduler::shutdown);
+    }
+
+    private static UpstreamTarget target(String name, int requestsPerMinute, Set<String> models) {
+        return new UpstreamTarget(name, "http://" + name, "key-" + name, 1, models, requestsPerMinute, 1_000_000,
+                Duration.ofMillis(100));
+    }
+
+    private static UpstreamScheduler scheduler(UpstreamTarget... targets) {
+        return scheduler(UpstreamScheduler.Hedging.DISABLED, targets);
+    }
+
+    private static UpstreamScheduler scheduler(UpstreamScheduler.Hedging hedging, UpstreamTarget... targets) {
+        return new UpstreamScheduler(List.of(targets), 100, 3, Duration.ofMillis(10), Duration.ofMillis(50), 0,
+                new TokenCounter(DataSize.ofMegabytes(1)), 1, Duration.ofMillis(300), hedging);
+    }
+
+    private UpstreamScheduler other(UpstreamTarget... targets) {
+        return other(UpstreamScheduler.Hedging.DISABLED, targets);
+    }
+
+    private UpstreamScheduler other(UpstreamScheduler.Hedging hedging, UpstreamTarget... targets) {
+        UpstreamScheduler other = scheduler(hedging, targets);
+        others.add(other);
+        return other;
+    }
+
+    private static HttpServerErrorException serviceUnavailable() {
+        return HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "", null, null, null);
+    }
+
+    @Test
+    void asyncCallsStartOffTheSchedulerThread() {
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+                threads.add(Thread.currentThread().getName());
+                return CompletableFuture.completedFuture("ok");
+            }));
+        }
+
+        results.forEach(result -> assertThat(result).succeedsWithin(Duration.ofSeconds(5)));
+        // 요청 본문 직렬화는 call 안에서 하므로 스케줄러 스레드에서 돌면 모든 호출이 한 줄로 밀립니다.
+        assertThat(threads).hasSize(3).noneMatch("upstream-scheduler"::equals);
+    }
+
+    @Test
+    void rateLimitedCallIsRetriedAfterRetryAfter() {
+        AtomicInteger calls = new AtomicInteger();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("retry-after-ms", "200");
+
+        long start = System.nanoTime();
+        String result = scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+            if (calls.incrementAndGet() == 1) {
+                throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "", headers, new byte[0], StandardCharsets.UTF_8);
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls).hasValue(2);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+        UpstreamTarget target = scheduler.targets().get(0);
+        assertThat(target.rateLimited.sum()).isEqualTo(1);
+        assertThat(target.retries.sum()).isEqualTo(1);
+        assertThat(target.failures.sum()).isZero();
+    }
+
+    @Test
+    void clientErrorIsNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> result = scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "", null, null, null));
+        });
+
+        assertThatThrownBy(result::join).hasCauseInstanceOf(HttpClientErrorException.BadRequest.class);
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void interactiveCallsOvertakeQueuedBackgroundWork() {
+        List<String> order = new CopyOnWriteArrayList<>();
+        // 버킷을 비워서 이후 호출이 모두 줄을 서게 합니다.
+        scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> CompletableFuture.completedFuture("first")).join();
+
+        CompletableFuture<?> background = scheduler.submit(UpstreamScheduler.Priority.BACKGROUND, null, 1,
+                target -> CompletableFuture.completedFuture(order.add("background")));
+        CompletableFuture<?> interactive = scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1,
+                target -> CompletableFuture.completedFuture(order.add("interactive")));
+        CompletableFuture.allOf(background, interactive).join();
+
+        assertThat(order).containsExactly("interactive", "background");
+    }
+
+    @Test
+    void failedCallFailsOverToAnotherTarget() {
+        UpstreamTarget first = target("first", 6000, Set.of());
+        UpstreamTarget second = target("second", 6000, Set.of());
+        UpstreamScheduler scheduler = other(first, second);
+        List<String> tried = new CopyOnWriteArrayList<>();
+
+        String result = scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+            tried.add(target.name());
+            if (tried.size() == 1) {
+                throw serviceUnavailable();
+            }
+            return target.name();
+        });
+
+        assertThat(tried).hasSize(2).doesNotHaveDuplicates();
+        assertThat(result).isEqualTo(tried.get(1));
+        assertThat(first.inFlight() + second.inFlight()).isZero();
+        assertThat(first.failures.sum() + second.failures.sum()).isEqualTo(1);
+        assertThat(first.retries.sum() + second.retries.sum()).isEqualTo(1);
+    }
+
+    @Test
+    void openBreakerSkipsTargetUntilTrialCallSucceeds() throws InterruptedException {
+        UpstreamTarget broken = target("broken", 6000, Set.of());
+        UpstreamTarget healthy = target("healthy", 6000, Set.of());
+        UpstreamScheduler scheduler = other(broken, healthy);
+        AtomicInteger brokenCalls = new AtomicInteger();
+
+        // failure-threshold 1 : 한 번 실패하면 바로 열립니다.
+        for (int i = 0; i < 5; i++) {
+            scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+                if (target == broken) {
+                    brokenCalls.incrementAndGet();
+                    return CompletableFuture.failedFuture(serviceUnavailable());
+                }
+                return CompletableFuture.completedFuture(target.name());
+            }).join();
+        }
+        assertThat(brokenCalls).hasValue(1);
+        assertThat(broken.state()).isEqualTo(UpstreamTarget.State.OPEN);
+
+        // open-duration이 지나면 시험 호출 하나를 보내고, 성공하면 다시 닫힙니다.
+        Thread.sleep(350);
+        List<String> used = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> used.add(target.name()));
+        }
+        assertThat(used).contains("broken");
+        assertThat(broken.state()).isEqualTo(UpstreamTarget.State.CLOSED);
+    }
+
+    @Test
+    void interruptedStreamCountsAgainstBreakerWithoutRetry() {
+        UpstreamTarget streaming = target("streaming", 6000, Set.of());
+        UpstreamScheduler scheduler = other(streaming);
+        AtomicInteger calls = new AtomicInteger();
+
+        // 브라우저가 끊은 스트림은 업스트림 탓이 아닙니다.
+        assertThatThrownBy(() -> scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+            calls.incrementAndGet();
+            throw new CancellationException("Client stopped receiving the stream");
+        })).isInstanceOf(CancellationException.class);
+        assertThat(streaming.state()).isEqualTo(UpstreamTarget.State.CLOSED);
+
+        // chunk를 넘긴 뒤 업스트림 연결이 끊기면 다시 시도하지 않지만 장애로 셉니다. (failure-threshold 1)
+        assertThatThrownBy(() -> scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> {
+            calls.incrementAndGet();
+            throw new UpstreamScheduler.NotRetryableException("Stream interrupted after the first chunk", serviceUnavailable());
+        })).isInstanceOf(UpstreamScheduler.NotRetryableException.class);
+
+        assertThat(calls).hasValue(2);
+        assertThat(streaming.state()).isEqualTo(UpstreamTarget.State.OPEN);
+        assertThat(streaming.failures.sum()).isEqualTo(1);
+        assertThat(streaming.retries.sum()).isZero();
+    }
+
+    @Test
+    void requestIsRoutedOnlyToTargetsServingTheModel() {
+        UpstreamScheduler scheduler = other(target("openai", 6000, Set.of("gpt-4o")), target("local", 6000, Set.of("llama3")));
+
+        String used = scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, "llama3", 1, UpstreamTarget::name);
+
+        assertThat(used).isEqualTo("local");
+        assertThatThrownBy(() -> scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, "unknown", 1, UpstreamTarget::name))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("503");
+    }
+
+    @Test
+    void callForFreeTargetIsNotBlockedBehindCallForBusyTarget() {
+        // 분당 6개 : 버킷 하나를 쓰면 다음 호출은 10초 동안 기다립니다.
+        UpstreamScheduler scheduler = other(target("slow", 6, Set.of("gpt-4o")), target("fast", 6000, Set.of("llama3")));
+        scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, "gpt-4o", 1, UpstreamTarget::name);
+
+        CompletableFuture<String> blocked = scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, "gpt-4o", 1,
+                target -> CompletableFuture.completedFuture(target.name()));
+        CompletableFuture<String> free = scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, "llama3", 1,
+                target -> CompletableFuture.completedFuture(target.name()));
+
+        assertThat(free).succeedsWithin(Duration.ofSeconds(1)).isEqualTo("fast");
+        assertThat(blocked).isNotDone();
+        assertThat(scheduler.queued()).isEqualTo(1);
+    }
+
+    @Test
+    void queuedCallFailsWhenDeadlinePasses() {
+        // 버킷을 비워서 다음 호출은 100ms 동안 줄에서 기다려야 합니다.
+        scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> "first");
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> result = scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1,
+                Deadline.after(Duration.ofMillis(30)), target -> {
+                    calls.incrementAndGet();
+                    return CompletableFuture.completedFuture("late");
+                });
+
+        assertThatThrownBy(result::join).hasCauseInstanceOf(ResponseStatusException.class).hasMessageContaining("504");
+        assertThat(calls).hasValue(0);
+        assertThat(scheduler.queued()).isZero();
+    }
+
+    @Test
+    void cancellingTheReturnedFutureWithdrawsQueuedCallsAndCancelsRunningOnes() throws InterruptedException {
+        // 버킷을 비워서 다음 호출은 줄에서 기다립니다.
+        scheduler.execute(UpstreamScheduler.Priority.INTERACTIVE, null, 1, target -> "first");
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> queued = scheduler.submit(UpstreamScheduler.Priority.BACKGROUND, null, 1, target -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("speculative");
+        });
+
+        queued.cancel(true);
+
+        assertThat(scheduler.queued()).isZero();
+        Thread.sleep(200);
+        assertThat(calls).hasValue(0);
+
+        // 이미 시작한 호출은 call이 돌려준 future까지 취소합니다.
+        UpstreamTarget target = scheduler.targets().get(0);
+        CompletableFuture<String> hanging = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> running = scheduler.submit(UpstreamScheduler.Priority.BACKGROUND, null, 1, ignored -> {
+            started.countDown();
+            return hanging;
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        running.cancel(true);
+
+        assertThat(hanging).isCancelled();
+        assertThat(target.inFlight()).isZero();
+        assertThat(target.failures.sum()).isZero();
+    }
+
+    @Test
+    void slowCallIsHedgedToAnotherTargetAndLoserIsCancelled() {
+        UpstreamTarget slow = target("slow", 6000, Set.of());
+        UpstreamTarget fast = target("fast", 6000, Set.of());
+        UpstreamScheduler scheduler = other(new UpstreamScheduler.Hedging(true, 0.95, Duration.ofMillis(50), Duration.ofMillis(10)),
+                slow, fast);
+        CompletableFuture<String> hanging = new CompletableFuture<>();
+
+        String result = scheduler.submit(UpstreamScheduler.Priority.INTERACTIVE, null, 1, Deadline.none(),
+                target -> target == slow ? hanging : CompletableFuture.completedFuture(target.name())).join();
+
+        assertThat(result).isEqualTo("fast");
+        assertThat(hanging).isCancelled();
+        assertThat(slow.inFlight() + fast.inFlight()).isZero();
+        assertThat(slow.state()).isEqualTo(UpstreamTarget.State.CLOSED);
+        assertThat(scheduler.hedges.sum()).isEqualTo(1);
+        // 취소된 호출은 실패로 세지 않습니다.
+        assertThat(slow.failures.sum()).isZero();
+    }
+
+    @Test
+    void rateLimitResetDurationsAreParsed() {
+        assertThat(UpstreamScheduler.parseDuration("6m0s")).isEqualTo(Duration.ofMinutes(6));
+        assertThat(UpstreamScheduler.parseDuration("59.634s")).isEqualTo(Duration.ofMillis(59_634));
+        assertThat(UpstreamScheduler.parseDuration("20ms")).isEqualTo(Duration.ofMillis(20));
+    }
+}
@@ -0,0 +1,197 @@
+package com.npt.fgac.support;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * 부하 생성기
+ * [STEP1] 가상 클라이언트 concurrency개가 앞 요청의 응답을 다 받으면 다음 요청을 보냅니다. (closed loop)
+ *         요청은 sendAsync로 보내므로 가상 클라이언트 수와 상관없이 스레드는 몇 개만 씁니다.
+ * [STEP2] 요청마다 응답 헤더가 올 때까지의 시간(TTFB)과 본문을 다 받을 때까지의 시간, 상태 코드를 기록합니다.
+ * [STEP3] 도는 동안 100ms마다 JVM 스레드 수와 힙 사용량을 재고, 끝나면 처리량, 응답 시간 분위수, GC 횟수/시간과 함께 출력합니다.
+ * 같은 JVM에서 앱과 스텁이 함께 돌기 때문에 스레드와 힙은 앱 + 스텁 + 부하 생성기 합계입니다.
+ */
+public final class LoadGenerator {
+    private static final long SAMPLE_MILLIS = 100;
+
+    private final HttpClient client;
+    private final ExecutorService clientExecutor;
+
+    public LoadGenerator() {
+        AtomicInteger threads = new AtomicInteger();
+        clientExecutor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "load-client-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientExecutor)
+                .build();
+    }
+
+    /**
+     * request(i)로 만든 요청 requests개를 가상 클라이언트 concurrency개로 보냅니다.
+     */
+    public Report run(String name, int concurrency, int requests, IntFunction<HttpRequest> request) {
+        AtomicInteger sequence = new AtomicInteger();
+        List<Long> totalNanos = Collections.synchronizedList(new ArrayList<>(requests));
+        List<Long> firstByteNanos = Collections.synchronizedList(new ArrayList<>(requests));
+        Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        Resources resources = new Resources();
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> clients = new ArrayList<>(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            clients.add(next(sequence, requests, request, totalNanos, firstByteNanos, statuses));
+        }
+        CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).join();
+        long elapsedNanos = System.nanoTime() - start;
+        resources.stop();
+
+        Map<String, Long> counts = new TreeMap<>();
+        statuses.forEach((status, count) -> counts.put(status, count.sum()));
+        return new Report(name, concurrency, requests, elapsedNanos, counts,
+                new ArrayList<>(firstByteNanos), new ArrayList<>(totalNanos), resources);
+    }
+
+    public void close() {
+        clientExecutor.shutdownNow();
+    }
+
+    // 가상 클라이언트 하나 : 응답 본문을 다 받으면 다음 번호의 요청을 보냅니다.
+    private CompletableFuture<Void> next(AtomicInteger sequence, int requests, IntFunction<HttpRequest> request,
+                                         List<Long> totalNanos, List<Long> firstByteNanos, Map<String, LongAdder> statuses) {
+        int i = sequence.getAndIncrement();
+        if (i >= requests) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long start = System.nanoTime();
+        HttpResponse.BodyHandler<Void> handler = info -> {
+            firstByteNanos.add(System.nanoTime() - start);
+            return HttpResponse.BodySubscribers.discarding();
+        };
+        return client.sendAsync(request.apply(i), handler)
+                .handle((response, failure) -> {
+                    totalNanos.add(System.nanoTime() - start);
+                    String status = failure != null ? failure.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                    statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+                    return null;
+                })
+                .thenCompose(ignored -> next(sequence, requests, request, totalNanos, firstByteNanos, statuses));
+    }
+
+    /**
+     * 도는 동안의 JVM 스레드 수와 힙 사용량 최댓값, GC 횟수와 시간
+     */
+    public static final class Resources {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final int threadsBefore = threads.getThreadCount();
+        private final long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        private final long gcCountBefore = gcCount();
+        private final long gcMillisBefore = gcMillis();
+        private final AtomicInteger peakThreads = new AtomicInteger(threadsBefore);
+        private final AtomicLong peakHeap = new AtomicLong(heapBefore);
+        private long gcCount;
+        private long gcMillis;
+
+        private Resources() {
+            sampler.scheduleAtFixedRate(() -> {
+                peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            }, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void stop() {
+            sampler.shutdownNow();
+            gcCount = gcCount() - gcCountBefore;
+            gcMillis = gcMillis() - gcMillisBefore;
+        }
+
+        public int peakThreads() {
+            return peakThreads.get();
+        }
+
+        public long peakHeapBytes() {
+            return peakHeap.get();
+        }
+
+        private static long gcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+        }
+
+        private static long gcMillis() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum();
+        }
+    }
+
+    public record Report(String name, int concurrency, int requests, long elapsedNanos, Map<String, Long> statuses,
+                         List<Long> firstByteNanos, List<Long> totalNanos, Resources resources) {
+
+        public double throughput() {
+            return requests * 1e9 / elapsedNanos;
+        }
+
+        public long count(int status) {
+            return statuses.getOrDefault(String.valueOf(status), 0L);
+        }
+
+        // 응답 시간 분위수 (밀리초)
+        public long percentileMillis(double percentile) {
+            return percentile(totalNanos, percentile) / 1_000_000;
+        }
+
+        public long firstBytePercentileMillis(double percentile) {
+            return percentile(firstByteNanos, percentile) / 1_000_000;
+        }
+
+        public void print() {
+            System.out.printf("[load] %s : requests=%d concurrency=%d elapsed=%dms throughput=%.1f req/s statuses=%s%n",
+                    name, requests, concurrency, elapsedNanos / 1_000_000, throughput(), statuses);
+            System.out.printf("[load] %s : latency p50=%dms p90=%dms p99=%dms max=%dms, ttfb p50=%dms p99=%dms%n",
+                    name, percentileMillis(0.5), percentileMillis(0.9), percentileMillis(0.99), percentileMillis(1.0),
+                    firstBytePercentileMillis(0.5), firstBytePercentileMillis(0.99));
+            System.out.printf("[load] %s : threads before=%d peak=%d, heap before=%dMB peak=%dMB, gc=%d (%dms)%n",
+                    name, resources.threadsBefore, resources.peakThreads(), resources.heapBefore >> 20,
+                    resources.peakHeapBytes() >> 20, resources.gcCount, resources.gcMillis);
+        }
+
+        private static long percentile(List<Long> values, double percentile) {
+            if (values.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+        }
+    }
+}
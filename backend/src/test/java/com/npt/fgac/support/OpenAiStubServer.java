@@ -0,0 +1,376 @@
+package com.npt.fgac.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 테스트용 OpenAI 스텁 서버
+ * /v1/chat/completions 요청 본문에 "stream":true 가 있으면 SSE chunk를 나누어 보내고, 없으면 일반 JSON 응답을 보냅니다.
+ * /v1/models는 ETag를 붙여 보내고 If-None-Match가 같으면 304로 응답합니다. (setModelsStatus로 오류 응답)
+ * /3/image는 Imgur 업로드를 흉내내며 받은 본문 크기와 요청 헤더를 기록합니다.
+ * /v1/files, /v1/batches는 Batch API를 흉내내며, 만든 batch는 처음 조회할 때 completed가 됩니다. (failBatchesAfter로 생성 실패, /cancel로 취소)
+ * setSlowEvery로 N번째 완성 요청마다 긴 지연을 넣어 응답 시간 꼬리(tail)를 흉내낼 수 있습니다.
+ * 부하 테스트용으로 완성/모델/업로드 응답의 지연 분포(setLatency)와 500, 429(retry-after-ms) 비율(setFaults)을 바꿀 수 있습니다.
+ */
+public class OpenAiStubServer {
+    private static final String MODELS_ETAG = "\"models-v1\"";
+    private final HttpServer server;
+    // 스트리밍 응답은 chunk 사이에 스레드를 재우므로 동시 요청 수만큼 스레드를 씁니다.
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // 느린 업스트림을 흉내낼 때 스레드를 재우지 않고 지연 후 응답을 보냅니다.
+    private final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> requestBodies = new CopyOnWriteArrayList<>();
+    private final List<Upload> uploads = new CopyOnWriteArrayList<>();
+    // 파일 id -> 입력 JSONL의 custom_id 목록, batch id -> 입력 파일 id
+    private final Map<String, List<String>> batchFiles = new ConcurrentHashMap<>();
+    private final Map<String, String> batches = new ConcurrentHashMap<>();
+    private final List<String> batchInputs = new CopyOnWriteArrayList<>();
+    private final List<String> cancelledBatches = new CopyOnWriteArrayList<>();
+    private final AtomicInteger batchCreatesLeft = new AtomicInteger(Integer.MAX_VALUE);
+    private final AtomicInteger ids = new AtomicInteger();
+    private volatile long chunkDelayMillis = 0;
+    private volatile Latency latency = Latency.fixed(0);
+    private volatile double errorRate = 0;
+    private volatile double rateLimitRate = 0;
+    private volatile long retryAfterMillis = 0;
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger rateLimited = new AtomicInteger();
+    private volatile int slowEvery = 0;
+    private volatile long slowDelayMillis = 0;
+    private final AtomicInteger completionCount = new AtomicInteger();
+    private final List<Long> completionDelays = new CopyOnWriteArrayList<>();
+    private volatile int modelsStatus = 200;
+    private final AtomicInteger modelsNotModified = new AtomicInteger();
+
+    public OpenAiStubServer() {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        server.createContext("/v1/chat/completions", this::completions);
+        server.createContext("/v1/models", this::models);
+        server.createContext("/3/image", this::imageUpload);
+        server.createContext("/v1/files", this::files);
+        server.createContext("/v1/batches", this::batches);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public List<String> requestBodies() {
+        return requestBodies;
+    }
+
+    public List<Upload> uploads() {
+        return uploads;
+    }
+
+    public void setChunkDelayMillis(long chunkDelayMillis) {
+        this.chunkDelayMillis = chunkDelayMillis;
+    }
+
+    public void setResponseDelayMillis(long responseDelayMillis) {
+        this.latency = Latency.fixed(responseDelayMillis);
+    }
+
+    // 완성(스트리밍은 첫 chunk까지), 모델 목록, 이미지 업로드 응답 지연
+    public void setLatency(Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * 요청 중 errorRate 비율은 500, rateLimitRate 비율은 429(retry-after-ms : retryAfterMillis)로 응답합니다.
+     */
+    public void setFaults(double errorRate, double rateLimitRate, long retryAfterMillis) {
+        this.errorRate = errorRate;
+        this.rateLimitRate = rateLimitRate;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * batch를 creates개 더 만든 뒤부터는 batch 생성 요청에 500으로 응답합니다.
+     */
+    public void failBatchesAfter(int creates) {
+        batchCreatesLeft.set(creates);
+    }
+
+    // 올라온 batch 입력 JSONL 파일 내용
+    public List<String> batchInputs() {
+        return batchInputs;
+    }
+
+    public List<String> cancelledBatches() {
+        return cancelledBatches;
+    }
+
+    public int errors() {
+        return errors.get();
+    }
+
+    public int rateLimited() {
+        return rateLimited.get();
+    }
+
+    public void setSlowEvery(int every, long delayMillis) {
+        this.slowEvery = every;
+        this.slowDelayMillis = delayMillis;
+    }
+
+    // 완성 요청마다 넣은 지연 (헤징이 없을 때 클라이언트가 겪었을 응답 시간)
+    public List<Long> completionDelays() {
+        return completionDelays;
+    }
+
+    // 200이 아니면 /v1/models에 그 상태 코드로 오류를 응답합니다.
+    public void setModelsStatus(int status) {
+        this.modelsStatus = status;
+    }
+
+    public int modelsNotModified() {
+        return modelsNotModified.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        delayer.shutdownNow();
+    }
+
+    private void completions(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        requestBodies.add(body);
+        long delay = slowEvery > 0 && completionCount.incrementAndGet() % slowEvery == 0 ? slowDelayMillis : latency.nextMillis();
+        if (body.replace(" ", "").contains("\"stream\":true")) {
+            respond(exchange, delay, () -> streamCompletion(exchange));
+        } else {
+            if (delay > 0) {
+                completionDelays.add(delay);
+            }
+            respond(exchange, delay, () -> send(exchange, "application/json", completionJson("stub answer")));
+        }
+    }
+
+    /**
+     * 지연이 있으면 스레드를 재우지 않고 delay 뒤에 응답합니다. 설정한 비율만큼은 정상 응답 대신 500이나 429를 보냅니다.
+     */
+    private void respond(HttpExchange exchange, long delay, Response response) {
+        Runnable reply = () -> {
+            try {
+                double roll = ThreadLocalRandom.current().nextDouble();
+                if (roll < rateLimitRate) {
+                    rateLimited.incrementAndGet();
+                    exchange.getResponseHeaders().set("retry-after-ms", String.valueOf(retryAfterMillis));
+                    send(exchange, 429, "application/json", errorJson("rate_limit_exceeded", "Rate limit reached (stub)"));
+                } else if (roll < rateLimitRate + errorRate) {
+                    errors.incrementAndGet();
+                    send(exchange, 500, "application/json", errorJson("server_error", "The server had an error (stub)"));
+                } else {
+                    response.send();
+                }
+            } catch (IOException e) {
+                exchange.close();
+            }
+        };
+        if (delay > 0) {
+            // 스트리밍처럼 오래 쓰는 응답이 지연 스레드를 잡고 있지 않도록 보내는 일은 executor로 넘깁니다.
+            delayer.schedule(() -> executor.execute(reply), delay, TimeUnit.MILLISECONDS);
+        } else {
+            reply.run();
+        }
+    }
+
+    private void streamCompletion(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            String[] tokens = {"Hel", "lo", " wor", "ld"};
+            for (String token : tokens) {
+                String chunk = "{\"id\":\"chatcmpl-stub\",\"object\":\"chat.completion.chunk\",\"model\":\"gpt-4o\","
+                        + "\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + token + "\"},\"finish_reason\":null}]}";
+                out.write(("data: " + chunk + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                sleep(chunkDelayMillis);
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void models(HttpExchange exchange) {
+        respond(exchange, latency.nextMillis(), () -> {
+            if (modelsStatus != 200) {
+                send(exchange, modelsStatus, "application/json", errorJson("server_error", "The server had an error (stub)"));
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", MODELS_ETAG);
+            if (MODELS_ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                modelsNotModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            send(exchange, "application/json", "{\"object\":\"list\",\"data\":["
+                    + "{\"id\":\"gpt-4o\",\"object\":\"model\",\"created\":1715367049,\"owned_by\":\"system\"},"
+                    + "{\"id\":\"gpt-4o-mini\",\"object\":\"model\",\"created\":1721172741,\"owned_by\":\"system\"}]}");
+        });
+    }
+
+    private void imageUpload(HttpExchange exchange) throws IOException {
+        long received = exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+        uploads.add(new Upload(received,
+                exchange.getRequestHeaders().getFirst("Content-Length"),
+                exchange.getRequestHeaders().getFirst("Transfer-Encoding")));
+        respond(exchange, latency.nextMillis(), () -> send(exchange, "application/json",
+                "{\"data\":{\"link\":\"https://i.imgur.com/stub.png\"},\"success\":true,\"status\":200}"));
+    }
+
+    private void files(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            List<String> customIds = new ArrayList<>();
+            Matcher matcher = Pattern.compile("\"custom_id\":\"([^\"]+)\"").matcher(body);
+            while (matcher.find()) {
+                customIds.add(matcher.group(1));
+            }
+            String fileId = "file-" + ids.incrementAndGet();
+            batchFiles.put(fileId, customIds);
+            batchInputs.add(body);
+            send(exchange, "application/json", "{\"id\":\"" + fileId + "\",\"object\":\"file\",\"purpose\":\"batch\"}");
+            return;
+        }
+        // GET /v1/files/{id}/content : 입력 줄마다 완성 응답 한 줄
+        String fileId = path.substring("/v1/files/".length(), path.length() - "/content".length());
+        StringBuilder output = new StringBuilder();
+        for (String customId : batchFiles.getOrDefault(fileId, List.of())) {
+            output.append("{\"id\":\"batch_req_").append(customId).append("\",\"custom_id\":\"").append(customId)
+                    .append("\",\"response\":{\"status_code\":200,\"body\":").append(completionJson("batch answer"))
+                    .append("},\"error\":null}\n");
+        }
+        send(exchange, "application/jsonl", output.toString());
+    }
+
+    private void batches(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod()) && path.endsWith("/cancel")) {
+            String batchId = path.substring("/v1/batches/".length(), path.length() - "/cancel".length());
+            cancelledBatches.add(batchId);
+            send(exchange, "application/json", batchJson(batchId, "cancelling", batches.get(batchId), null));
+            return;
+        }
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (batchCreatesLeft.getAndDecrement() <= 0) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            Matcher matcher = Pattern.compile("\"input_file_id\"\\s*:\\s*\"([^\"]+)\"").matcher(body);
+            String inputFileId = matcher.find() ? matcher.group(1) : null;
+            String batchId = "batch_" + ids.incrementAndGet();
+            batches.put(batchId, inputFileId);
+            send(exchange, "application/json", batchJson(batchId, "validating", inputFileId, null));
+            return;
+        }
+        String batchId = path.substring("/v1/batches/".length());
+        String inputFileId = batches.get(batchId);
+        // 결과 파일은 입력 파일과 같은 custom_id 목록을 사용합니다.
+        send(exchange, "application/json", batchJson(batchId, "completed", inputFileId, inputFileId));
+    }
+
+    private static String batchJson(String batchId, String status, String inputFileId, String outputFileId) {
+        return "{\"id\":\"" + batchId + "\",\"object\":\"batch\",\"endpoint\":\"/v1/chat/completions\","
+                + "\"status\":\"" + status + "\",\"input_file_id\":\"" + inputFileId + "\","
+                + "\"output_file_id\":" + (outputFileId == null ? "null" : "\"" + outputFileId + "\"") + ",\"error_file_id\":null}";
+    }
+
+    public record Upload(long bytes, String contentLength, String transferEncoding) {
+    }
+
+    /**
+     * 응답 지연 분포 (밀리초)
+     */
+    @FunctionalInterface
+    public interface Latency {
+        long nextMillis();
+
+        static Latency fixed(long millis) {
+            return () -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+        }
+
+        /**
+         * 중앙값과 p99로 정한 로그 정규 분포 (LLM 응답 시간처럼 오른쪽 꼬리가 긴 분포)
+         */
+        static Latency logNormal(long medianMillis, long p99Millis) {
+            double mu = Math.log(medianMillis);
+            // 표준 정규 분포의 99% 분위수 2.326
+            double sigma = (Math.log(p99Millis) - mu) / 2.326;
+            return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Response {
+        void send() throws IOException;
+    }
+
+    public static String completionJson(String content) {
+        return "{\"id\":\"chatcmpl-stub\",\"object\":\"chat.completion\",\"created\":1720000000,\"model\":\"gpt-4o\","
+                + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\",\"refusal\":null},"
+                + "\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3,\"total_tokens\":15}}";
+    }
+
+    private static String errorJson(String code, String message) {
+        return "{\"error\":{\"message\":\"" + message + "\",\"type\":\"" + code + "\",\"param\":null,\"code\":\"" + code + "\"}}";
+    }
+
+    private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+        send(exchange, 200, contentType, body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -180,10 +180,8 @@ export default function Input({setChatData, onLoadingChange}: InputProps) {
 
     // 응답 데이터 저장
     const saveChatData = (response: Array<{
-        index: number,
-        message: { role: string, content: string },
-        logprobs: any,
-        finish_reason: string
+        content: string,
+        finish_reason?: string
     }>) => {
         setChatData(prevChatData => {
             if (stepId == null)
@@ -195,7 +193,7 @@ export default function Input({setChatData, onLoadingChange}: InputProps) {
                     role: 'assistant',
                     content: [{
                         type: "text",
-                        text: res.message.content
+                        text: res.content
                     }]
                 }
 
@@ -1,4 +1,7 @@
-import {getSessionChatMessages} from './sessionUtils';
+import {getSessionChatMessages, getSessionConversationId} from './sessionUtils';
+
+// 서버가 같은 IP(프록시 뒤)의 브라우저를 구분할 수 있도록 탭마다 다른 대화 ID를 세션으로 보냄
+const sessionHeaders = () => ({'X-Session-Id': getSessionConversationId()});
 
 // 이미지 파일 업로드 API를 요청
 export const uploadImage = async (file: File): Promise<string | null> => {
@@ -9,6 +12,7 @@ export const uploadImage = async (file: File): Promise<string | null> => {
     try {
         const response = await fetch('/api/v1/chatGpt/image', {
             method: 'POST',
+            headers: sessionHeaders(),
             body: formData
         });
 
@@ -24,17 +28,37 @@ export const uploadImage = async (file: File): Promise<string | null> => {
     }
 };
 
+// 새 메시지 하나만 보내고, 이전 대화는 서버에 보관된 기록을 사용
 export const sendImageMessage = async () => {
-    const payload = getSessionChatMessages();
+    const messages = getSessionChatMessages();
+    const conversationUrl = `/api/v1/chatGpt/conversations/${getSessionConversationId()}`;
 
-    const response = await fetch('/api/v1/chatGpt/prompt', {
+    // 답변 내용만 받기 (index, role, logprobs 등은 화면에서 쓰지 않음)
+    const send = () => fetch(`${conversationUrl}/prompt?view=slim`, {
         method: 'POST',
         headers: {
-            'Content-Type': 'application/json'
+            ...sessionHeaders(),
+            'Content-Type': 'application/json',
+            'X-Conversation-Size': String(messages.length - 1)
         },
-        body: JSON.stringify(payload)
+        body: JSON.stringify(messages[messages.length - 1])
     });
 
+    let response = await send();
+
+    // 서버 기록과 어긋난 경우(서버 재시작 등) 전체 기록을 한 번 올리고 다시 요청
+    if (response.status === 409) {
+        await fetch(conversationUrl, {
+            method: 'PUT',
+            headers: {
+                ...sessionHeaders(),
+                'Content-Type': 'application/json'
+            },
+            body: JSON.stringify(messages.slice(0, -1))
+        });
+        response = await send();
+    }
+
     if (!response.ok) throw new Error('Image message send failed');
 
     return await response.json();
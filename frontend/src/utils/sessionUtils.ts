@@ -6,6 +6,18 @@ export const setSessionChatMessages = (message: {}, stepId: string) => {
     sessionStorage.setItem(`chatMessages_${stepId}`, JSON.stringify([...stepIdChatMessages, message]));
 };
 
+// 서버에 보관되는 대화 기록의 ID
+export const getSessionConversationId = () => {
+    let conversationId = sessionStorage.getItem('conversationId');
+
+    if (!conversationId) {
+        conversationId = crypto.randomUUID();
+        sessionStorage.setItem('conversationId', conversationId);
+    }
+
+    return conversationId;
+}
+
 export const getSessionChatMessages = () => {
     return JSON.parse(sessionStorage.getItem('chatMessages') || '[]');
 }